@@ -27,10 +27,12 @@ import org.onlab.packet.TCP;
 import org.onlab.packet.TpPort;
 import org.onlab.packet.UDP;
 import org.onlab.packet.VlanId;
+import org.onlab.util.KryoNamespace;
 import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.event.Event;
+import org.onosproject.mastership.MastershipService;
 import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.Device;
 import org.onosproject.net.DeviceId;
@@ -38,6 +40,7 @@ import org.onosproject.net.Host;
 import org.onosproject.net.HostId;
 import org.onosproject.net.Link;
 import org.onosproject.net.Path;
+import org.onosproject.net.Port;
 import org.onosproject.net.PortNumber;
 import org.onosproject.net.device.DeviceEvent;
 import org.onosproject.net.device.DeviceListener;
@@ -47,11 +50,16 @@ import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
 import org.onosproject.net.flow.FlowEntry;
 import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.TrafficTreatment;
 import org.onosproject.net.flow.criteria.Criterion;
 import org.onosproject.net.flow.criteria.EthCriterion;
+import org.onosproject.net.flow.criteria.PortCriterion;
 import org.onosproject.net.flow.instructions.Instruction;
 import org.onosproject.net.flow.instructions.Instructions;
 import org.onosproject.net.flowobjective.DefaultForwardingObjective;
@@ -67,6 +75,12 @@ import org.onosproject.net.packet.PacketService;
 import org.onosproject.net.topology.TopologyEvent;
 import org.onosproject.net.topology.TopologyListener;
 import org.onosproject.net.topology.TopologyService;
+import org.onosproject.store.serializers.KryoNamespaces;
+import org.onosproject.store.service.EventuallyConsistentMap;
+import org.onosproject.store.service.EventuallyConsistentMapEvent;
+import org.onosproject.store.service.EventuallyConsistentMapListener;
+import org.onosproject.store.service.StorageService;
+import org.onosproject.store.service.WallClockTimestamp;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
@@ -79,9 +93,36 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
-
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static nctu.winlab.bridge.OsgiPropertyConstants.FLOOD_BURST;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FLOOD_BURST_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FLOOD_DEVICE_RATE;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FLOOD_DEVICE_RATE_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FLOOD_RATE;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FLOOD_RATE_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FLOOD_SAMPLE_RATE;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FLOOD_SAMPLE_RATE_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FLOW_SUPPRESS_WINDOW;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FLOW_SUPPRESS_WINDOW_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FORWARDING_MODE;
+import static nctu.winlab.bridge.OsgiPropertyConstants.FORWARDING_MODE_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.MAC_AGING_TIME;
+import static nctu.winlab.bridge.OsgiPropertyConstants.MAC_AGING_TIME_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.MAC_TABLE_CAPACITY;
+import static nctu.winlab.bridge.OsgiPropertyConstants.MAC_TABLE_CAPACITY_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.PIPELINE_QUEUE_DEPTH;
+import static nctu.winlab.bridge.OsgiPropertyConstants.PIPELINE_QUEUE_DEPTH_DEFAULT;
+import static nctu.winlab.bridge.OsgiPropertyConstants.PIPELINE_SHARDS;
+import static nctu.winlab.bridge.OsgiPropertyConstants.PIPELINE_SHARDS_DEFAULT;
 import static org.onlab.util.Tools.get;
+import static org.onlab.util.Tools.groupedThreads;
 
 /**
  * Skeletal ONOS application component.
@@ -89,8 +130,26 @@ import static org.onlab.util.Tools.get;
 @Component(immediate = true,
            service = {AppComponent.class},
            property = {
+               MAC_TABLE_CAPACITY + ":Integer=" + MAC_TABLE_CAPACITY_DEFAULT,
+               MAC_AGING_TIME + ":Integer=" + MAC_AGING_TIME_DEFAULT,
+               FLOW_SUPPRESS_WINDOW + ":Integer=" + FLOW_SUPPRESS_WINDOW_DEFAULT,
+               FORWARDING_MODE + "=" + FORWARDING_MODE_DEFAULT,
+               FLOOD_RATE + ":Integer=" + FLOOD_RATE_DEFAULT,
+               FLOOD_BURST + ":Integer=" + FLOOD_BURST_DEFAULT,
+               FLOOD_SAMPLE_RATE + ":Integer=" + FLOOD_SAMPLE_RATE_DEFAULT,
+               FLOOD_DEVICE_RATE + ":Integer=" + FLOOD_DEVICE_RATE_DEFAULT,
+               PIPELINE_SHARDS + ":Integer=" + PIPELINE_SHARDS_DEFAULT,
+               PIPELINE_QUEUE_DEPTH + ":Integer=" + PIPELINE_QUEUE_DEPTH_DEFAULT,
            })
 public class AppComponent {
+    private static final int AGING_SWEEP_INTERVAL = 10;
+    // One hour of MAC table size samples, taken on every aging sweep
+    private static final int MAC_HISTORY_LENGTH = 360;
+    private static final int BASE_RULE_BATCH_WINDOW = 100;
+    // DESTINATION mode matches learned sources in the first table and destinations in the next one
+    private static final int SOURCE_TABLE = 0;
+    private static final int DESTINATION_TABLE = 1;
+
     /* Runtime data */
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -100,7 +159,68 @@ public class AppComponent {
 
     private SwitchBaseFlowRulesListener switchFlowRulesListener = new SwitchBaseFlowRulesListener();
 
-    private HashMap<DeviceId, HashMap<MacAddress, PortNumber>> addr_table = new HashMap<DeviceId, HashMap<MacAddress, PortNumber>>();
+    private PortStatusListener portStatusListener = new PortStatusListener();
+
+    private InstalledFlowListener installedFlowListener = new InstalledFlowListener();
+
+    private MacTable addr_table = new MacTable(MAC_TABLE_CAPACITY_DEFAULT, TimeUnit.SECONDS.toMillis(MAC_AGING_TIME_DEFAULT));
+
+    // Learned ports shared across the cluster and kept over restarts, addr_table is its near cache
+    private EventuallyConsistentMap<MacKey, PortNumber> mac_store;
+
+    private MacStoreListener macStoreListener = new MacStoreListener();
+
+    private FlowInstallCache flow_cache = new FlowInstallCache(FLOW_SUPPRESS_WINDOW_DEFAULT);
+
+    private FlowIndex flow_index = new FlowIndex();
+
+    // Last packet count reported by the data plane for every installed rule
+    private ConcurrentHashMap<FlowKey, Long> flow_packets = new ConcurrentHashMap<FlowKey, Long>();
+
+    private MacTableHistory mac_history = new MacTableHistory(MAC_HISTORY_LENGTH);
+
+    private FloodLimiter flood_limiter = new FloodLimiter(FLOOD_RATE_DEFAULT, FLOOD_BURST_DEFAULT,
+            FLOOD_SAMPLE_RATE_DEFAULT, FLOOD_DEVICE_RATE_DEFAULT, MAC_TABLE_CAPACITY_DEFAULT);
+
+    private ScheduledExecutorService scheduler;
+
+    private FlowRuleBatcher base_rule_batcher;
+
+    // Runs forwarding rule submissions off the packet thread, null when disabled
+    private volatile ShardedExecutor install_executor;
+
+    private ConcurrentHashMap<PortNumber, TrafficTreatment> output_treatments = new ConcurrentHashMap<PortNumber, TrafficTreatment>();
+
+    /* Configurable properties */
+    /** Maximum number of learned MAC addresses per device. */
+    private int macTableCapacity = MAC_TABLE_CAPACITY_DEFAULT;
+
+    /** MAC address aging time in seconds. */
+    private int macAgingTime = MAC_AGING_TIME_DEFAULT;
+
+    /** Window in milliseconds during which repeated installs of the same rule are suppressed. */
+    private int flowSuppressWindow = FLOW_SUPPRESS_WINDOW_DEFAULT;
+
+    /** Forwarding rule granularity, either PAIR or DESTINATION. */
+    private volatile ForwardingMode forwardingMode = ForwardingMode.valueOf(FORWARDING_MODE_DEFAULT);
+
+    /** Table-miss floods per second allowed for each source on a device, 0 for unlimited. */
+    private int floodRate = FLOOD_RATE_DEFAULT;
+
+    /** Table-miss floods allowed in a burst for each source on a device. */
+    private int floodBurst = FLOOD_BURST_DEFAULT;
+
+    /** Flood one of this many packets over the limit, 0 to drop them all. */
+    private int floodSampleRate = FLOOD_SAMPLE_RATE_DEFAULT;
+
+    /** Table-miss floods per second allowed for all sources on a device, 0 for unlimited. */
+    private int floodDeviceRate = FLOOD_DEVICE_RATE_DEFAULT;
+
+    /** Number of threads submitting forwarding rules off the packet thread, 0 to submit inline. */
+    private int pipelineShards = PIPELINE_SHARDS_DEFAULT;
+
+    /** Number of rule submissions queued per pipeline thread before new installs are skipped. */
+    private int pipelineQueueDepth = PIPELINE_QUEUE_DEPTH_DEFAULT;
 
     /* Referenced services */
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
@@ -121,25 +241,76 @@ public class AppComponent {
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected PacketService packetService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected StorageService storageService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected MastershipService mastershipService;
+
     /* Application Entries */
 
     @Activate
-    protected void activate() {
-        //cfgService.registerProperties(getClass());
+    protected void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
+        modified(context);
         this.appId = coreService.registerApplication("nctu.winlab.bridge");
-        packetService.addProcessor(this.processor, PacketProcessor.director(2));
-        initBaseFlowRules();
+        mac_store = storageService.<MacKey, PortNumber>eventuallyConsistentMapBuilder()
+            .withName("nctu-bridge-mac-table")
+            .withSerializer(KryoNamespace.newBuilder()
+                .register(KryoNamespaces.API)
+                .register(MacKey.class))
+            .withTimestampProvider((key, port) -> new WallClockTimestamp())
+            .withPersistence()
+            .build();
+        warmMacTable();
+        mac_store.addListener(macStoreListener);
+        addr_table.setListener(this::macLearned);
+        addr_table.setForgetListener(this::macForgotten);
+        if (install_executor == null) {
+            // Unless the configured pipeline was started already
+            reconfigurePipeline();
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(groupedThreads("nctu/bridge", "scheduler", log));
+        scheduler.scheduleAtFixedRate(this::purgeMacTable, AGING_SWEEP_INTERVAL, AGING_SWEEP_INTERVAL, TimeUnit.SECONDS);
+        base_rule_batcher = new FlowRuleBatcher(flowRuleService, scheduler, BASE_RULE_BATCH_WINDOW, new BaseRuleBatchContext());
         deviceService.addListener(switchFlowRulesListener);
+        initBaseFlowRules();
+        deviceService.addListener(portStatusListener);
+        flowRuleService.addListener(installedFlowListener);
+        // Last, so no packet-in is handled before the state it touches is set up
+        packetService.addProcessor(this.processor, PacketProcessor.director(2));
 
         log.info("Activated");
     }
 
     @Deactivate
     protected void deactivate() {
-        //cfgService.unregisterProperties(getClass(), false);
+        cfgService.unregisterProperties(getClass(), false);
+        packetService.removeProcessor(processor);
+        flowRuleService.removeListener(installedFlowListener);
+        deviceService.removeListener(portStatusListener);
         deviceService.removeListener(switchFlowRulesListener);
+        base_rule_batcher.cancel();
         flowRuleService.removeFlowRulesById(appId);
-        packetService.removeProcessor(processor);
+        if (install_executor != null) {
+            install_executor.shutdownNow();
+            install_executor = null;
+        }
+        scheduler.shutdownNow();
+        addr_table.setListener(null);
+        addr_table.setForgetListener(null);
+        addr_table.clear();
+        // The store outlives the instance, so that a restart finds the table warm
+        mac_store.removeListener(macStoreListener);
+        mac_store = null;
+        flow_cache.clear();
+        flow_index.clear();
+        flow_packets.clear();
+        mac_history.clear();
+        flood_limiter.clear();
+        installedFlowListener = null;
+        portStatusListener = null;
+        macStoreListener = null;
         switchFlowRulesListener = null;
         processor = null;
 
@@ -150,8 +321,113 @@ public class AppComponent {
     public void modified(ComponentContext context) {
         Dictionary<?, ?> properties = context != null ? context.getProperties() : new Properties();
         if (context != null) {
+            macTableCapacity = getIntProperty(properties, MAC_TABLE_CAPACITY, macTableCapacity);
+            macAgingTime = getIntProperty(properties, MAC_AGING_TIME, macAgingTime);
+            flowSuppressWindow = getIntProperty(properties, FLOW_SUPPRESS_WINDOW, flowSuppressWindow);
+            ForwardingMode mode = getModeProperty(properties, FORWARDING_MODE, forwardingMode);
+            if (mode != forwardingMode) {
+                forwardingMode = mode;
+                flushOutputRules();
+                updateDestinationBaseRules();
+            }
+            floodRate = getIntProperty(properties, FLOOD_RATE, floodRate, 0);
+            floodBurst = getIntProperty(properties, FLOOD_BURST, floodBurst);
+            floodSampleRate = getIntProperty(properties, FLOOD_SAMPLE_RATE, floodSampleRate, 0);
+            floodDeviceRate = getIntProperty(properties, FLOOD_DEVICE_RATE, floodDeviceRate, 0);
+
+            int shards = getIntProperty(properties, PIPELINE_SHARDS, pipelineShards, 0);
+            int depth = getIntProperty(properties, PIPELINE_QUEUE_DEPTH, pipelineQueueDepth);
+            if (shards != pipelineShards || depth != pipelineQueueDepth) {
+                pipelineShards = shards;
+                pipelineQueueDepth = depth;
+                reconfigurePipeline();
+            }
+        }
+        addr_table.setCapacity(macTableCapacity);
+        addr_table.setAgingTime(TimeUnit.SECONDS.toMillis(macAgingTime));
+        flow_cache.setWindow(flowSuppressWindow);
+        flood_limiter.setRate(floodRate);
+        flood_limiter.setBurst(floodBurst);
+        flood_limiter.setSampleRate(floodSampleRate);
+        flood_limiter.setDeviceRate(floodDeviceRate);
+        // Sources the MAC table has no room for do not get a bucket either
+        flood_limiter.setMaxSources(macTableCapacity);
+        log.info("Reconfigured. MAC table capacity: {}, aging time: {}s, flow suppress window: {}ms, forwarding mode: {}",
+                macTableCapacity, macAgingTime, flowSuppressWindow, forwardingMode);
+        log.info("Reconfigured. Flood rate: {}/s, burst: {}, sample rate: {}, device rate: {}/s",
+                floodRate, floodBurst, floodSampleRate, floodDeviceRate);
+        log.info("Reconfigured. Pipeline shards: {}, queue depth: {}", pipelineShards, pipelineQueueDepth);
+    }
+
+    private ForwardingMode getModeProperty(Dictionary<?, ?> properties, String name, ForwardingMode orig) {
+        String value = get(properties, name);
+        if (value == null || value.isEmpty()) {
+            return orig;
+        }
+        ForwardingMode mode = ForwardingMode.fromString(value);
+        if (mode == null) {
+            log.warn("Invalid value for {}: {}", name, value);
+            return orig;
+        }
+        return mode;
+    }
+
+    private int getIntProperty(Dictionary<?, ?> properties, String name, int orig) {
+        return getIntProperty(properties, name, orig, 1);
+    }
+
+    private int getIntProperty(Dictionary<?, ?> properties, String name, int orig, int min) {
+        String value = get(properties, name);
+        if (value == null || value.isEmpty()) {
+            return orig;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed >= min) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
         }
-        log.info("Reconfigured");
+        log.warn("Invalid value for {}: {}", name, value);
+        return orig;
+    }
+
+    /**
+     * Gets the MAC learning table, including its hit/miss/eviction counters.
+     */
+    public MacTable macTable() {
+        return addr_table;
+    }
+
+    /**
+     * Gets the recent MAC table size samples of every device.
+     */
+    public MacTableHistory macTableHistory() {
+        return mac_history;
+    }
+
+    /**
+     * Gets the table-miss flood limiter, including its allowed/dropped/sampled counters.
+     */
+    public FloodLimiter floodLimiter() {
+        return flood_limiter;
+    }
+
+    /**
+     * Gets the number of forwarding rule installs suppressed as duplicates.
+     */
+    public long suppressedInstalls() {
+        return flow_cache.suppressed();
+    }
+
+    /**
+     * Gets the number of forwarding rule installs skipped because the
+     * pipeline queue of the switch was full.
+     */
+    public long skippedInstalls() {
+        ShardedExecutor executor = install_executor;
+        return executor == null ? 0 : executor.rejected();
     }
 
     /* Functions */
@@ -159,49 +435,226 @@ public class AppComponent {
         for (Device device: deviceService.getDevices(Device.Type.SWITCH)) {
             installBaseFlowRules(device.id());
         }
+        base_rule_batcher.flush();
     }
 
+    // Base rules are submitted in batches by base_rule_batcher
     private void installBaseFlowRules(DeviceId id) {
-        FlowRule ipv4_rule = construct_ipv4_rule(id);
-        flowRuleService.applyFlowRules(ipv4_rule);
-        log.info(String.format("Applied base flow rules on device %s", id));
+        base_rule_batcher.add(construct_ipv4_rule(id, SOURCE_TABLE));
+        if (forwardingMode == ForwardingMode.DESTINATION) {
+            // Packets of learned sources towards unknown destinations miss in the next table
+            base_rule_batcher.add(construct_ipv4_rule(id, DESTINATION_TABLE));
+        }
+        log.debug("Queued base flow rules for device {}", id);
     }
 
     private void uninstallBaseFlowRules(DeviceId id) {
-        FlowRule ipv4_rule = construct_ipv4_rule(id);
-        flowRuleService.removeFlowRules(ipv4_rule);
-        log.info(String.format("Removed base flow rules on device %s", id));
+        base_rule_batcher.remove(construct_ipv4_rule(id, SOURCE_TABLE));
+        if (forwardingMode == ForwardingMode.DESTINATION) {
+            base_rule_batcher.remove(construct_ipv4_rule(id, DESTINATION_TABLE));
+        }
+        log.debug("Queued base flow rules removal for device {}", id);
+    }
+
+    // Only DESTINATION mode sends packets to the destination table, so only it needs its base rule
+    private void updateDestinationBaseRules() {
+        if (base_rule_batcher == null) {
+            // Not activated yet, initBaseFlowRules follows the mode
+            return;
+        }
+        for (Device device: deviceService.getDevices(Device.Type.SWITCH)) {
+            FlowRule rule = construct_ipv4_rule(device.id(), DESTINATION_TABLE);
+            if (forwardingMode == ForwardingMode.DESTINATION) {
+                base_rule_batcher.add(rule);
+            } else {
+                base_rule_batcher.remove(rule);
+            }
+        }
+        base_rule_batcher.flush();
+    }
+
+    private void macLearned(DeviceId deviceid, MacAddress mac, PortNumber old_port, PortNumber port) {
+        log.debug("Add MAC address ==> switch: {}, MAC: {}, port: {}", deviceid, mac, port);
+
+        // Updates applied from the store are already there
+        MacKey store_key = new MacKey(deviceid, mac);
+        if (!port.equals(mac_store.get(store_key))) {
+            mac_store.put(store_key, port);
+        }
+
+        // Only the master gets the packets, so the other instances have no rules to move
+        if (old_port == null || !mastershipService.isLocalMaster(deviceid)) {
+            return;
+        }
+
+        // The host moved, so every rule towards it still points to the old port
+        ForwardingMode mode = forwardingMode;
+        Set<FlowKey> stale = flow_index.removeDestination(deviceid, mac);
+        log.info("MAC {} moved on {}: {} -> {}, update {} flow rules", mac, deviceid, old_port, port, stale.size());
+        for (FlowKey key: stale) {
+            if (mode == ForwardingMode.DESTINATION && !key.matchesSource()) {
+                // Overwritten by the rewrite below
+                flow_cache.invalidate(key);
+            } else {
+                uninstallOutputRule(key);
+            }
+        }
+        if (mode == ForwardingMode.DESTINATION) {
+            // The packet-in that found the move installs the source rule of the new port
+            FlowKey source = new FlowKey(deviceid, mac, MacAddress.ZERO, old_port);
+            flow_index.remove(source);
+            uninstallOutputRule(source);
+            // Same selector and priority, so the rule is rewritten in place
+            installOutputRule(new FlowKey(deviceid, MacAddress.ZERO, mac, port));
+        }
+    }
+
+    // Rules already queued run before any later rule of the same switch, on the old or the new shards
+    private void reconfigurePipeline() {
+        ShardedExecutor old_executor = install_executor;
+        if (pipelineShards > 0) {
+            ShardedExecutor executor = new ShardedExecutor(pipelineShards, pipelineQueueDepth,
+                    groupedThreads("nctu/bridge", "install-%d", log), old_executor);
+            if (old_executor != null) {
+                old_executor.handOver(executor);
+            }
+            install_executor = executor;
+        } else if (old_executor != null) {
+            // Submitting inline must wait for the queued rules
+            old_executor.shutdown();
+            old_executor.awaitTermination();
+            install_executor = null;
+        }
+    }
+
+    // The index is updated on the calling thread, so moves see rules still queued
+    private void installOutputRule(FlowKey key) {
+        if (!flow_cache.shouldInstall(key)) {
+            return;
+        }
+        flow_index.add(key);
+
+        ShardedExecutor executor = install_executor;
+        if (executor == null) {
+            submitOutputRule(key, true);
+        } else if (!executor.tryExecute(key.deviceId(), () -> submitOutputRule(key, true))) {
+            // Queue of the switch is full, a later packet of the flow retries
+            flow_index.remove(key);
+            flow_cache.invalidate(key);
+        }
+    }
+
+    private void uninstallOutputRule(FlowKey key) {
+        flow_cache.invalidate(key);
+
+        // Removals must not be lost, so they queue behind the installs of the switch even when it is full
+        ShardedExecutor executor = install_executor;
+        if (executor == null || !executor.execute(key.deviceId(), () -> submitOutputRule(key, false))) {
+            submitOutputRule(key, false);
+        }
+    }
+
+    private void submitOutputRule(FlowKey key, boolean add) {
+        boolean pair = key.matchesSource() && key.matchesDestination();
+        if (add && pair != (forwardingMode == ForwardingMode.PAIR)) {
+            // Learned under the previous mode and queued behind the flush
+            flow_index.remove(key);
+            flow_cache.invalidate(key);
+            return;
+        }
+        if (pair) {
+            ForwardingObjective.Builder objective = construct_output_objective(key);
+            flowObjectiveService.forward(key.deviceId(), add ? objective.add() : objective.remove());
+            return;
+        }
+        // Objectives cannot pick a table, so the two tables of DESTINATION mode are programmed directly
+        FlowRule rule = key.matchesDestination() ? construct_destination_rule(key) : construct_source_rule(key);
+        if (add) {
+            flowRuleService.applyFlowRules(rule);
+        } else {
+            flowRuleService.removeFlowRules(rule);
+        }
     }
 
-    private boolean checkMacTable(DeviceId deviceid, MacAddress mac) {
-        HashMap<MacAddress, PortNumber> device_table = this.addr_table.get(deviceid);
-        if (device_table == null) {
-            return false;
+    // Rules of the previous mode would shadow the new ones, so forget them all and relearn from packet-ins
+    private void flushOutputRules() {
+        Set<FlowKey> stale = flow_index.removeAll();
+        for (FlowKey key: stale) {
+            uninstallOutputRule(key);
         }
-        return device_table.containsKey(mac);
+        flow_packets.clear();
+        log.info("Forwarding mode changed to {}, removed {} flow rules", forwardingMode, stale.size());
     }
 
-    private PortNumber searchMacTable(DeviceId deviceid, MacAddress mac) {
-        HashMap<MacAddress, PortNumber> device_table = this.addr_table.get(deviceid);
-        if (device_table == null) {
-            return null;
+    // Fills the table from the store, so a restarted instance does not have to relearn every host
+    private void warmMacTable() {
+        long start = System.nanoTime();
+        int warmed = 0;
+        for (Map.Entry<MacKey, PortNumber> entry: mac_store.entrySet()) {
+            addr_table.learn(entry.getKey().deviceId(), entry.getKey().mac(), entry.getValue());
+            warmed++;
         }
-        return device_table.get(mac);
+        log.info("Warmed MAC table with {} entries in {} ms", warmed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
     }
 
-    private void insertMacTable(DeviceId deviceid, MacAddress mac, long port) {
-        insertMacTable(deviceid, mac, PortNumber.portNumber(port));
+    // The master of a device owns its table, drop what it has forgotten from the store
+    private void macForgotten(DeviceId deviceid, MacAddress mac) {
+        if (mastershipService.isLocalMaster(deviceid)) {
+            mac_store.remove(new MacKey(deviceid, mac));
+        }
     }
 
-    private void insertMacTable(DeviceId deviceid, MacAddress mac, PortNumber port) {
-        if (!this.addr_table.containsKey(deviceid)) {
-            this.addr_table.put(deviceid, new HashMap<MacAddress, PortNumber>());
+    private void removeDeviceFromStore(DeviceId deviceid) {
+        for (MacKey key: mac_store.keySet()) {
+            if (key.deviceId().equals(deviceid)) {
+                mac_store.remove(key);
+            }
         }
-        HashMap<MacAddress, PortNumber> device_table = this.addr_table.get(deviceid);
-        device_table.put(mac, port);
     }
 
-    private FlowRule construct_ipv4_rule(DeviceId id) {
+    private void purgeMacTable() {
+        int purged = addr_table.purgeExpired();
+        flow_cache.purgeExpired();
+        flood_limiter.purgeIdle();
+
+        long now = System.currentTimeMillis();
+        for (DeviceId deviceid: addr_table.devices()) {
+            mac_history.record(deviceid, addr_table.size(deviceid), now);
+        }
+        log.debug("MAC table aged out {} entries (hits: {}, misses: {}, evictions: {}, suppressed installs: {})",
+                purged, addr_table.hits(), addr_table.misses(), addr_table.evictions(), flow_cache.suppressed());
+        log.debug("Floods allowed: {}, dropped: {}, sampled: {}",
+                flood_limiter.allowed(), flood_limiter.dropped(), flood_limiter.sampled());
+        ShardedExecutor executor = install_executor;
+        if (executor != null) {
+            log.debug("Pipeline pending installs: {}, skipped installs: {}", executor.pending(), executor.rejected());
+        }
+    }
+
+    // Recovers the key of a forwarding rule installed by submitOutputRule
+    private FlowKey flowKeyOf(FlowRule rule) {
+        EthCriterion src = (EthCriterion) rule.selector().getCriterion(Criterion.Type.ETH_SRC);
+        EthCriterion dst = (EthCriterion) rule.selector().getCriterion(Criterion.Type.ETH_DST);
+        if (dst == null) {
+            // Source rules of DESTINATION mode
+            PortCriterion in_port = (PortCriterion) rule.selector().getCriterion(Criterion.Type.IN_PORT);
+            if (src == null || in_port == null) {
+                return null;
+            }
+            return new FlowKey(rule.deviceId(), src.mac(), MacAddress.ZERO, in_port.port());
+        }
+        // Rules installed in DESTINATION mode do not match on the source
+        MacAddress src_mac = src == null ? MacAddress.ZERO : src.mac();
+        for (Instruction inst: rule.treatment().immediate()) {
+            if (inst instanceof Instructions.OutputInstruction) {
+                PortNumber port = ((Instructions.OutputInstruction) inst).port();
+                return new FlowKey(rule.deviceId(), src_mac, dst.mac(), port);
+            }
+        }
+        return null;
+    }
+
+    private FlowRule construct_ipv4_rule(DeviceId id, int table) {
         TrafficTreatment packet_in_traffic = DefaultTrafficTreatment.builder()
             .setOutput(PortNumber.CONTROLLER)
             .build();
@@ -211,6 +664,7 @@ public class AppComponent {
         FlowRule ipv4_rule = DefaultFlowRule.builder()
             .fromApp(this.appId)
             .forDevice(id)
+            .forTable(table)
             .withSelector(ipv4_selector)
             .withTreatment(packet_in_traffic)
             .withPriority(5)
@@ -219,42 +673,61 @@ public class AppComponent {
         return ipv4_rule;
     }
 
-    private FlowRule construct_output_rule(DeviceId id, MacAddress src, MacAddress dst, PortNumber port) {
-        TrafficTreatment traffic = DefaultTrafficTreatment.builder()
-            .setOutput(port)
-            .build();
+    private ForwardingObjective.Builder construct_output_objective(FlowKey key) {
+        TrafficSelector selector = ForwardingMode.PAIR.selector(key.src(), key.dst());
+        return DefaultForwardingObjective.builder()
+            .fromApp(this.appId)
+            .withFlag(ForwardingObjective.Flag.VERSATILE)
+            .withSelector(selector)
+            .withTreatment(output_treatment(key.port()))
+            .withPriority(30)
+            .makeTemporary(30);
+    }
+
+    private FlowRule construct_source_rule(FlowKey key) {
         TrafficSelector selector = DefaultTrafficSelector.builder()
-            .matchEthSrc(src)
-            .matchEthDst(dst)
+            .matchInPort(key.port())
+            .matchEthSrc(key.src())
             .build();
-        FlowRule rule = DefaultFlowRule.builder()
+        TrafficTreatment traffic = DefaultTrafficTreatment.builder()
+            .transition(DESTINATION_TABLE)
+            .build();
+        return DefaultFlowRule.builder()
             .fromApp(this.appId)
-            .forDevice(id)
+            .forDevice(key.deviceId())
+            .forTable(SOURCE_TABLE)
             .withSelector(selector)
             .withTreatment(traffic)
             .withPriority(30)
             .makeTemporary(30)
             .build();
-        return rule;
     }
 
-    private ForwardingObjective construct_output_objective(DeviceId id, MacAddress src, MacAddress dst, PortNumber port) {
-        TrafficTreatment traffic = DefaultTrafficTreatment.builder()
-            .setOutput(port)
-            .build();
-        TrafficSelector selector = DefaultTrafficSelector.builder()
-            .matchEthSrc(src)
-            .matchEthDst(dst)
+    private FlowRule construct_destination_rule(FlowKey key) {
+        return DefaultFlowRule.builder()
+            .fromApp(this.appId)
+            .forDevice(key.deviceId())
+            .forTable(DESTINATION_TABLE)
+            .withSelector(ForwardingMode.DESTINATION.selector(key.src(), key.dst()))
+            .withTreatment(output_treatment(key.port()))
+            .withPriority(30)
+            .makeTemporary(30)
             .build();
-		ForwardingObjective objective = DefaultForwardingObjective.builder()
-			.fromApp(this.appId)
-			.withFlag(ForwardingObjective.Flag.VERSATILE)
-			.withSelector(selector)
-			.withTreatment(traffic)
-			.withPriority(30)
-			.makeTemporary(30)
-			.add();
-        return objective;
+    }
+
+    // Output treatments are immutable, so one instance per port is shared by all objectives
+    private TrafficTreatment output_treatment(PortNumber port) {
+        TrafficTreatment traffic = output_treatments.get(port);
+        if (traffic == null) {
+            traffic = DefaultTrafficTreatment.builder()
+                .setOutput(port)
+                .build();
+            TrafficTreatment prev = output_treatments.putIfAbsent(port, traffic);
+            if (prev != null) {
+                traffic = prev;
+            }
+        }
+        return traffic;
     }
 
     /* Packet processor */
@@ -290,21 +763,32 @@ public class AppComponent {
                 return;
             }
 
-            PortNumber old_in_port = searchMacTable(deviceid, src_mac);
-            if (old_in_port == null || old_in_port != in_port) {
-                log.info(String.format("Add MAC address ==> switch: %s, MAC: %s, port: %s", deviceid, src_mac, in_port));
-                insertMacTable(deviceid, src_mac, in_port);
+            PortNumber out_port = addr_table.learnAndLookup(deviceid, src_mac, in_port, dst_mac);
+            ForwardingMode mode = forwardingMode;
+            if (mode == ForwardingMode.DESTINATION) {
+                // Later packets of the source skip the controller until it shows up on another port.
+                // A source whose rule is installed or queued got here by missing in the destination table.
+                FlowKey source = new FlowKey(deviceid, src_mac, MacAddress.ZERO, in_port);
+                if (!flow_index.contains(source)) {
+                    installOutputRule(source);
+                }
             }
-
-            PortNumber out_port = searchMacTable(deviceid, dst_mac);
             if (out_port == null) {
-                log.info(String.format("MAC %s is missed on %s! Flood packet!", dst_mac, deviceid));
+                if (!flood_limiter.tryFlood(deviceid, src_mac)) {
+                    // Over the flood limit, drop packet
+                    context.block();
+                    return;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("MAC {} is missed on {}! Flood packet!", dst_mac, deviceid);
+                }
                 context.treatmentBuilder().setOutput(PortNumber.FLOOD);
                 context.send();
             } else {
-                log.info(String.format("MAC %s is matched on %s! Install flow rule!", dst_mac, deviceid));
-                ForwardingObjective objective = construct_output_objective(deviceid, src_mac, dst_mac, out_port);
-                flowObjectiveService.forward(deviceid, objective);
+                if (log.isDebugEnabled()) {
+                    log.debug("MAC {} is matched on {}! Install flow rule!", dst_mac, deviceid);
+                }
+                installOutputRule(new FlowKey(deviceid, mode.keySource(src_mac), dst_mac, out_port));
                 context.treatmentBuilder().setOutput(out_port);
                 context.send();
             }
@@ -321,9 +805,118 @@ public class AppComponent {
                     installBaseFlowRules(device.id());
                 } else if (event.type() == DeviceEvent.Type.DEVICE_REMOVED) {
                     uninstallBaseFlowRules(device.id());
-                    addr_table.remove(device.id());
+                    addr_table.removeDevice(device.id());
+                    removeDeviceFromStore(device.id());
+                    flow_cache.invalidateDevice(device.id());
+                    flow_index.removeDevice(device.id());
+                    flow_packets.keySet().removeIf(key -> key.deviceId().equals(device.id()));
+                    mac_history.removeDevice(device.id());
+                    flood_limiter.removeDevice(device.id());
+                } else if (event.type() == DeviceEvent.Type.DEVICE_AVAILABILITY_CHANGED) {
+                    flow_cache.invalidateDevice(device.id());
                 }
             }
         }
     }
+
+    /* Port Status Listener */
+    private class PortStatusListener implements DeviceListener {
+        @Override
+        public boolean isRelevant(DeviceEvent event) {
+            return event.type() == DeviceEvent.Type.PORT_UPDATED || event.type() == DeviceEvent.Type.PORT_REMOVED;
+        }
+
+        @Override
+        public void event(DeviceEvent event) {
+            Port port = event.port();
+            if (event.type() == DeviceEvent.Type.PORT_UPDATED && port.isEnabled()) {
+                return;
+            }
+
+            // Forget hosts behind the port and remove only the rules forwarding to it
+            DeviceId deviceid = event.subject().id();
+            int macs = addr_table.removePort(deviceid, port.number());
+            Set<FlowKey> stale = flow_index.removePort(deviceid, port.number());
+            for (FlowKey key: stale) {
+                uninstallOutputRule(key);
+            }
+            flow_cache.invalidatePort(deviceid, port.number());
+            log.info("Port {}/{} is down, forgot {} MAC addresses and removed {} flow rules",
+                    deviceid, port.number(), macs, stale.size());
+        }
+    }
+
+    /* Base rule batch callback */
+    private class BaseRuleBatchContext implements FlowRuleOperationsContext {
+        @Override
+        public void onSuccess(FlowRuleOperations ops) {
+            log.info("Applied base flow rules batch: {} operations", ops.stages().get(0).size());
+        }
+
+        @Override
+        public void onError(FlowRuleOperations ops) {
+            log.warn("Failed to apply base flow rules batch: {}", ops);
+        }
+    }
+
+    /* MAC Store Listener */
+    private class MacStoreListener implements EventuallyConsistentMapListener<MacKey, PortNumber> {
+        @Override
+        public void event(EventuallyConsistentMapEvent<MacKey, PortNumber> event) {
+            MacKey key = event.key();
+            if (event.type() == EventuallyConsistentMapEvent.Type.PUT) {
+                addr_table.learn(key.deviceId(), key.mac(), event.value());
+            } else {
+                addr_table.remove(key.deviceId(), key.mac());
+            }
+        }
+    }
+
+    /* Flow Rule Listener */
+    private class InstalledFlowListener implements FlowRuleListener {
+        @Override
+        public void event(FlowRuleEvent event) {
+            FlowRule rule = event.subject();
+            if (rule.appId() != appId.id()) {
+                return;
+            }
+            FlowKey key = flowKeyOf(rule);
+            if (key == null) {
+                return;
+            }
+
+            if (event.type() == FlowRuleEvent.Type.RULE_ADDED || event.type() == FlowRuleEvent.Type.RULE_UPDATED) {
+                if (rule instanceof FlowEntry) {
+                    trafficReported(key, ((FlowEntry) rule).packets());
+                }
+            } else if (event.type() == FlowRuleEvent.Type.RULE_REMOVED) {
+                flow_cache.invalidate(key);
+                flow_packets.remove(key);
+                // Rules withdrawn by the bridge itself leave the index first, the others idled out
+                if (!flow_index.remove(key) || !key.matchesSource()) {
+                    return;
+                }
+
+                // The last rule carrying the host's own traffic idled out, so the host went quiet.
+                // Rules towards a host say nothing about it still being there.
+                DeviceId deviceid = key.deviceId();
+                MacAddress src = key.src();
+                PortNumber port = key.matchesDestination() ? addr_table.peek(deviceid, src) : key.port();
+                if (port != null && !flow_index.hasSource(deviceid, src) && addr_table.expire(deviceid, src, port)) {
+                    log.debug("Expire MAC address ==> switch: {}, MAC: {}, port: {}", deviceid, src, port);
+                }
+            }
+        }
+
+        // Hosts sending through the data plane never hit the controller, keep them alive
+        private void trafficReported(FlowKey key, long packets) {
+            if (!key.matchesSource()) {
+                return;
+            }
+            Long last = flow_packets.put(key, packets);
+            if (packets > (last == null ? 0 : last)) {
+                addr_table.touch(key.deviceId(), key.src());
+            }
+        }
+    }
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket limiter of table-miss floods, with one bucket per source
+ * address on every device and one bucket for all sources of a device.
+ *
+ * Packets over the limit are dropped, except for one out of every sample
+ * rate packets which is still flooded so new hosts can be learned. Sources
+ * beyond the maximum number of buckets of a device share one bucket.
+ */
+public class FloodLimiter {
+    private final ConcurrentHashMap<DeviceId, DeviceBuckets> buckets = new ConcurrentHashMap<DeviceId, DeviceBuckets>();
+
+    private volatile int rate;
+    private volatile int burst;
+    private volatile int sampleRate;
+    private volatile int deviceRate;
+    private volatile int maxSources;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampled = new LongAdder();
+
+    /**
+     * Creates a flood limiter.
+     *
+     * @param rate floods per second allowed for each source, 0 for unlimited
+     * @param burst floods allowed in a burst for each source
+     * @param sampleRate flood one of this many packets over the limit, 0 to drop all
+     * @param deviceRate floods per second allowed for all sources of a device, also its burst, 0 for unlimited
+     * @param maxSources maximum number of per source buckets of a device
+     */
+    public FloodLimiter(int rate, int burst, int sampleRate, int deviceRate, int maxSources) {
+        this.rate = rate;
+        this.burst = burst;
+        this.sampleRate = sampleRate;
+        this.deviceRate = deviceRate;
+        this.maxSources = maxSources;
+    }
+
+    /**
+     * Checks whether a packet from a source may be flooded on a device.
+     *
+     * @return false if the packet should be dropped
+     */
+    public boolean tryFlood(DeviceId deviceid, MacAddress src) {
+        int r = this.rate;
+        int dr = this.deviceRate;
+        if (r <= 0 && dr <= 0) {
+            this.allowed.increment();
+            return true;
+        }
+
+        DeviceBuckets device = device(deviceid);
+        long now = System.nanoTime();
+        long over_limit = 0;
+        if (r > 0) {
+            over_limit = device.source(src.toLong(), this.burst, this.maxSources, now).take(now, r, this.burst);
+        }
+        // The source is within its limit, so the packet counts against the device
+        if (over_limit == 0 && dr > 0) {
+            over_limit = device.total.take(now, dr, dr);
+        }
+
+        if (over_limit == 0) {
+            this.allowed.increment();
+            return true;
+        }
+        int n = this.sampleRate;
+        if (n > 0 && over_limit % n == 0) {
+            this.sampled.increment();
+            return true;
+        }
+        this.dropped.increment();
+        return false;
+    }
+
+    private DeviceBuckets device(DeviceId deviceid) {
+        DeviceBuckets device = this.buckets.get(deviceid);
+        if (device == null) {
+            device = this.buckets.computeIfAbsent(deviceid, id -> new DeviceBuckets(this.burst, this.deviceRate));
+        }
+        return device;
+    }
+
+    /**
+     * Removes the source buckets which have been idle long enough to be full
+     * again, since a new bucket behaves the same.
+     *
+     * @return number of buckets removed
+     */
+    public int purgeIdle() {
+        int r = this.rate;
+        if (r <= 0) {
+            int removed = 0;
+            for (DeviceBuckets device: this.buckets.values()) {
+                removed += device.sources.size();
+                device.sources.clear();
+            }
+            return removed;
+        }
+
+        long now = System.nanoTime();
+        long refill_time = TimeUnit.SECONDS.toNanos(this.burst) / r;
+        int removed = 0;
+        for (DeviceBuckets device: this.buckets.values()) {
+            int before = device.sources.size();
+            device.sources.values().removeIf(bucket -> bucket.idle(now, refill_time));
+            removed += before - device.sources.size();
+        }
+        return removed;
+    }
+
+    /**
+     * Gets the number of per source buckets of a device.
+     */
+    public int size(DeviceId deviceid) {
+        DeviceBuckets device = this.buckets.get(deviceid);
+        return device == null ? 0 : device.sources.size();
+    }
+
+    public void removeDevice(DeviceId deviceid) {
+        this.buckets.remove(deviceid);
+    }
+
+    public void clear() {
+        this.buckets.clear();
+    }
+
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void setDeviceRate(int deviceRate) {
+        this.deviceRate = deviceRate;
+    }
+
+    public void setMaxSources(int maxSources) {
+        this.maxSources = maxSources;
+    }
+
+    public long allowed() {
+        return this.allowed.sum();
+    }
+
+    public long dropped() {
+        return this.dropped.sum();
+    }
+
+    public long sampled() {
+        return this.sampled.sum();
+    }
+
+    private static final class DeviceBuckets {
+        private final ConcurrentHashMap<Long, Bucket> sources = new ConcurrentHashMap<Long, Bucket>();
+        // Shared by the sources which do not get a bucket of their own
+        private final Bucket overflow;
+        private final Bucket total;
+
+        private DeviceBuckets(int burst, int deviceRate) {
+            long now = System.nanoTime();
+            this.overflow = new Bucket(burst, now);
+            this.total = new Bucket(deviceRate, now);
+        }
+
+        private Bucket source(long src, int burst, int max_sources, long now) {
+            Bucket bucket = this.sources.get(src);
+            if (bucket != null) {
+                return bucket;
+            }
+            if (this.sources.size() >= max_sources) {
+                return this.overflow;
+            }
+            return this.sources.computeIfAbsent(src, mac -> new Bucket(burst, now));
+        }
+    }
+
+    private static final class Bucket {
+        private double tokens;
+        private long lastRefill;
+        private long overLimit;
+
+        private Bucket(int tokens, long now) {
+            this.tokens = tokens;
+            this.lastRefill = now;
+        }
+
+        /**
+         * Takes a token.
+         *
+         * @return 0 if a token was taken, or the number of packets over the limit so far
+         */
+        private synchronized long take(long now, int rate, int burst) {
+            long elapsed = now - this.lastRefill;
+            if (elapsed > 0) {
+                this.tokens = Math.min(burst, this.tokens + elapsed * rate / 1e9);
+                this.lastRefill = now;
+            }
+            if (this.tokens >= 1) {
+                this.tokens -= 1;
+                return 0;
+            }
+            return ++this.overLimit;
+        }
+
+        private synchronized boolean idle(long now, long refill_time) {
+            return now - this.lastRefill > refill_time;
+        }
+    }
+}
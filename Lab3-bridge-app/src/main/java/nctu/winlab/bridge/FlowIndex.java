@@ -0,0 +1,197 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reverse index from destination MAC addresses to the forwarding rules
+ * installed towards them, per device. Also counts the rules matching on
+ * every source address.
+ */
+public class FlowIndex {
+    private final ConcurrentHashMap<DeviceId, ConcurrentHashMap<Long, Set<FlowKey>>> index =
+        new ConcurrentHashMap<DeviceId, ConcurrentHashMap<Long, Set<FlowKey>>>();
+    private final ConcurrentHashMap<DeviceId, ConcurrentHashMap<Long, Integer>> sources =
+        new ConcurrentHashMap<DeviceId, ConcurrentHashMap<Long, Integer>>();
+
+    // Sets are only changed inside compute, so a removal never drops a set another thread is adding to
+    public void add(FlowKey key) {
+        this.index.computeIfAbsent(key.deviceId(), id -> new ConcurrentHashMap<Long, Set<FlowKey>>())
+            .compute(key.dst().toLong(), (mac, keys) -> {
+                Set<FlowKey> added = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+                if (added.add(key)) {
+                    countSource(key, 1);
+                }
+                return added;
+            });
+    }
+
+    /**
+     * Removes a rule from the index.
+     *
+     * @return true if the rule was indexed
+     */
+    public boolean remove(FlowKey key) {
+        ConcurrentHashMap<Long, Set<FlowKey>> device_index = this.index.get(key.deviceId());
+        if (device_index == null) {
+            return false;
+        }
+        boolean[] removed = new boolean[1];
+        device_index.computeIfPresent(key.dst().toLong(), (mac, keys) -> {
+            if (keys.remove(key)) {
+                countSource(key, -1);
+                removed[0] = true;
+            }
+            return keys.isEmpty() ? null : keys;
+        });
+        return removed[0];
+    }
+
+    private void countSource(FlowKey key, int delta) {
+        if (!key.matchesSource()) {
+            return;
+        }
+        this.sources.computeIfAbsent(key.deviceId(), id -> new ConcurrentHashMap<Long, Integer>())
+            .merge(key.src().toLong(), delta, (count, d) -> count + d == 0 ? null : count + d);
+    }
+
+    /**
+     * Removes and returns all rules towards a destination on a device.
+     */
+    public Set<FlowKey> removeDestination(DeviceId deviceid, MacAddress dst) {
+        ConcurrentHashMap<Long, Set<FlowKey>> device_index = this.index.get(deviceid);
+        if (device_index == null) {
+            return Collections.emptySet();
+        }
+        Set<FlowKey> keys = device_index.remove(dst.toLong());
+        if (keys == null) {
+            return Collections.emptySet();
+        }
+        for (FlowKey key: keys) {
+            countSource(key, -1);
+        }
+        return keys;
+    }
+
+    /**
+     * Checks whether a rule is indexed.
+     */
+    public boolean contains(FlowKey key) {
+        ConcurrentHashMap<Long, Set<FlowKey>> device_index = this.index.get(key.deviceId());
+        if (device_index == null) {
+            return false;
+        }
+        Set<FlowKey> keys = device_index.get(key.dst().toLong());
+        return keys != null && keys.contains(key);
+    }
+
+    /**
+     * Checks whether any rule towards a destination is installed on a device.
+     */
+    public boolean hasDestination(DeviceId deviceid, MacAddress dst) {
+        ConcurrentHashMap<Long, Set<FlowKey>> device_index = this.index.get(deviceid);
+        return device_index != null && device_index.containsKey(dst.toLong());
+    }
+
+    /**
+     * Checks whether any rule matching on a source is installed on a device.
+     */
+    public boolean hasSource(DeviceId deviceid, MacAddress src) {
+        ConcurrentHashMap<Long, Integer> device_sources = this.sources.get(deviceid);
+        return device_sources != null && device_sources.containsKey(src.toLong());
+    }
+
+    /**
+     * Removes and returns all rules forwarding out of a port on a device.
+     */
+    public Set<FlowKey> removePort(DeviceId deviceid, PortNumber port) {
+        ConcurrentHashMap<Long, Set<FlowKey>> device_index = this.index.get(deviceid);
+        if (device_index == null) {
+            return Collections.emptySet();
+        }
+
+        Set<FlowKey> removed = new HashSet<FlowKey>();
+        for (Long dst: device_index.keySet()) {
+            device_index.computeIfPresent(dst, (mac, keys) -> {
+                Iterator<FlowKey> it = keys.iterator();
+                while (it.hasNext()) {
+                    FlowKey key = it.next();
+                    if (key.port().equals(port)) {
+                        it.remove();
+                        countSource(key, -1);
+                        removed.add(key);
+                    }
+                }
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+        return removed;
+    }
+
+    /**
+     * Removes and returns all indexed rules.
+     */
+    public Set<FlowKey> removeAll() {
+        Set<FlowKey> removed = new HashSet<FlowKey>();
+        for (DeviceId deviceid: this.index.keySet()) {
+            ConcurrentHashMap<Long, Set<FlowKey>> device_index = this.index.remove(deviceid);
+            if (device_index == null) {
+                continue;
+            }
+            for (Set<FlowKey> keys: device_index.values()) {
+                for (FlowKey key: keys) {
+                    countSource(key, -1);
+                }
+                removed.addAll(keys);
+            }
+        }
+        return removed;
+    }
+
+    public void removeDevice(DeviceId deviceid) {
+        this.index.remove(deviceid);
+        this.sources.remove(deviceid);
+    }
+
+    public void clear() {
+        this.index.clear();
+        this.sources.clear();
+    }
+
+    /**
+     * Gets the number of indexed rules on a device.
+     */
+    public int size(DeviceId deviceid) {
+        ConcurrentHashMap<Long, Set<FlowKey>> device_index = this.index.get(deviceid);
+        if (device_index == null) {
+            return 0;
+        }
+        int size = 0;
+        for (Set<FlowKey> keys: device_index.values()) {
+            size += keys.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers recently requested forwarding rules, so that a burst of packets
+ * reaching the controller before the switch has installed the rule only
+ * results in a single install.
+ */
+public class FlowInstallCache {
+    private final ConcurrentHashMap<FlowKey, Long> installed = new ConcurrentHashMap<FlowKey, Long>();
+
+    private volatile long window;
+
+    private final LongAdder suppressed = new LongAdder();
+
+    /**
+     * Creates an install cache.
+     *
+     * @param window suppression window in milliseconds
+     */
+    public FlowInstallCache(long window) {
+        this.window = window;
+    }
+
+    /**
+     * Checks whether a rule should be installed, and if so records it as
+     * installed now.
+     *
+     * @return false if the same rule was installed within the window
+     */
+    public boolean shouldInstall(FlowKey key) {
+        long now = System.currentTimeMillis();
+        Long last = this.installed.get(key);
+        if (last != null && now - last <= this.window) {
+            this.suppressed.increment();
+            return false;
+        }
+
+        boolean won = last == null
+            ? this.installed.putIfAbsent(key, now) == null
+            : this.installed.replace(key, last, now);
+        if (!won) {
+            // Another packet thread is installing the same rule
+            this.suppressed.increment();
+        }
+        return won;
+    }
+
+    public void invalidate(FlowKey key) {
+        this.installed.remove(key);
+    }
+
+    public void invalidateDevice(DeviceId deviceid) {
+        this.installed.keySet().removeIf(key -> key.deviceId().equals(deviceid));
+    }
+
+    public void invalidatePort(DeviceId deviceid, PortNumber port) {
+        this.installed.keySet().removeIf(key -> key.deviceId().equals(deviceid) && key.port().equals(port));
+    }
+
+    public void clear() {
+        this.installed.clear();
+    }
+
+    /**
+     * Drops records older than the suppression window.
+     */
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        this.installed.values().removeIf(last -> now - last > this.window);
+    }
+
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    public int size() {
+        return this.installed.size();
+    }
+
+    public long suppressed() {
+        return this.suppressed.sum();
+    }
+}
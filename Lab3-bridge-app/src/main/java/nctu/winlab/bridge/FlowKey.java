@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+/**
+ * Identifies a forwarding rule installed by the bridge.
+ */
+public final class FlowKey {
+    private final DeviceId deviceId;
+    private final long src;
+    private final long dst;
+    private final PortNumber port;
+    // Keys are looked up on every packet-in, so the hash is computed once without boxing
+    private final int hash;
+
+    public FlowKey(DeviceId deviceId, MacAddress src, MacAddress dst, PortNumber port) {
+        this.deviceId = deviceId;
+        this.src = src.toLong();
+        this.dst = dst.toLong();
+        this.port = port;
+
+        int h = deviceId.hashCode();
+        h = 31 * h + Long.hashCode(this.src);
+        h = 31 * h + Long.hashCode(this.dst);
+        this.hash = 31 * h + port.hashCode();
+    }
+
+    public DeviceId deviceId() {
+        return this.deviceId;
+    }
+
+    public MacAddress src() {
+        return MacAddress.valueOf(this.src);
+    }
+
+    public MacAddress dst() {
+        return MacAddress.valueOf(this.dst);
+    }
+
+    public PortNumber port() {
+        return this.port;
+    }
+
+    /**
+     * Checks whether the rule matches on the source address, which is not
+     * the case for rules installed in DESTINATION forwarding mode.
+     */
+    public boolean matchesSource() {
+        return this.src != 0;
+    }
+
+    /**
+     * Checks whether the rule matches on the destination address, which is
+     * not the case for the source learning rules of DESTINATION forwarding
+     * mode. Those match the source on the ingress port kept in port.
+     */
+    public boolean matchesDestination() {
+        return this.dst != 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FlowKey)) {
+            return false;
+        }
+        FlowKey other = (FlowKey) obj;
+        return this.hash == other.hash
+            && this.src == other.src
+            && this.dst == other.dst
+            && this.deviceId.equals(other.deviceId)
+            && this.port.equals(other.port);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s -> %s => %s", deviceId, src(), dst(), port);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+import org.onosproject.net.flow.FlowRuleService;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers flow rule installs and removals over a short window and submits
+ * them to the flow rule service as a single batch.
+ */
+public class FlowRuleBatcher {
+    private final FlowRuleService flowRuleService;
+    private final ScheduledExecutorService executor;
+    private final long window;
+    private final FlowRuleOperationsContext context;
+
+    // Pending operations, the last requested operation of a rule wins
+    private Map<FlowRule, FlowRuleOperation.Type> pending = new LinkedHashMap<FlowRule, FlowRuleOperation.Type>();
+    private ScheduledFuture<?> scheduled;
+
+    /**
+     * Creates a batcher.
+     *
+     * @param flowRuleService service the batches are submitted to
+     * @param executor executor running the delayed submissions
+     * @param window batching window in milliseconds
+     * @param context callback invoked when a batch completes, or null
+     */
+    public FlowRuleBatcher(FlowRuleService flowRuleService, ScheduledExecutorService executor,
+                           long window, FlowRuleOperationsContext context) {
+        this.flowRuleService = flowRuleService;
+        this.executor = executor;
+        this.window = window;
+        this.context = context;
+    }
+
+    public void add(FlowRule rule) {
+        enqueue(rule, FlowRuleOperation.Type.ADD);
+    }
+
+    public void remove(FlowRule rule) {
+        enqueue(rule, FlowRuleOperation.Type.REMOVE);
+    }
+
+    /**
+     * Submits all pending operations right away.
+     *
+     * @return number of operations submitted
+     */
+    public int flush() {
+        Map<FlowRule, FlowRuleOperation.Type> ops;
+        synchronized (this) {
+            if (this.scheduled != null) {
+                this.scheduled.cancel(false);
+                this.scheduled = null;
+            }
+            if (this.pending.isEmpty()) {
+                return 0;
+            }
+            ops = this.pending;
+            this.pending = new LinkedHashMap<FlowRule, FlowRuleOperation.Type>();
+        }
+
+        FlowRuleOperations.Builder builder = FlowRuleOperations.builder();
+        for (Map.Entry<FlowRule, FlowRuleOperation.Type> op: ops.entrySet()) {
+            if (op.getValue() == FlowRuleOperation.Type.ADD) {
+                builder.add(op.getKey());
+            } else {
+                builder.remove(op.getKey());
+            }
+        }
+        this.flowRuleService.apply(this.context == null ? builder.build() : builder.build(this.context));
+        return ops.size();
+    }
+
+    /**
+     * Drops all pending operations without submitting them.
+     */
+    public synchronized void cancel() {
+        if (this.scheduled != null) {
+            this.scheduled.cancel(false);
+            this.scheduled = null;
+        }
+        this.pending.clear();
+    }
+
+    private synchronized void enqueue(FlowRule rule, FlowRuleOperation.Type type) {
+        this.pending.remove(rule);
+        this.pending.put(rule, type);
+        if (this.scheduled == null) {
+            this.scheduled = this.executor.schedule(this::flush, this.window, TimeUnit.MILLISECONDS);
+        }
+    }
+}
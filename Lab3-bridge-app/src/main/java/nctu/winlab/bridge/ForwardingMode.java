@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.TrafficSelector;
+
+/**
+ * Decides what the forwarding rules installed by the bridge match on.
+ */
+public enum ForwardingMode {
+    /**
+     * One rule per (source MAC, destination MAC) pair.
+     */
+    PAIR,
+
+    /**
+     * One rule per destination MAC, shared by all sources, in a second table.
+     * The first table holds one rule per learned source and ingress port, so
+     * packets of new or moved sources still reach the controller.
+     */
+    DESTINATION;
+
+    /**
+     * Builds the selector of the rule forwarding packets from src to dst.
+     */
+    public TrafficSelector selector(MacAddress src, MacAddress dst) {
+        TrafficSelector.Builder selector = DefaultTrafficSelector.builder();
+        if (this == PAIR) {
+            selector.matchEthSrc(src);
+        }
+        return selector.matchEthDst(dst).build();
+    }
+
+    /**
+     * Gets the source address identifying the rule from src to dst, which is
+     * the zero address when rules do not match on the source.
+     */
+    public MacAddress keySource(MacAddress src) {
+        return this == PAIR ? src : MacAddress.ZERO;
+    }
+
+    /**
+     * Parses a mode name, ignoring case.
+     *
+     * @return the mode, or null if the name is unknown
+     */
+    public static ForwardingMode fromString(String name) {
+        for (ForwardingMode mode: values()) {
+            if (mode.name().equalsIgnoreCase(name.trim())) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
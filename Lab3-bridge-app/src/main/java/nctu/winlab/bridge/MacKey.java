@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+
+/**
+ * Key of a learned MAC address in the distributed MAC table store.
+ */
+public final class MacKey {
+    private final DeviceId deviceId;
+    private final MacAddress mac;
+    // Hashed on every store access, so computed once without the varargs array of Objects.hash.
+    // Not transient, the store serializer rebuilds keys without calling the constructor.
+    private final int hash;
+
+    public MacKey(DeviceId deviceId, MacAddress mac) {
+        this.deviceId = deviceId;
+        this.mac = mac;
+        this.hash = 31 * deviceId.hashCode() + mac.hashCode();
+    }
+
+    public DeviceId deviceId() {
+        return this.deviceId;
+    }
+
+    public MacAddress mac() {
+        return this.mac;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MacKey)) {
+            return false;
+        }
+        MacKey other = (MacKey) obj;
+        return this.hash == other.hash && this.deviceId.equals(other.deviceId) && this.mac.equals(other.mac);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s", deviceId, mac);
+    }
+}
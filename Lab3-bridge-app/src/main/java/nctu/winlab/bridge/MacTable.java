@@ -0,0 +1,598 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe MAC learning table.
+ *
+ * Every device owns its own LRU table keyed by the 48-bit MAC address packed
+ * into a long, so packet threads handling different switches never contend.
+ * The tables use open addressing on primitive keys, so lookups do not box
+ * the address. Entries age out after the configured aging time and each
+ * device holds at most the configured number of entries.
+ */
+public class MacTable {
+    private final ConcurrentHashMap<DeviceId, DeviceTable> tables = new ConcurrentHashMap<DeviceId, DeviceTable>();
+
+    private volatile int capacity;
+    private volatile long agingTime;
+
+    private volatile LearnListener listener;
+    private volatile ForgetListener forgetListener;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Creates a MAC table.
+     *
+     * @param capacity maximum number of entries per device
+     * @param agingTime entry aging time in milliseconds
+     */
+    public MacTable(int capacity, long agingTime) {
+        this.capacity = capacity;
+        this.agingTime = agingTime;
+    }
+
+    /**
+     * Looks up the port a MAC address was learned on.
+     *
+     * @return the port, or null if the address is unknown or aged out
+     */
+    public PortNumber lookup(DeviceId deviceid, MacAddress mac) {
+        DeviceTable table = this.tables.get(deviceid);
+        if (table == null) {
+            this.misses.increment();
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        PortNumber port = null;
+        List<Long> forgotten;
+        synchronized (table) {
+            Entry entry = table.get(mac.toLong());
+            if (entry != null && now - entry.lastSeen > this.agingTime) {
+                table.forget(entry);
+                this.expirations.increment();
+            } else if (entry != null) {
+                port = entry.port;
+            }
+            forgotten = table.takeForgotten();
+        }
+        if (port == null) {
+            this.misses.increment();
+        } else {
+            this.hits.increment();
+        }
+        notifyForgotten(deviceid, forgotten);
+        return port;
+    }
+
+    /**
+     * Gets the port a MAC address was learned on without counting a hit or
+     * miss and without refreshing its position in the table.
+     *
+     * @return the port, or null if the address is unknown
+     */
+    public PortNumber peek(DeviceId deviceid, MacAddress mac) {
+        DeviceTable table = this.tables.get(deviceid);
+        if (table == null) {
+            return null;
+        }
+        synchronized (table) {
+            Entry entry = table.peek(mac.toLong());
+            return entry == null ? null : entry.port;
+        }
+    }
+
+    /**
+     * Learns a MAC address on a port and refreshes its aging timer.
+     *
+     * @return the port the address was previously learned on, or null
+     */
+    public PortNumber learn(DeviceId deviceid, MacAddress mac, PortNumber port) {
+        DeviceTable table = deviceTable(deviceid);
+
+        PortNumber old_port;
+        List<Long> forgotten;
+        synchronized (table) {
+            old_port = learnLocked(table, mac.toLong(), port, System.currentTimeMillis());
+            forgotten = table.takeForgotten();
+        }
+        notifyForgotten(deviceid, forgotten);
+        notifyLearned(deviceid, mac, old_port, port);
+        return old_port;
+    }
+
+    /**
+     * Learns the source address and looks up the destination address of a
+     * packet under a single lock acquisition.
+     *
+     * @return the port the destination was learned on, or null
+     */
+    public PortNumber learnAndLookup(DeviceId deviceid, MacAddress src, PortNumber in_port, MacAddress dst) {
+        DeviceTable table = deviceTable(deviceid);
+
+        long now = System.currentTimeMillis();
+        PortNumber old_port;
+        PortNumber out_port;
+        List<Long> forgotten;
+        synchronized (table) {
+            old_port = learnLocked(table, src.toLong(), in_port, now);
+
+            Entry entry = table.get(dst.toLong());
+            if (entry == null) {
+                out_port = null;
+            } else if (now - entry.lastSeen > this.agingTime) {
+                table.forget(entry);
+                this.expirations.increment();
+                out_port = null;
+            } else {
+                out_port = entry.port;
+            }
+            forgotten = table.takeForgotten();
+        }
+
+        if (out_port == null) {
+            this.misses.increment();
+        } else {
+            this.hits.increment();
+        }
+        notifyForgotten(deviceid, forgotten);
+        notifyLearned(deviceid, src, old_port, in_port);
+        return out_port;
+    }
+
+    /**
+     * Sets the listener notified when an address is learned on a new port.
+     */
+    public void setListener(LearnListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the listener notified when an address is aged out, evicted or
+     * removed with its port, but not when it is removed explicitly.
+     */
+    public void setForgetListener(ForgetListener listener) {
+        this.forgetListener = listener;
+    }
+
+    private DeviceTable deviceTable(DeviceId deviceid) {
+        DeviceTable table = this.tables.get(deviceid);
+        if (table == null) {
+            table = this.tables.computeIfAbsent(deviceid, id -> new DeviceTable());
+        }
+        return table;
+    }
+
+    // Must be called with the device table locked
+    private PortNumber learnLocked(DeviceTable table, long mac, PortNumber port, long now) {
+        Entry entry = table.get(mac);
+        if (entry == null) {
+            table.add(new Entry(mac, port, now));
+            return null;
+        }
+
+        PortNumber old_port = now - entry.lastSeen > this.agingTime ? null : entry.port;
+        entry.port = port;
+        entry.lastSeen = now;
+        return old_port;
+    }
+
+    private void notifyForgotten(DeviceId deviceid, List<Long> forgotten) {
+        ForgetListener l = this.forgetListener;
+        if (l == null || forgotten == null) {
+            return;
+        }
+        for (long mac: forgotten) {
+            l.forgotten(deviceid, MacAddress.valueOf(mac));
+        }
+    }
+
+    private void notifyLearned(DeviceId deviceid, MacAddress mac, PortNumber old_port, PortNumber port) {
+        LearnListener l = this.listener;
+        if (l != null && !port.equals(old_port)) {
+            l.learned(deviceid, mac, old_port, port);
+        }
+    }
+
+    /**
+     * Refreshes the aging timer of an address without changing its port,
+     * e.g. when the data plane reports traffic of a host.
+     */
+    public void touch(DeviceId deviceid, MacAddress mac) {
+        DeviceTable table = this.tables.get(deviceid);
+        if (table == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (table) {
+            Entry entry = table.get(mac.toLong());
+            if (entry != null) {
+                entry.lastSeen = now;
+            }
+        }
+    }
+
+    /**
+     * Expires an address if it is still learned on the given port.
+     *
+     * @return true if the entry was removed
+     */
+    public boolean expire(DeviceId deviceid, MacAddress mac, PortNumber port) {
+        DeviceTable table = this.tables.get(deviceid);
+        if (table == null) {
+            return false;
+        }
+        List<Long> forgotten;
+        synchronized (table) {
+            Entry entry = table.peek(mac.toLong());
+            if (entry == null || !entry.port.equals(port)) {
+                return false;
+            }
+            table.forget(entry);
+            forgotten = table.takeForgotten();
+        }
+        this.expirations.increment();
+        notifyForgotten(deviceid, forgotten);
+        return true;
+    }
+
+    public void remove(DeviceId deviceid, MacAddress mac) {
+        DeviceTable table = this.tables.get(deviceid);
+        if (table == null) {
+            return;
+        }
+        synchronized (table) {
+            Entry entry = table.peek(mac.toLong());
+            if (entry != null) {
+                table.remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries learned on a port.
+     *
+     * @return number of entries removed
+     */
+    public int removePort(DeviceId deviceid, PortNumber port) {
+        DeviceTable table = this.tables.get(deviceid);
+        if (table == null) {
+            return 0;
+        }
+        int removed = 0;
+        List<Long> forgotten;
+        synchronized (table) {
+            for (Entry entry = table.eldest; entry != null; ) {
+                Entry next = entry.newer;
+                if (entry.port.equals(port)) {
+                    table.forget(entry);
+                    removed++;
+                }
+                entry = next;
+            }
+            forgotten = table.takeForgotten();
+        }
+        notifyForgotten(deviceid, forgotten);
+        return removed;
+    }
+
+    public void removeDevice(DeviceId deviceid) {
+        this.tables.remove(deviceid);
+    }
+
+    public void clear() {
+        this.tables.clear();
+    }
+
+    /**
+     * Removes all aged-out entries.
+     *
+     * @return number of entries removed
+     */
+    public int purgeExpired() {
+        long now = System.currentTimeMillis();
+        int purged = 0;
+        for (Map.Entry<DeviceId, DeviceTable> device: this.tables.entrySet()) {
+            DeviceTable table = device.getValue();
+            List<Long> forgotten;
+            synchronized (table) {
+                for (Entry entry = table.eldest; entry != null; ) {
+                    Entry next = entry.newer;
+                    if (now - entry.lastSeen > this.agingTime) {
+                        table.forget(entry);
+                        purged++;
+                    }
+                    entry = next;
+                }
+                forgotten = table.takeForgotten();
+            }
+            notifyForgotten(device.getKey(), forgotten);
+        }
+        this.expirations.add(purged);
+        return purged;
+    }
+
+    /**
+     * Gets the devices which have a table.
+     */
+    public Set<DeviceId> devices() {
+        return Collections.unmodifiableSet(this.tables.keySet());
+    }
+
+    /**
+     * Gets a snapshot of the addresses known on a device, without touching
+     * the counters or the LRU order.
+     */
+    public Set<MacAddress> macs(DeviceId deviceid) {
+        DeviceTable table = this.tables.get(deviceid);
+        if (table == null) {
+            return Collections.emptySet();
+        }
+        long now = System.currentTimeMillis();
+        Set<MacAddress> macs = new HashSet<MacAddress>();
+        synchronized (table) {
+            for (Entry entry = table.eldest; entry != null; entry = entry.newer) {
+                if (now - entry.lastSeen <= this.agingTime) {
+                    macs.add(MacAddress.valueOf(entry.mac));
+                }
+            }
+        }
+        return macs;
+    }
+
+    public int size(DeviceId deviceid) {
+        DeviceTable table = this.tables.get(deviceid);
+        if (table == null) {
+            return 0;
+        }
+        synchronized (table) {
+            return table.size;
+        }
+    }
+
+    /**
+     * Sets the maximum number of entries per device, evicting the least
+     * recently used entries of the devices over the new capacity.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+        for (Map.Entry<DeviceId, DeviceTable> device: this.tables.entrySet()) {
+            DeviceTable table = device.getValue();
+            List<Long> forgotten;
+            synchronized (table) {
+                table.evictOverCapacity();
+                forgotten = table.takeForgotten();
+            }
+            notifyForgotten(device.getKey(), forgotten);
+        }
+    }
+
+    public void setAgingTime(long agingTime) {
+        this.agingTime = agingTime;
+    }
+
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    public long evictions() {
+        return this.evictions.sum();
+    }
+
+    public long expirations() {
+        return this.expirations.sum();
+    }
+
+    /**
+     * Receives notifications about newly learned or moved addresses.
+     */
+    public interface LearnListener {
+        /**
+         * Called when an address is learned on a port it was not known on.
+         *
+         * @param old_port the port it was known on before, or null if new
+         */
+        void learned(DeviceId deviceid, MacAddress mac, PortNumber old_port, PortNumber port);
+    }
+
+    /**
+     * Receives notifications about addresses the table forgot by itself.
+     */
+    public interface ForgetListener {
+        void forgotten(DeviceId deviceid, MacAddress mac);
+    }
+
+    private static final class Entry {
+        private final long mac;
+        private PortNumber port;
+        private long lastSeen;
+        // Neighbours in the LRU order of the device table
+        private Entry older;
+        private Entry newer;
+
+        private Entry(long mac, PortNumber port, long lastSeen) {
+            this.mac = mac;
+            this.port = port;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    /**
+     * Linear probing hash table of the entries of a device, keyed by the
+     * packed MAC address, with the entries also chained from the least to
+     * the most recently used. Must be used with the table locked.
+     */
+    private final class DeviceTable {
+        private static final int INITIAL_SLOTS = 16;
+
+        private Entry[] slots = new Entry[INITIAL_SLOTS];
+        private int size;
+        private Entry eldest;
+        private Entry youngest;
+        // Addresses forgotten since the last takeForgotten, only kept while someone listens
+        private List<Long> forgotten;
+
+        // Gets an entry and makes it the most recently used one
+        private Entry get(long mac) {
+            Entry entry = peek(mac);
+            if (entry != null && entry != this.youngest) {
+                unlink(entry);
+                link(entry);
+            }
+            return entry;
+        }
+
+        // Gets an entry without changing the LRU order
+        private Entry peek(long mac) {
+            int mask = this.slots.length - 1;
+            for (int i = slot(mac, mask); this.slots[i] != null; i = (i + 1) & mask) {
+                if (this.slots[i].mac == mac) {
+                    return this.slots[i];
+                }
+            }
+            return null;
+        }
+
+        // Adds the entry of an address not in the table yet
+        private void add(Entry entry) {
+            if ((this.size + 1) * 4 > this.slots.length * 3) {
+                resize(this.slots.length * 2);
+            }
+            insert(this.slots, entry);
+            link(entry);
+            this.size++;
+            evictOverCapacity();
+        }
+
+        private void remove(Entry entry) {
+            int mask = this.slots.length - 1;
+            int hole = slot(entry.mac, mask);
+            while (this.slots[hole] != entry) {
+                hole = (hole + 1) & mask;
+            }
+            this.slots[hole] = null;
+
+            // Shift back the following entries which can no longer be reached past the hole
+            for (int i = (hole + 1) & mask; this.slots[i] != null; i = (i + 1) & mask) {
+                int home = slot(this.slots[i].mac, mask);
+                boolean reachable = hole < i ? hole < home && home <= i : hole < home || home <= i;
+                if (!reachable) {
+                    this.slots[hole] = this.slots[i];
+                    this.slots[i] = null;
+                    hole = i;
+                }
+            }
+            unlink(entry);
+            this.size--;
+        }
+
+        private void evictOverCapacity() {
+            while (this.size > capacity) {
+                forget(this.eldest);
+                evictions.increment();
+            }
+        }
+
+        private void forget(Entry entry) {
+            remove(entry);
+            if (forgetListener != null) {
+                if (this.forgotten == null) {
+                    this.forgotten = new ArrayList<Long>();
+                }
+                this.forgotten.add(entry.mac);
+            }
+        }
+
+        private List<Long> takeForgotten() {
+            List<Long> taken = this.forgotten;
+            this.forgotten = null;
+            return taken;
+        }
+
+        private void resize(int length) {
+            Entry[] resized = new Entry[length];
+            for (Entry entry: this.slots) {
+                if (entry != null) {
+                    insert(resized, entry);
+                }
+            }
+            this.slots = resized;
+        }
+
+        private void insert(Entry[] table, Entry entry) {
+            int mask = table.length - 1;
+            int i = slot(entry.mac, mask);
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = entry;
+        }
+
+        private void link(Entry entry) {
+            entry.older = this.youngest;
+            entry.newer = null;
+            if (this.youngest == null) {
+                this.eldest = entry;
+            } else {
+                this.youngest.newer = entry;
+            }
+            this.youngest = entry;
+        }
+
+        private void unlink(Entry entry) {
+            if (entry.older == null) {
+                this.eldest = entry.newer;
+            } else {
+                entry.older.newer = entry.newer;
+            }
+            if (entry.newer == null) {
+                this.youngest = entry.older;
+            } else {
+                entry.newer.older = entry.older;
+            }
+            entry.older = null;
+            entry.newer = null;
+        }
+
+        // MAC addresses of a vendor share their upper bits, so mix all of them into the slot
+        private int slot(long mac, int mask) {
+            long h = mac * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onosproject.net.DeviceId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the most recent MAC table size samples of every device, so the
+ * table occupancy can be followed over time.
+ */
+public class MacTableHistory {
+    private final ConcurrentHashMap<DeviceId, ArrayDeque<Sample>> history =
+        new ConcurrentHashMap<DeviceId, ArrayDeque<Sample>>();
+
+    private final int length;
+
+    /**
+     * Creates a history.
+     *
+     * @param length number of samples kept per device
+     */
+    public MacTableHistory(int length) {
+        this.length = length;
+    }
+
+    public void record(DeviceId deviceid, int size, long time) {
+        ArrayDeque<Sample> samples = this.history.computeIfAbsent(deviceid, id -> new ArrayDeque<Sample>());
+        synchronized (samples) {
+            if (samples.size() == this.length) {
+                samples.removeFirst();
+            }
+            samples.addLast(new Sample(time, size));
+        }
+    }
+
+    /**
+     * Gets the samples of a device, oldest first.
+     */
+    public List<Sample> samples(DeviceId deviceid) {
+        ArrayDeque<Sample> samples = this.history.get(deviceid);
+        if (samples == null) {
+            return Collections.emptyList();
+        }
+        synchronized (samples) {
+            return new ArrayList<Sample>(samples);
+        }
+    }
+
+    public void removeDevice(DeviceId deviceid) {
+        this.history.remove(deviceid);
+    }
+
+    public void clear() {
+        this.history.clear();
+    }
+
+    /**
+     * Size of a MAC table at a point in time.
+     */
+    public static final class Sample {
+        private final long time;
+        private final int size;
+
+        private Sample(long time, int size) {
+            this.time = time;
+            this.size = size;
+        }
+
+        public long time() {
+            return this.time;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public String toString() {
+            return this.time + ":" + this.size;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+/**
+ * Constants for default values of configurable properties.
+ */
+public final class OsgiPropertyConstants {
+    private OsgiPropertyConstants() {
+    }
+
+    public static final String MAC_TABLE_CAPACITY = "macTableCapacity";
+    public static final int MAC_TABLE_CAPACITY_DEFAULT = 4096;
+
+    public static final String MAC_AGING_TIME = "macAgingTime";
+    public static final int MAC_AGING_TIME_DEFAULT = 300;
+
+    public static final String FLOW_SUPPRESS_WINDOW = "flowSuppressWindow";
+    public static final int FLOW_SUPPRESS_WINDOW_DEFAULT = 2000;
+
+    public static final String FORWARDING_MODE = "forwardingMode";
+    public static final String FORWARDING_MODE_DEFAULT = "PAIR";
+
+    public static final String FLOOD_RATE = "floodRate";
+    public static final int FLOOD_RATE_DEFAULT = 100;
+
+    public static final String FLOOD_BURST = "floodBurst";
+    public static final int FLOOD_BURST_DEFAULT = 200;
+
+    public static final String FLOOD_SAMPLE_RATE = "floodSampleRate";
+    public static final int FLOOD_SAMPLE_RATE_DEFAULT = 100;
+
+    public static final String FLOOD_DEVICE_RATE = "floodDeviceRate";
+    public static final int FLOOD_DEVICE_RATE_DEFAULT = 1000;
+
+    public static final String PIPELINE_SHARDS = "pipelineShards";
+    public static final int PIPELINE_SHARDS_DEFAULT = 0;
+
+    public static final String PIPELINE_QUEUE_DEPTH = "pipelineQueueDepth";
+    public static final int PIPELINE_QUEUE_DEPTH_DEFAULT = 1024;
+}
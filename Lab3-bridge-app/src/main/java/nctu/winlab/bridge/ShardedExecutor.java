@@ -0,0 +1,235 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onosproject.net.DeviceId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs tasks on a fixed set of single-thread shards picked by device, so
+ * the tasks of one switch keep their order while different switches are
+ * handled in parallel.
+ *
+ * Tasks which may be skipped are rejected once a shard has depth tasks
+ * queued. Tasks which must not be lost are always queued, without waiting.
+ * An executor can hand over to a successor, which starts running tasks
+ * once this one ran everything queued to it.
+ */
+public class ShardedExecutor {
+    private static final Runnable STOP = () -> { };
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Shard[] shards;
+
+    private final int depth;
+
+    private final LongAdder rejected = new LongAdder();
+
+    // Held shared while queueing and exclusively while stopping, so no task is queued behind a STOP
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean stopped;
+    private ShardedExecutor successor;
+
+    /**
+     * Creates and starts the shards.
+     *
+     * @param shards number of shard threads
+     * @param depth queue depth of every shard
+     * @param factory factory of the shard threads
+     * @param predecessor executor handing over to this one, or null
+     */
+    public ShardedExecutor(int shards, int depth, ThreadFactory factory, ShardedExecutor predecessor) {
+        this.shards = new Shard[shards];
+        this.depth = depth;
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(predecessor);
+            this.shards[i].thread = factory.newThread(this.shards[i]);
+            this.shards[i].thread.start();
+        }
+    }
+
+    /**
+     * Queues a task unless the queue of its shard is full.
+     *
+     * @return false if the task was rejected
+     */
+    public boolean tryExecute(DeviceId deviceid, Runnable task) {
+        Lock l = this.lock.readLock();
+        l.lock();
+        try {
+            if (this.successor != null) {
+                return this.successor.tryExecute(deviceid, task);
+            }
+            Shard shard = shard(deviceid);
+            if (!this.stopped && shard.queue.size() < this.depth) {
+                shard.queue.add(task);
+                return true;
+            }
+        } finally {
+            l.unlock();
+        }
+        this.rejected.increment();
+        return false;
+    }
+
+    /**
+     * Queues a task regardless of the depth of the queue of its shard.
+     *
+     * @return false if the executor was shut down without a successor, in
+     *         which case the caller runs the task after the queued ones ran
+     */
+    public boolean execute(DeviceId deviceid, Runnable task) {
+        Lock l = this.lock.readLock();
+        l.lock();
+        try {
+            if (this.successor != null) {
+                return this.successor.execute(deviceid, task);
+            }
+            if (!this.stopped) {
+                shard(deviceid).queue.add(task);
+                return true;
+            }
+        } finally {
+            l.unlock();
+        }
+        awaitTermination();
+        return false;
+    }
+
+    private Shard shard(DeviceId deviceid) {
+        return this.shards[(deviceid.hashCode() & Integer.MAX_VALUE) % this.shards.length];
+    }
+
+    /**
+     * Stops the shards once the tasks already queued have run, and passes
+     * the tasks submitted from now on to a successor created with this
+     * executor as its predecessor.
+     */
+    public void handOver(ShardedExecutor next) {
+        Lock l = this.lock.writeLock();
+        l.lock();
+        try {
+            this.successor = next;
+            this.stopped = true;
+            for (Shard shard: this.shards) {
+                shard.queue.add(STOP);
+            }
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Stops the shards once the tasks already queued have run.
+     */
+    public void shutdown() {
+        handOver(null);
+    }
+
+    /**
+     * Stops the shards right away, dropping queued tasks.
+     */
+    public void shutdownNow() {
+        Lock l = this.lock.writeLock();
+        l.lock();
+        try {
+            this.stopped = true;
+        } finally {
+            l.unlock();
+        }
+        for (Shard shard: this.shards) {
+            shard.queue.clear();
+            shard.thread.interrupt();
+        }
+    }
+
+    /**
+     * Waits until the shards have stopped.
+     */
+    public void awaitTermination() {
+        for (Shard shard: this.shards) {
+            try {
+                shard.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of queued tasks over all shards.
+     */
+    public int pending() {
+        int pending = 0;
+        for (Shard shard: this.shards) {
+            pending += shard.queue.size();
+        }
+        return pending;
+    }
+
+    public long rejected() {
+        return this.rejected.sum();
+    }
+
+    private final class Shard implements Runnable {
+        private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+        private Thread thread;
+        private ShardedExecutor predecessor;
+
+        private Shard(ShardedExecutor predecessor) {
+            this.predecessor = predecessor;
+        }
+
+        @Override
+        public void run() {
+            // Tasks of a switch may still be queued on the predecessor
+            if (this.predecessor != null) {
+                this.predecessor.awaitTermination();
+                this.predecessor = null;
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+            while (true) {
+                Runnable task;
+                try {
+                    task = this.queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (task == STOP) {
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.warn("Task failed on {}", Thread.currentThread().getName(), e);
+                }
+            }
+        }
+    }
+}
@@ -31,7 +31,7 @@ public class AppComponentTest {
     public void setUp() {
         component = new AppComponent();
         component.cfgService = new ComponentConfigAdapter();
-        component.activate();
+        component.activate(null);
     }
 
     @After
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flowobjective.DefaultForwardingObjective;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.packet.PacketContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original bridge packet-in handling against the current
+ * packet processor, for packets whose destination is known (hit) or
+ * unknown (miss).
+ *
+ * The original handling is gone from the tree, so it is mirrored here.
+ * The current one is the component's own processor, wired to the service
+ * stand-ins of {@link TestBridge}, so MAC learning, the install cache,
+ * the flow index and the rule submission all run as they do on ONOS. A
+ * hit repeats a pair whose rule was installed already, like the packets
+ * of a flow reaching the controller before its rule does. ONOS creates a
+ * packet context per packet-in, so does every benchmark, and
+ * {@code packetContext} measures that part alone.
+ *
+ * Run with the test classpath, e.g. from an IDE or with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=nctu.winlab.bridge.BridgeFastPathBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BridgeFastPathBenchmark {
+    private static final int HOSTS = 1024;
+    private static final int PORTS = 48;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ApplicationId appId = new DefaultApplicationId(1, "nctu.winlab.bridge");
+    private final DeviceId deviceid = DeviceId.deviceId("of:0000000000000001");
+
+    private MacAddress[] hosts;
+    private PortNumber[] ports;
+    private MacAddress[] unknown;
+    private int next;
+
+    /* Original implementation */
+    private HashMap<DeviceId, HashMap<MacAddress, PortNumber>> legacy_table;
+
+    /* Current implementation */
+    private TestBridge bridge;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        hosts = new MacAddress[HOSTS];
+        ports = new PortNumber[HOSTS];
+        unknown = new MacAddress[HOSTS];
+        for (int i = 0; i < HOSTS; i++) {
+            hosts[i] = MacAddress.valueOf(0x020000000000L | (random.nextInt() & 0xffffffffL));
+            ports[i] = PortNumber.portNumber(1 + i % PORTS);
+            unknown[i] = MacAddress.valueOf(0x060000000000L | (random.nextInt() & 0xffffffffL));
+        }
+
+        legacy_table = new HashMap<DeviceId, HashMap<MacAddress, PortNumber>>();
+        for (int i = 0; i < HOSTS; i++) {
+            legacyInsert(deviceid, hosts[i], ports[i]);
+        }
+
+        // Floods are not limited, so misses take the flood path rather than the drop one
+        bridge = new TestBridge(new TestStorageStandIn(), 0).activate();
+        bridge.configure(OsgiPropertyConstants.FLOOD_RATE, 0);
+        bridge.configure(OsgiPropertyConstants.FLOOD_DEVICE_RATE, 0);
+        // The first round learns every host, the second installs the rule of every pair
+        for (int i = 0; i < HOSTS; i++) {
+            bridge.process(bridge.packet(0, i, TestBridge.host((i + 1) % HOSTS)));
+        }
+        for (int i = 0; i < HOSTS; i++) {
+            bridge.process(bridge.packet(0, i, TestBridge.host((i + 1) % HOSTS)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        bridge.deactivate();
+    }
+
+    @Benchmark
+    public void legacyHit(Blackhole bh) {
+        int i = nextIndex();
+        legacyProcess(bh, hosts[i], ports[i], hosts[(i + 1) % HOSTS]);
+    }
+
+    @Benchmark
+    public void legacyMiss(Blackhole bh) {
+        int i = nextIndex();
+        legacyProcess(bh, hosts[i], ports[i], unknown[i]);
+    }
+
+    @Benchmark
+    public PacketContext packetContext() {
+        int i = nextIndex();
+        return bridge.packet(0, i, TestBridge.host((i + 1) % HOSTS));
+    }
+
+    @Benchmark
+    public PacketContext processorHit() {
+        int i = nextIndex();
+        PacketContext context = bridge.packet(0, i, TestBridge.host((i + 1) % HOSTS));
+        bridge.process(context);
+        return context;
+    }
+
+    @Benchmark
+    public PacketContext processorMiss() {
+        int i = nextIndex();
+        PacketContext context = bridge.packet(0, i, TestBridge.UNKNOWN);
+        bridge.process(context);
+        return context;
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % HOSTS;
+        return next;
+    }
+
+    // Mirrors BridgePacketProcessor.process before the fast path rework
+    private void legacyProcess(Blackhole bh, MacAddress src_mac, PortNumber in_port, MacAddress dst_mac) {
+        PortNumber old_in_port = legacySearch(deviceid, src_mac);
+        if (old_in_port == null || old_in_port != in_port) {
+            log.info(String.format("Add MAC address ==> switch: %s, MAC: %s, port: %s", deviceid, src_mac, in_port));
+            legacyInsert(deviceid, src_mac, in_port);
+        }
+
+        PortNumber out_port = legacySearch(deviceid, dst_mac);
+        if (out_port == null) {
+            log.info(String.format("MAC %s is missed on %s! Flood packet!", dst_mac, deviceid));
+            bh.consume(PortNumber.FLOOD);
+        } else {
+            log.info(String.format("MAC %s is matched on %s! Install flow rule!", dst_mac, deviceid));
+            TrafficTreatment traffic = DefaultTrafficTreatment.builder()
+                .setOutput(out_port)
+                .build();
+            bh.consume(buildObjective(src_mac, dst_mac, traffic));
+        }
+    }
+
+    private ForwardingObjective buildObjective(MacAddress src, MacAddress dst, TrafficTreatment traffic) {
+        TrafficSelector selector = DefaultTrafficSelector.builder()
+            .matchEthSrc(src)
+            .matchEthDst(dst)
+            .build();
+        return DefaultForwardingObjective.builder()
+            .fromApp(appId)
+            .withFlag(ForwardingObjective.Flag.VERSATILE)
+            .withSelector(selector)
+            .withTreatment(traffic)
+            .withPriority(30)
+            .makeTemporary(30)
+            .add();
+    }
+
+    private PortNumber legacySearch(DeviceId id, MacAddress mac) {
+        HashMap<MacAddress, PortNumber> device_table = legacy_table.get(id);
+        if (device_table == null) {
+            return null;
+        }
+        return device_table.get(mac);
+    }
+
+    private void legacyInsert(DeviceId id, MacAddress mac, PortNumber port) {
+        if (!legacy_table.containsKey(id)) {
+            legacy_table.put(id, new HashMap<MacAddress, PortNumber>());
+        }
+        legacy_table.get(id).put(mac, port);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BridgeFastPathBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.packet.PacketContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static nctu.winlab.bridge.TestBridge.host;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test of the packet-in path, replaying synthetic packet contexts
+ * with the install pipeline disabled and enabled.
+ */
+public class BridgePipelineLoadTest {
+    private static final int DEVICES = 16;
+    private static final int HOSTS = 32;
+    private static final int INSTALLS = DEVICES * HOSTS * (HOSTS - 1);
+    // Simulated cost of submitting one forwarding objective
+    private static final long FORWARD_LATENCY = TimeUnit.MICROSECONDS.toNanos(20);
+
+    private TestBridge bridge;
+
+    @Before
+    public void setUp() {
+        bridge = new TestBridge(new TestStorageStandIn(), FORWARD_LATENCY).activate();
+    }
+
+    @After
+    public void tearDown() {
+        bridge.deactivate();
+    }
+
+    @Test
+    public void inline() {
+        long elapsed = replay();
+
+        assertEquals(DEVICES * HOSTS + INSTALLS, bridge.sent.get());
+        assertEquals(INSTALLS, bridge.forwarded.get());
+        // The packet thread waited for every install
+        assertTrue(elapsed >= INSTALLS * FORWARD_LATENCY);
+    }
+
+    @Test
+    public void pipelineKeepsOrderPerDevice() {
+        bridge.configure(OsgiPropertyConstants.PIPELINE_SHARDS, 4);
+        long elapsed = replay();
+        awaitForwarded(INSTALLS);
+
+        assertEquals(DEVICES * HOSTS + INSTALLS, bridge.sent.get());
+        // The packet thread did not wait for the installs
+        assertTrue(elapsed < INSTALLS * FORWARD_LATENCY);
+        assertEquals(INSTALLS, bridge.forwarded.get());
+        assertEquals(0, bridge.component.skippedInstalls());
+        for (List<Long> order: bridge.order.values()) {
+            for (int i = 1; i < order.size(); i++) {
+                assertTrue(order.get(i - 1) < order.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void pipelineBackpressure() {
+        bridge.configure(OsgiPropertyConstants.PIPELINE_QUEUE_DEPTH, 8);
+        bridge.configure(OsgiPropertyConstants.PIPELINE_SHARDS, 1);
+        replay();
+        long skipped = bridge.component.skippedInstalls();
+        awaitForwarded(INSTALLS - (int) skipped);
+
+        // Packets are still forwarded, only the rule installs are skipped
+        assertEquals(DEVICES * HOSTS + INSTALLS, bridge.sent.get());
+        assertTrue(skipped > 0);
+        assertEquals(INSTALLS, bridge.forwarded.get() + skipped);
+    }
+
+    // Every host announces itself, then talks to every other host on its switch
+    private long replay() {
+        List<PacketContext> announce = new ArrayList<PacketContext>();
+        List<PacketContext> traffic = new ArrayList<PacketContext>();
+        for (int d = 0; d < DEVICES; d++) {
+            for (int a = 0; a < HOSTS; a++) {
+                announce.add(bridge.packet(d, a, TestBridge.UNKNOWN));
+            }
+        }
+        for (int a = 0; a < HOSTS; a++) {
+            for (int b = 0; b < HOSTS; b++) {
+                for (int d = 0; a != b && d < DEVICES; d++) {
+                    traffic.add(bridge.packet(d, a, host(b)));
+                }
+            }
+        }
+
+        for (PacketContext context: announce) {
+            bridge.process(context);
+        }
+        long start = System.nanoTime();
+        for (PacketContext context: traffic) {
+            bridge.process(context);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long awaitForwarded(int expected) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(30);
+        while (bridge.forwarded.get() < expected && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return System.nanoTime() - start;
+    }
+}
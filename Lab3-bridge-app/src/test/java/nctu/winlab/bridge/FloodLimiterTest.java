@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the table-miss flood limiter.
+ */
+public class FloodLimiterTest {
+    private final DeviceId dev1 = DeviceId.deviceId("of:0000000000000001");
+    private final DeviceId dev2 = DeviceId.deviceId("of:0000000000000002");
+    private final MacAddress scanner = MacAddress.valueOf("02:00:00:00:00:01");
+    private final MacAddress host = MacAddress.valueOf("02:00:00:00:00:02");
+
+    @Test
+    public void limitsEachSourceSeparately() {
+        // Slow enough that no token is refilled during the test
+        FloodLimiter limiter = new FloodLimiter(1, 10, 0, 0, 16);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryFlood(dev1, scanner));
+        }
+        assertFalse(limiter.tryFlood(dev1, scanner));
+
+        assertTrue(limiter.tryFlood(dev1, host));
+        assertTrue(limiter.tryFlood(dev2, scanner));
+        assertEquals(12, limiter.allowed());
+        assertEquals(1, limiter.dropped());
+    }
+
+    @Test
+    public void samplesOverLimitPackets() {
+        FloodLimiter limiter = new FloodLimiter(1, 1, 10, 0, 16);
+
+        assertTrue(limiter.tryFlood(dev1, scanner));
+        int flooded = 0;
+        for (int i = 0; i < 100; i++) {
+            if (limiter.tryFlood(dev1, scanner)) {
+                flooded++;
+            }
+        }
+
+        assertEquals(10, flooded);
+        assertEquals(10, limiter.sampled());
+        assertEquals(90, limiter.dropped());
+    }
+
+    @Test
+    public void refillsOverTime() throws InterruptedException {
+        FloodLimiter limiter = new FloodLimiter(100, 1, 0, 0, 16);
+
+        assertTrue(limiter.tryFlood(dev1, scanner));
+        assertFalse(limiter.tryFlood(dev1, scanner));
+        Thread.sleep(50);
+        assertTrue(limiter.tryFlood(dev1, scanner));
+    }
+
+    @Test
+    public void unlimitedWithZeroRate() {
+        FloodLimiter limiter = new FloodLimiter(0, 1, 0, 0, 16);
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.tryFlood(dev1, scanner));
+        }
+        assertEquals(0, limiter.dropped());
+    }
+
+    @Test
+    public void limitsAllSourcesOfDevice() {
+        FloodLimiter limiter = new FloodLimiter(1, 10, 0, 5, 16);
+
+        // Every spoofed source is within its own limit
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryFlood(dev1, MacAddress.valueOf(0x020000000100L + i)));
+        }
+        assertFalse(limiter.tryFlood(dev1, host));
+        assertTrue(limiter.tryFlood(dev2, host));
+        assertEquals(1, limiter.dropped());
+    }
+
+    @Test
+    public void boundsSourceBuckets() {
+        FloodLimiter limiter = new FloodLimiter(1, 2, 0, 0, 4);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.tryFlood(dev1, MacAddress.valueOf(0x020000000100L + i));
+        }
+        assertEquals(4, limiter.size(dev1));
+        // One packet from every source with a bucket, the others share the burst of one
+        assertEquals(4 + 2, limiter.allowed());
+        assertEquals(100 - 6, limiter.dropped());
+    }
+}
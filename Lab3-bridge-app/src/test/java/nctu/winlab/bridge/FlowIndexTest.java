@@ -0,0 +1,160 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the reverse index from destinations to installed rules.
+ */
+public class FlowIndexTest {
+    private final DeviceId dev1 = DeviceId.deviceId("of:0000000000000001");
+    private final DeviceId dev2 = DeviceId.deviceId("of:0000000000000002");
+    private final MacAddress h1 = MacAddress.valueOf("02:00:00:00:00:01");
+    private final MacAddress h2 = MacAddress.valueOf("02:00:00:00:00:02");
+    private final MacAddress h3 = MacAddress.valueOf("02:00:00:00:00:03");
+    private final PortNumber p1 = PortNumber.portNumber(1);
+    private final PortNumber p2 = PortNumber.portNumber(2);
+
+    @Test
+    public void moveRemovesOnlyRulesTowardsHost() {
+        FlowIndex index = new FlowIndex();
+        index.add(new FlowKey(dev1, h2, h1, p1));
+        index.add(new FlowKey(dev1, h3, h1, p1));
+        index.add(new FlowKey(dev1, h1, h2, p2));
+        index.add(new FlowKey(dev2, h2, h1, p1));
+
+        Set<FlowKey> stale = index.removeDestination(dev1, h1);
+
+        assertEquals(2, stale.size());
+        assertTrue(stale.contains(new FlowKey(dev1, h3, h1, p1)));
+        assertEquals(1, index.size(dev1));
+        assertEquals(1, index.size(dev2));
+        assertTrue(index.removeDestination(dev1, h1).isEmpty());
+    }
+
+    @Test
+    public void portDownRemovesOnlyRulesOutOfPort() {
+        FlowIndex index = new FlowIndex();
+        index.add(new FlowKey(dev1, h2, h1, p1));
+        index.add(new FlowKey(dev1, MacAddress.ZERO, h3, p1));
+        index.add(new FlowKey(dev1, h1, h2, p2));
+        index.add(new FlowKey(dev2, h2, h1, p1));
+
+        Set<FlowKey> stale = index.removePort(dev1, p1);
+
+        assertEquals(2, stale.size());
+        assertEquals(1, index.size(dev1));
+        assertEquals(1, index.size(dev2));
+    }
+
+    @Test
+    public void removedRuleIsForgotten() {
+        FlowIndex index = new FlowIndex();
+        FlowKey key = new FlowKey(dev1, h2, h1, p1);
+        index.add(key);
+        index.remove(key);
+
+        assertEquals(0, index.size(dev1));
+        assertTrue(index.removePort(dev1, p1).isEmpty());
+    }
+
+    @Test
+    public void tracksRulesFromSource() {
+        FlowIndex index = new FlowIndex();
+        FlowKey key = new FlowKey(dev1, h1, h2, p2);
+        index.add(key);
+        index.add(new FlowKey(dev1, h1, h3, p1));
+        index.add(new FlowKey(dev1, MacAddress.ZERO, h1, p1));
+
+        assertTrue(index.hasSource(dev1, h1));
+        assertFalse(index.hasSource(dev2, h1));
+        assertTrue(index.remove(key));
+        assertFalse(index.remove(key));
+        index.removePort(dev1, p1);
+        assertFalse(index.hasSource(dev1, h1));
+    }
+
+    @Test
+    public void concurrentAddIsNotLostToPortRemoval() throws InterruptedException {
+        FlowIndex index = new FlowIndex();
+        int count = 100000;
+        Set<FlowKey> removed = ConcurrentHashMap.newKeySet();
+        Thread adder = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                index.add(new FlowKey(dev1, MacAddress.valueOf(i + 1), h1, p1));
+            }
+        });
+        adder.start();
+        while (adder.isAlive()) {
+            removed.addAll(index.removePort(dev1, p1));
+        }
+        adder.join();
+        removed.addAll(index.removePort(dev1, p1));
+
+        assertEquals(count, removed.size());
+        assertEquals(0, index.size(dev1));
+    }
+
+    @Test
+    public void portDownWithdrawsRulesOutOfPort() {
+        TestBridge bridge = new TestBridge(new TestStorageStandIn(), 0).activate();
+        exchange(bridge);
+        assertEquals(2, bridge.forwarded.get());
+
+        // Host 2 is on port 3
+        bridge.portDown(0, 3);
+        assertEquals(1, bridge.withdrawn.get());
+
+        int flooded = bridge.flooded.get();
+        bridge.process(bridge.packet(0, 1, TestBridge.host(2)));
+        assertEquals(flooded + 1, bridge.flooded.get());
+        bridge.deactivate();
+    }
+
+    @Test
+    public void moveWithdrawsRulesTowardsHost() {
+        TestBridge bridge = new TestBridge(new TestStorageStandIn(), 0).activate();
+        exchange(bridge);
+
+        bridge.process(bridge.packet(0, 2, TestBridge.host(1), 10));
+        assertEquals(1, bridge.withdrawn.get());
+
+        // The rule towards the new port is installed without flooding
+        int flooded = bridge.flooded.get();
+        bridge.process(bridge.packet(0, 1, TestBridge.host(2)));
+        assertEquals(flooded, bridge.flooded.get());
+        assertEquals(3, bridge.forwarded.get());
+        bridge.deactivate();
+    }
+
+    // Installs the rules between hosts 1 and 2 on the first device
+    private void exchange(TestBridge bridge) {
+        bridge.process(bridge.packet(0, 1, TestBridge.host(2)));
+        bridge.process(bridge.packet(0, 2, TestBridge.host(1)));
+        bridge.process(bridge.packet(0, 1, TestBridge.host(2)));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the suppression of repeated forwarding rule installs.
+ */
+public class FlowInstallCacheTest {
+    private static final long LONG_WINDOW = 60000;
+    private static final long SHORT_WINDOW = 20;
+
+    private final DeviceId dev1 = DeviceId.deviceId("of:0000000000000001");
+    private final DeviceId dev2 = DeviceId.deviceId("of:0000000000000002");
+    private final MacAddress h1 = MacAddress.valueOf("02:00:00:00:00:01");
+    private final MacAddress h2 = MacAddress.valueOf("02:00:00:00:00:02");
+    private final PortNumber p1 = PortNumber.portNumber(1);
+    private final PortNumber p2 = PortNumber.portNumber(2);
+
+    @Test
+    public void suppressesWithinWindow() {
+        FlowInstallCache cache = new FlowInstallCache(LONG_WINDOW);
+
+        assertTrue(cache.shouldInstall(new FlowKey(dev1, h1, h2, p2)));
+        assertFalse(cache.shouldInstall(new FlowKey(dev1, h1, h2, p2)));
+        assertFalse(cache.shouldInstall(new FlowKey(dev1, h1, h2, p2)));
+        // Any other field makes another rule
+        assertTrue(cache.shouldInstall(new FlowKey(dev1, h2, h1, p1)));
+        assertTrue(cache.shouldInstall(new FlowKey(dev2, h1, h2, p2)));
+        assertEquals(2, cache.suppressed());
+    }
+
+    @Test
+    public void installsAgainAfterWindow() throws InterruptedException {
+        FlowInstallCache cache = new FlowInstallCache(SHORT_WINDOW);
+        assertTrue(cache.shouldInstall(new FlowKey(dev1, h1, h2, p2)));
+
+        Thread.sleep(SHORT_WINDOW * 3);
+        assertTrue(cache.shouldInstall(new FlowKey(dev1, h1, h2, p2)));
+        assertEquals(0, cache.suppressed());
+    }
+
+    @Test
+    public void installsAgainAfterRemoval() {
+        FlowInstallCache cache = new FlowInstallCache(LONG_WINDOW);
+        FlowKey key = new FlowKey(dev1, h1, h2, p2);
+        cache.shouldInstall(key);
+
+        // The rule idled out or was removed by a move
+        cache.invalidate(key);
+        assertTrue(cache.shouldInstall(key));
+    }
+
+    @Test
+    public void invalidatesPortAndDevice() {
+        FlowInstallCache cache = new FlowInstallCache(LONG_WINDOW);
+        FlowKey to_p1 = new FlowKey(dev1, h2, h1, p1);
+        FlowKey to_p2 = new FlowKey(dev1, h1, h2, p2);
+        FlowKey other = new FlowKey(dev2, h1, h2, p2);
+        cache.shouldInstall(to_p1);
+        cache.shouldInstall(to_p2);
+        cache.shouldInstall(other);
+
+        cache.invalidatePort(dev1, p2);
+        assertTrue(cache.shouldInstall(to_p2));
+        assertFalse(cache.shouldInstall(to_p1));
+        assertFalse(cache.shouldInstall(other));
+
+        cache.invalidateDevice(dev1);
+        assertTrue(cache.shouldInstall(to_p1));
+        assertTrue(cache.shouldInstall(to_p2));
+        assertFalse(cache.shouldInstall(other));
+    }
+
+    @Test
+    public void purgesExpiredRecords() throws InterruptedException {
+        FlowInstallCache cache = new FlowInstallCache(SHORT_WINDOW);
+        cache.shouldInstall(new FlowKey(dev1, h1, h2, p2));
+        cache.shouldInstall(new FlowKey(dev2, h1, h2, p2));
+        cache.purgeExpired();
+        assertEquals(2, cache.size());
+
+        Thread.sleep(SHORT_WINDOW * 3);
+        cache.purgeExpired();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void keysHashByValue() {
+        assertEquals(new FlowKey(dev1, h1, h2, p2), new FlowKey(dev1, h1, h2, p2));
+        assertEquals(new FlowKey(dev1, h1, h2, p2).hashCode(), new FlowKey(dev1, h1, h2, p2).hashCode());
+        assertNotEquals(new FlowKey(dev1, h1, h2, p2), new FlowKey(dev1, h2, h1, p2));
+        assertNotEquals(new FlowKey(dev1, h1, h2, p2), new FlowKey(dev1, h1, h2, p1));
+    }
+}
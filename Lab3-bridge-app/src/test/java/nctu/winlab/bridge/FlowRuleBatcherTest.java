@@ -0,0 +1,217 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.Ethernet;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the base rule batcher, including a startup-time comparison with
+ * installing the base rules one device at a time.
+ */
+public class FlowRuleBatcherTest {
+    private static final int DEVICES = 1000;
+    // Simulated cost of one round trip to the flow rule store
+    private static final long STORE_LATENCY = TimeUnit.MICROSECONDS.toNanos(200);
+    // How much faster the batched startup must be, far below the 1000 round trips it saves
+    private static final int MIN_SPEEDUP = 10;
+
+    private final ApplicationId appId = new DefaultApplicationId(1, "nctu.winlab.bridge");
+
+    private ScheduledExecutorService executor;
+    private MockFlowRuleService flowRuleService;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        flowRuleService = new MockFlowRuleService();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void coalescesOperationsOfTheSameRule() {
+        FlowRuleBatcher batcher = new FlowRuleBatcher(flowRuleService, executor, 1000, null);
+        FlowRule rule = baseRule(DeviceId.deviceId("of:0000000000000001"));
+
+        batcher.add(rule);
+        batcher.remove(rule);
+        batcher.add(rule);
+
+        assertEquals(1, batcher.flush());
+        assertEquals(1, flowRuleService.applyCalls);
+        assertEquals(0, batcher.flush());
+    }
+
+    @Test
+    public void submitsAfterWindow() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        FlowRuleBatcher batcher = new FlowRuleBatcher(flowRuleService, executor, 20, new FlowRuleOperationsContext() {
+            @Override
+            public void onSuccess(FlowRuleOperations ops) {
+                done.countDown();
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            batcher.add(baseRule(deviceId(i)));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, flowRuleService.applyCalls);
+        assertEquals(10, flowRuleService.operations);
+    }
+
+    @Test
+    public void submitsBaseRulesOfAllDevicesAsOneBatch() {
+        FlowRuleBatcher batcher = new FlowRuleBatcher(flowRuleService, executor, 1000, null);
+        for (int i = 0; i < DEVICES; i++) {
+            batcher.add(baseRule(deviceId(i)));
+        }
+        // Devices gone before the batch is submitted
+        for (int i = 0; i < 10; i++) {
+            batcher.remove(baseRule(deviceId(i)));
+        }
+
+        assertEquals(DEVICES, batcher.flush());
+        assertEquals(1, flowRuleService.applyCalls);
+        assertEquals(DEVICES - 10, flowRuleService.added.size());
+        assertEquals(10, flowRuleService.removed.size());
+        assertTrue(flowRuleService.removed.contains(baseRule(deviceId(0))));
+        assertFalse(flowRuleService.added.contains(baseRule(deviceId(0))));
+    }
+
+    @Test
+    public void startupTime() {
+        List<FlowRule> rules = new ArrayList<FlowRule>();
+        for (int i = 0; i < DEVICES; i++) {
+            rules.add(baseRule(deviceId(i)));
+        }
+
+        long start = System.nanoTime();
+        for (FlowRule rule: rules) {
+            flowRuleService.applyFlowRules(rule);
+        }
+        long per_device = System.nanoTime() - start;
+        int per_device_calls = flowRuleService.applyCalls;
+
+        flowRuleService = new MockFlowRuleService();
+        FlowRuleBatcher batcher = new FlowRuleBatcher(flowRuleService, executor, 1000, null);
+        start = System.nanoTime();
+        for (FlowRule rule: rules) {
+            batcher.add(rule);
+        }
+        batcher.flush();
+        long batched = System.nanoTime() - start;
+
+        assertEquals(DEVICES, per_device_calls);
+        assertEquals(1, flowRuleService.applyCalls);
+        assertEquals(DEVICES, flowRuleService.operations);
+        assertTrue("per-device " + per_device + " ns, batched " + batched + " ns",
+                   per_device >= MIN_SPEEDUP * batched);
+    }
+
+    @Test
+    public void cancelDropsPendingOperations() {
+        FlowRuleBatcher batcher = new FlowRuleBatcher(flowRuleService, executor, 1000, null);
+        batcher.add(baseRule(deviceId(0)));
+        batcher.cancel();
+
+        assertEquals(0, batcher.flush());
+        assertEquals(0, flowRuleService.applyCalls);
+    }
+
+    private DeviceId deviceId(int i) {
+        return DeviceId.deviceId(String.format("of:%016x", i + 1));
+    }
+
+    private FlowRule baseRule(DeviceId id) {
+        return DefaultFlowRule.builder()
+            .fromApp(appId)
+            .forDevice(id)
+            .withSelector(DefaultTrafficSelector.builder().matchEthType(Ethernet.TYPE_IPV4).build())
+            .withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.CONTROLLER).build())
+            .withPriority(5)
+            .makePermanent()
+            .build();
+    }
+
+    private static class MockFlowRuleService extends FlowRuleServiceAdapter {
+        private int applyCalls;
+        private int operations;
+        private final Set<FlowRule> added = new HashSet<FlowRule>();
+        private final Set<FlowRule> removed = new HashSet<FlowRule>();
+
+        @Override
+        public void applyFlowRules(FlowRule... flowRules) {
+            roundTrip();
+            applyCalls++;
+            operations += flowRules.length;
+        }
+
+        @Override
+        public void apply(FlowRuleOperations ops) {
+            roundTrip();
+            applyCalls++;
+            for (Set<FlowRuleOperation> stage: ops.stages()) {
+                operations += stage.size();
+                for (FlowRuleOperation op: stage) {
+                    (op.type() == FlowRuleOperation.Type.REMOVE ? removed : added).add(op.rule());
+                }
+            }
+            ops.callback().onSuccess(ops);
+        }
+
+        // Parking may return early, so it is repeated until the whole latency has passed
+        private void roundTrip() {
+            long deadline = System.nanoTime() + STORE_LATENCY;
+            for (long left = STORE_LATENCY; left > 0; left = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(left);
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.TrafficSelector;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Simulates N hosts on one switch talking to each other, and compares the
+ * number of flow table entries each forwarding mode needs.
+ */
+public class ForwardingModeSimulationTest {
+    private static final int[] HOST_COUNTS = {16, 64, 256};
+
+    private final DeviceId deviceid = DeviceId.deviceId("of:0000000000000001");
+
+    @Test
+    public void flowTableSize() {
+        for (int hosts: HOST_COUNTS) {
+            Switch pair = new Switch(ForwardingMode.PAIR, hosts).allPairs();
+            Switch destination = new Switch(ForwardingMode.DESTINATION, hosts).allPairs();
+
+            assertEquals(hosts * (hosts - 1), pair.entries());
+            // One source and one destination rule per host
+            assertEquals(2 * hosts, destination.entries());
+        }
+    }
+
+    @Test
+    public void newSourceIsLearnedBehindDestinationRule() {
+        Switch sw = new Switch(ForwardingMode.DESTINATION, 8).allPairs();
+        int floods = sw.floods;
+
+        // The rule towards host 1 already exists, the new host still reaches the controller
+        sw.packet(host(8), port(8), host(1));
+        assertEquals(port(8), sw.sources.get(host(8)));
+
+        // So the reply finds it instead of being flooded
+        assertEquals(port(8), sw.packet(host(1), port(1), host(8)));
+        assertEquals(floods, sw.floods);
+
+        int punts = sw.punts;
+        assertEquals(port(8), sw.packet(host(1), port(1), host(8)));
+        assertEquals(port(1), sw.packet(host(8), port(8), host(1)));
+        assertEquals(punts, sw.punts);
+    }
+
+    @Test
+    public void destinationRuleFollowsMove() {
+        Switch sw = new Switch(ForwardingMode.DESTINATION, 8).allPairs();
+        PortNumber new_port = PortNumber.portNumber(100);
+
+        // The source rule of the old port does not match, so the move reaches the controller
+        sw.packet(host(0), new_port, host(1));
+
+        assertEquals(16, sw.entries());
+        assertEquals(new_port, sw.sources.get(host(0)));
+        assertEquals(new_port, sw.rules.get(ForwardingMode.DESTINATION.selector(null, host(0))));
+        int punts = sw.punts;
+        assertEquals(new_port, sw.packet(host(1), port(1), host(0)));
+        assertEquals(punts, sw.punts);
+    }
+
+    @Test
+    public void modeChangeFlushesRules() {
+        TestBridge bridge = new TestBridge(new TestStorageStandIn(), 0).activate();
+        bridge.configure("forwardingMode", "DESTINATION");
+
+        bridge.process(bridge.packet(0, 1, TestBridge.host(2)));
+        bridge.process(bridge.packet(0, 2, TestBridge.host(1)));
+        // Source rules of both hosts and the destination rule towards host 1
+        assertEquals(3, bridge.applied.get());
+        assertEquals(0, bridge.forwarded.get());
+
+        bridge.configure("forwardingMode", "PAIR");
+        assertEquals(3, bridge.removed.get());
+
+        bridge.process(bridge.packet(0, 2, TestBridge.host(1)));
+        assertEquals(3, bridge.applied.get());
+        assertEquals(1, bridge.forwarded.get());
+        bridge.deactivate();
+    }
+
+    @Test
+    public void knownSourceIsNotReinstalled() {
+        TestBridge bridge = new TestBridge(new TestStorageStandIn(), 0).activate();
+        bridge.configure("forwardingMode", "DESTINATION");
+
+        // Destination table misses of a source whose rule is installed
+        for (int i = 0; i < 3; i++) {
+            bridge.process(bridge.packet(0, 1, TestBridge.UNKNOWN));
+        }
+        assertEquals(1, bridge.applied.get());
+        assertEquals(0, bridge.component.suppressedInstalls());
+        bridge.deactivate();
+    }
+
+    private MacAddress host(int i) {
+        return MacAddress.valueOf(0x020000000000L + i);
+    }
+
+    private PortNumber port(int i) {
+        return PortNumber.portNumber(i + 1);
+    }
+
+    // Mirrors how BridgePacketProcessor and the MAC move handling program a switch
+    private class Switch {
+        private final ForwardingMode mode;
+        private final int hosts;
+        private final MacTable table;
+        // Source table of DESTINATION mode, the port each source rule matches on
+        private final Map<MacAddress, PortNumber> sources = new HashMap<MacAddress, PortNumber>();
+        private final Map<TrafficSelector, PortNumber> rules = new HashMap<TrafficSelector, PortNumber>();
+        private int punts;
+        private int floods;
+
+        Switch(ForwardingMode mode, int hosts) {
+            this.mode = mode;
+            this.hosts = hosts;
+            this.table = new MacTable(hosts * 2, TimeUnit.HOURS.toMillis(1));
+            this.table.setListener((id, mac, old_port, port) -> {
+                if (old_port != null && mode == ForwardingMode.DESTINATION) {
+                    sources.remove(mac);
+                    rules.put(mode.selector(null, mac), port);
+                }
+            });
+        }
+
+        // Every pair exchanges a request, a reply and a second request, no host announces itself first
+        Switch allPairs() {
+            for (int a = 0; a < hosts; a++) {
+                for (int b = a + 1; b < hosts; b++) {
+                    packet(host(a), port(a), host(b));
+                    packet(host(b), port(b), host(a));
+                    packet(host(a), port(a), host(b));
+                }
+            }
+            return this;
+        }
+
+        int entries() {
+            return sources.size() + rules.size();
+        }
+
+        /**
+         * Sends a packet through the switch.
+         *
+         * @return the port the packet leaves from, or null if it was flooded
+         */
+        PortNumber packet(MacAddress src, PortNumber in_port, MacAddress dst) {
+            PortNumber out_port = null;
+            if (mode == ForwardingMode.PAIR || in_port.equals(sources.get(src))) {
+                out_port = rules.get(mode.selector(src, dst));
+            }
+            if (out_port != null) {
+                return out_port;
+            }
+
+            punts++;
+            out_port = table.learnAndLookup(deviceid, src, in_port, dst);
+            if (mode == ForwardingMode.DESTINATION) {
+                sources.put(src, in_port);
+            }
+            if (out_port == null) {
+                floods++;
+            } else {
+                rules.put(mode.selector(src, dst), out_port);
+            }
+            return out_port;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.PortNumber;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of expiring MAC addresses when the data plane reports their rules
+ * as removed.
+ */
+public class MacExpiryTest {
+    private TestBridge bridge;
+
+    @Before
+    public void setUp() {
+        bridge = new TestBridge(new TestStorageStandIn(), 0).activate();
+        // Host 1 is on port 2 and host 2 on port 3
+        bridge.process(bridge.packet(0, 1, TestBridge.host(2)));
+        bridge.process(bridge.packet(0, 2, TestBridge.host(1)));
+        bridge.process(bridge.packet(0, 1, TestBridge.host(2)));
+    }
+
+    @After
+    public void tearDown() {
+        bridge.deactivate();
+    }
+
+    @Test
+    public void idleSourceExpires() {
+        bridge.ruleRemoved(0, TestBridge.host(1), TestBridge.host(2), 3);
+
+        assertNull(port(1));
+        assertNotNull(port(2));
+    }
+
+    @Test
+    public void sendingHostOutlivesRulesTowardsIt() {
+        bridge.process(bridge.packet(0, 1, TestBridge.host(3)));
+        bridge.process(bridge.packet(0, 3, TestBridge.host(1)));
+
+        // Nothing is sent to host 1 any more, but it still sends to host 2
+        bridge.ruleRemoved(0, TestBridge.host(2), TestBridge.host(1), 2);
+        bridge.ruleRemoved(0, TestBridge.host(3), TestBridge.host(1), 2);
+
+        assertNotNull(port(1));
+        assertNull(port(2));
+        assertNull(port(3));
+    }
+
+    @Test
+    public void withdrawnRuleKeepsSource() {
+        // Host 2 moves, so the rule from host 1 towards it is withdrawn
+        bridge.process(bridge.packet(0, 2, TestBridge.host(1), 10));
+        bridge.ruleRemoved(0, TestBridge.host(1), TestBridge.host(2), 3);
+
+        assertNotNull(port(1));
+    }
+
+    private PortNumber port(int host) {
+        return bridge.component.macTable().peek(TestBridge.deviceId(0), MacAddress.valueOf(TestBridge.host(host)));
+    }
+}
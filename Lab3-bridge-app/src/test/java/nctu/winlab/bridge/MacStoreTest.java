@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.PortNumber;
+import org.onosproject.store.service.EventuallyConsistentMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of keeping the MAC table in sync with the store shared by all
+ * instances.
+ */
+public class MacStoreTest {
+    private TestStorageStandIn storage;
+    private TestBridge bridge;
+    private EventuallyConsistentMap<MacKey, PortNumber> store;
+
+    @Before
+    public void setUp() {
+        storage = new TestStorageStandIn();
+        store = storage.<MacKey, PortNumber>eventuallyConsistentMapBuilder()
+            .withName("nctu-bridge-mac-table")
+            .build();
+        bridge = new TestBridge(storage, 0).activate();
+        // Host 1 is on port 2 and host 2 on port 3
+        bridge.process(bridge.packet(0, 1, TestBridge.host(2)));
+        bridge.process(bridge.packet(0, 2, TestBridge.host(1)));
+        bridge.process(bridge.packet(0, 1, TestBridge.host(2)));
+    }
+
+    @After
+    public void tearDown() {
+        bridge.deactivate();
+    }
+
+    @Test
+    public void remoteMoveLeavesRulesToMaster() {
+        bridge.master = false;
+        int forwarded = bridge.forwarded.get();
+
+        // The master saw host 2 move and shared it
+        store.put(key(2), PortNumber.portNumber(10));
+
+        assertEquals(PortNumber.portNumber(10), bridge.component.macTable().peek(TestBridge.deviceId(0), mac(2)));
+        assertEquals(0, bridge.withdrawn.get());
+        assertEquals(forwarded, bridge.forwarded.get());
+    }
+
+    @Test
+    public void forgottenAddressLeavesStore() {
+        bridge.portDown(0, 3);
+
+        assertFalse(store.containsKey(key(2)));
+        assertTrue(store.containsKey(key(1)));
+    }
+
+    @Test
+    public void forgottenAddressStaysWithoutMastership() {
+        bridge.master = false;
+        bridge.portDown(0, 3);
+
+        assertTrue(store.containsKey(key(2)));
+    }
+
+    @Test
+    public void deactivateKeepsStore() {
+        bridge.deactivate();
+        bridge = new TestBridge(storage, 0).activate();
+
+        assertEquals(2, store.size());
+        assertEquals(PortNumber.portNumber(3), bridge.component.macTable().peek(TestBridge.deviceId(0), mac(2)));
+    }
+
+    private static MacAddress mac(int host) {
+        return MacAddress.valueOf(TestBridge.host(host));
+    }
+
+    private static MacKey key(int host) {
+        return new MacKey(TestBridge.deviceId(0), mac(host));
+    }
+}
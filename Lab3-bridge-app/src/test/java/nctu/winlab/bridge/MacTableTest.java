@@ -0,0 +1,165 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the MAC table, its flow driven expiry and its size history.
+ */
+public class MacTableTest {
+    private final DeviceId dev = DeviceId.deviceId("of:0000000000000001");
+    private final MacAddress h1 = MacAddress.valueOf("02:00:00:00:00:01");
+    private final PortNumber p1 = PortNumber.portNumber(1);
+    private final PortNumber p2 = PortNumber.portNumber(2);
+
+    @Test
+    public void countsHitsAndMisses() {
+        MacTable table = new MacTable(16, 60000);
+        table.learn(dev, h1, p1);
+
+        assertEquals(p1, table.lookup(dev, h1));
+        assertNull(table.lookup(dev, mac(2)));
+        assertNull(table.lookup(DeviceId.deviceId("of:0000000000000002"), h1));
+        assertEquals(p1, table.learnAndLookup(dev, mac(2), p2, h1));
+        assertNull(table.learnAndLookup(dev, mac(2), p2, mac(3)));
+
+        assertEquals(2, table.hits());
+        assertEquals(3, table.misses());
+        assertEquals(0, table.evictions());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        MacTable table = new MacTable(3, 60000);
+        table.learn(dev, mac(1), p1);
+        table.learn(dev, mac(2), p1);
+        table.learn(dev, mac(3), p1);
+        // Used, so the second one is now the least recently used
+        table.lookup(dev, mac(1));
+
+        table.learn(dev, mac(4), p1);
+        assertEquals(3, table.size(dev));
+        assertEquals(1, table.evictions());
+        assertNull(table.lookup(dev, mac(2)));
+        assertEquals(p1, table.lookup(dev, mac(1)));
+        assertEquals(p1, table.lookup(dev, mac(3)));
+        assertEquals(p1, table.lookup(dev, mac(4)));
+    }
+
+    @Test
+    public void shrinksToNewCapacity() {
+        MacTable table = new MacTable(8, 60000);
+        for (int i = 1; i <= 8; i++) {
+            table.learn(dev, mac(i), p1);
+        }
+
+        table.setCapacity(2);
+        assertEquals(2, table.size(dev));
+        assertEquals(6, table.evictions());
+        // The two most recently learned are kept
+        assertEquals(p1, table.lookup(dev, mac(7)));
+        assertEquals(p1, table.lookup(dev, mac(8)));
+    }
+
+    @Test
+    public void matchesReferenceMap() {
+        // Addresses of one vendor, sharing their upper bits, across resizes and removals
+        MacTable table = new MacTable(100000, 60000);
+        Map<Long, PortNumber> reference = new HashMap<Long, PortNumber>();
+        Random random = new Random(1);
+        for (int i = 0; i < 50000; i++) {
+            long addr = 0x0000_5e00_0000L + random.nextInt(4096);
+            int op = random.nextInt(1000);
+            if (op < 250) {
+                table.remove(dev, MacAddress.valueOf(addr));
+                reference.remove(addr);
+            } else if (op < 252) {
+                int before = reference.size();
+                reference.values().removeIf(p2::equals);
+                assertEquals(before - reference.size(), table.removePort(dev, p2));
+            } else {
+                PortNumber port = random.nextBoolean() ? p1 : p2;
+                table.learn(dev, MacAddress.valueOf(addr), port);
+                reference.put(addr, port);
+            }
+        }
+
+        assertEquals(reference.size(), table.size(dev));
+        assertEquals(reference.size(), table.macs(dev).size());
+        for (Map.Entry<Long, PortNumber> entry: reference.entrySet()) {
+            assertEquals(entry.getValue(), table.lookup(dev, MacAddress.valueOf(entry.getKey())));
+        }
+    }
+
+    @Test
+    public void touchKeepsEntryAlive() throws InterruptedException {
+        MacTable table = new MacTable(16, 200);
+        table.learn(dev, h1, p1);
+
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(60);
+            table.touch(dev, h1);
+        }
+
+        assertEquals(p1, table.lookup(dev, h1));
+    }
+
+    @Test
+    public void expireOnlyOnLearnedPort() {
+        MacTable table = new MacTable(16, 60000);
+        table.learn(dev, h1, p2);
+
+        // A rule towards the port the host moved away from
+        assertFalse(table.expire(dev, h1, p1));
+        assertEquals(p2, table.lookup(dev, h1));
+
+        assertTrue(table.expire(dev, h1, p2));
+        assertNull(table.lookup(dev, h1));
+        assertEquals(1, table.expirations());
+    }
+
+    private static MacAddress mac(int host) {
+        return MacAddress.valueOf(0x020000000000L + host);
+    }
+
+    @Test
+    public void historyKeepsLatestSamples() {
+        MacTableHistory history = new MacTableHistory(3);
+        for (int i = 0; i < 5; i++) {
+            history.record(dev, i * 10, i);
+        }
+
+        List<MacTableHistory.Sample> samples = history.samples(dev);
+        assertEquals(3, samples.size());
+        assertEquals(2, samples.get(0).time());
+        assertEquals(40, samples.get(2).size());
+        assertTrue(history.samples(DeviceId.deviceId("of:0000000000000002")).isEmpty());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.junit.Test;
+
+import static nctu.winlab.bridge.TestBridge.host;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the MAC table is warm again right after a restart, with the
+ * learned ports kept in a store stand-in.
+ */
+public class MacTableWarmupTest {
+    private static final int DEVICES = 16;
+    private static final int HOSTS = 256;
+
+    @Test
+    public void warmAfterRestart() {
+        TestStorageStandIn storage = new TestStorageStandIn();
+        TestBridge before = new TestBridge(storage, 0).activate();
+        announceAll(before);
+        before.deactivate();
+
+        // Restart with the same store, which fills the table before any packet
+        TestBridge after = new TestBridge(storage, 0).activate();
+        for (int d = 0; d < DEVICES; d++) {
+            assertEquals(HOSTS, after.component.macTable().size(TestBridge.deviceId(d)));
+        }
+        int floods = talkToFirstHost(after);
+        after.deactivate();
+
+        // Restart with an empty store
+        TestBridge cold = new TestBridge(new TestStorageStandIn(), 0).activate();
+        int cold_floods = talkToFirstHost(cold);
+        cold.deactivate();
+
+        assertEquals(0, floods);
+        assertEquals(DEVICES * (HOSTS - 1), cold_floods);
+    }
+
+    private void announceAll(TestBridge bridge) {
+        for (int d = 0; d < DEVICES; d++) {
+            for (int h = 0; h < HOSTS; h++) {
+                bridge.process(bridge.packet(d, h, TestBridge.UNKNOWN));
+            }
+        }
+    }
+
+    // Every host sends one packet to host 0, which is only known if the table is warm
+    private int talkToFirstHost(TestBridge bridge) {
+        for (int d = 0; d < DEVICES; d++) {
+            for (int h = 1; h < HOSTS; h++) {
+                bridge.process(bridge.packet(d, h, host(0)));
+            }
+        }
+        return bridge.flooded.get();
+    }
+}
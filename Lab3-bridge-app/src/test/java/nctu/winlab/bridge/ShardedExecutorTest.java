@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.junit.Test;
+import org.onosproject.net.DeviceId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the per-device ordered executor of rule submissions.
+ */
+public class ShardedExecutorTest {
+    private final ThreadFactory factory = Executors.defaultThreadFactory();
+    private final DeviceId dev1 = DeviceId.deviceId("of:0000000000000001");
+
+    @Test
+    public void lossless() throws InterruptedException {
+        ShardedExecutor executor = new ShardedExecutor(1, 1, factory, null);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        assertTrue(executor.tryExecute(dev1, () -> await(release)));
+        assertTrue(executor.tryExecute(dev1, ran::incrementAndGet));
+
+        // The queue is full, only tasks which must not be lost get in, without waiting
+        assertFalse(executor.tryExecute(dev1, ran::incrementAndGet));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(executor.execute(dev1, ran::incrementAndGet));
+        }
+        assertEquals(1, executor.rejected());
+
+        release.countDown();
+        executor.shutdown();
+        executor.awaitTermination();
+        assertEquals(101, ran.get());
+    }
+
+    @Test
+    public void handOverKeepsOrder() throws InterruptedException {
+        ShardedExecutor old_executor = new ShardedExecutor(2, 1000, factory, null);
+        List<Integer> order = new ArrayList<Integer>();
+        CountDownLatch release = new CountDownLatch(1);
+        old_executor.execute(dev1, () -> await(release));
+        for (int i = 0; i < 500; i++) {
+            int task = i;
+            old_executor.execute(dev1, () -> order.add(task));
+        }
+
+        ShardedExecutor executor = new ShardedExecutor(3, 1000, factory, old_executor);
+        old_executor.handOver(executor);
+        // Submitted to the old executor after the hand over, or to the new one directly
+        for (int i = 500; i < 1000; i++) {
+            int task = i;
+            (i % 2 == 0 ? old_executor : executor).execute(dev1, () -> order.add(task));
+        }
+        release.countDown();
+        executor.shutdown();
+        executor.awaitTermination();
+
+        assertEquals(1000, order.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void shutdownRunsLateTasksAfterQueued() throws InterruptedException {
+        ShardedExecutor executor = new ShardedExecutor(1, 10, factory, null);
+        List<Integer> order = new ArrayList<Integer>();
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(dev1, () -> await(release));
+        executor.execute(dev1, () -> order.add(0));
+        executor.shutdown();
+
+        assertFalse(executor.tryExecute(dev1, () -> order.add(-1)));
+        Thread late = new Thread(() -> {
+            if (!executor.execute(dev1, () -> order.add(-1))) {
+                order.add(1);
+            }
+        });
+        late.start();
+        release.countDown();
+        late.join();
+
+        assertEquals(2, order.size());
+        assertEquals(0, (int) order.get(0));
+        assertEquals(1, (int) order.get(1));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
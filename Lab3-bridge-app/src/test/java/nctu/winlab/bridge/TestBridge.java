@@ -0,0 +1,296 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onlab.osgi.ComponentContextAdapter;
+import org.onlab.packet.ChassisId;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.MacAddress;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.mastership.MastershipServiceAdapter;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultDevice;
+import org.onosproject.net.DefaultPort;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
+import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.EthCriterion;
+import org.onosproject.net.flow.instructions.Instruction;
+import org.onosproject.net.flow.instructions.Instructions;
+import org.onosproject.net.flowobjective.FlowObjectiveServiceAdapter;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.flowobjective.Objective;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.DefaultOutboundPacket;
+import org.onosproject.net.packet.DefaultPacketContext;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.net.packet.PacketServiceAdapter;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.store.service.StorageService;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bridge component wired to service stand-ins, fed with synthetic packet
+ * contexts. The component is the master of every device.
+ */
+public class TestBridge {
+    // Never sends anything, so packets towards it are always flooded
+    public static final long UNKNOWN = 0x06ffffffffffL;
+
+    public final AppComponent component = new AppComponent();
+    public final AtomicInteger sent = new AtomicInteger();
+    public final AtomicInteger flooded = new AtomicInteger();
+    public final AtomicInteger forwarded = new AtomicInteger();
+    public final AtomicInteger withdrawn = new AtomicInteger();
+    // Rules applied and removed without objectives, i.e. those of DESTINATION mode
+    public final AtomicInteger applied = new AtomicInteger();
+    public final AtomicInteger removed = new AtomicInteger();
+    // Source and destination of the objectives submitted to every device, in order
+    public final Map<DeviceId, List<Long>> order = new ConcurrentHashMap<DeviceId, List<Long>>();
+    // Whether this instance is the master of every device
+    public volatile boolean master = true;
+
+    private final long forwardLatency;
+    private PacketProcessor processor;
+    private ApplicationId appId;
+    private final List<DeviceListener> deviceListeners = new ArrayList<DeviceListener>();
+    private final List<FlowRuleListener> flowRuleListeners = new ArrayList<FlowRuleListener>();
+
+    /**
+     * Creates a bridge.
+     *
+     * @param storage storage service backing the MAC table
+     * @param forwardLatency simulated cost of submitting one objective in nanoseconds
+     */
+    public TestBridge(StorageService storage, long forwardLatency) {
+        this.forwardLatency = forwardLatency;
+        component.cfgService = new ComponentConfigAdapter();
+        component.coreService = new MockCoreService();
+        component.deviceService = new MockDeviceService();
+        component.flowRuleService = new MockFlowRuleService();
+        component.flowObjectiveService = new MockFlowObjectiveService();
+        component.packetService = new MockPacketService();
+        component.storageService = storage;
+        component.mastershipService = new MockMastershipService();
+    }
+
+    public TestBridge activate() {
+        component.activate(null);
+        return this;
+    }
+
+    public void deactivate() {
+        component.deactivate();
+    }
+
+    public void configure(String name, Object value) {
+        Dictionary<String, Object> properties = new Hashtable<String, Object>();
+        properties.put(name, String.valueOf(value));
+        component.modified(new ComponentContextAdapter() {
+            @Override
+            public Dictionary<String, Object> getProperties() {
+                return properties;
+            }
+        });
+    }
+
+    public void process(PacketContext context) {
+        processor.process(context);
+    }
+
+    /**
+     * Reports a port of a device as disabled.
+     */
+    public void portDown(int device, int port) {
+        Device dev = new DefaultDevice(ProviderId.NONE, deviceId(device), Device.Type.SWITCH,
+                "", "", "", "", new ChassisId());
+        DeviceEvent event = new DeviceEvent(DeviceEvent.Type.PORT_UPDATED, dev,
+                new DefaultPort(dev, PortNumber.portNumber(port), false));
+        for (DeviceListener listener: deviceListeners) {
+            if (listener.isRelevant(event)) {
+                listener.event(event);
+            }
+        }
+    }
+
+    /**
+     * Reports a rule forwarding packets from src to dst out of a port as
+     * removed from a device, e.g. because it idled out.
+     */
+    public void ruleRemoved(int device, long src, long dst, int port) {
+        FlowRule rule = DefaultFlowRule.builder()
+            .fromApp(appId)
+            .forDevice(deviceId(device))
+            .withSelector(ForwardingMode.PAIR.selector(MacAddress.valueOf(src), MacAddress.valueOf(dst)))
+            .withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.portNumber(port)).build())
+            .withPriority(30)
+            .makeTemporary(30)
+            .build();
+        FlowRuleEvent event = new FlowRuleEvent(FlowRuleEvent.Type.RULE_REMOVED, rule);
+        for (FlowRuleListener listener: flowRuleListeners) {
+            listener.event(event);
+        }
+    }
+
+    public static DeviceId deviceId(int device) {
+        return DeviceId.deviceId(String.format("of:%016x", device + 1));
+    }
+
+    public static long host(int i) {
+        return 0x020000000000L + i;
+    }
+
+    /**
+     * Creates the context of an IPv4 packet sent by a host on the port
+     * numbered after it.
+     */
+    public PacketContext packet(int device, int src, long dst) {
+        return packet(device, src, dst, src + 1);
+    }
+
+    /**
+     * Creates the context of an IPv4 packet sent by a host on the given port.
+     */
+    public PacketContext packet(int device, int src, long dst, int port) {
+        DeviceId deviceid = deviceId(device);
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(MacAddress.valueOf(host(src)))
+            .setDestinationMACAddress(MacAddress.valueOf(dst))
+            .setEtherType(Ethernet.TYPE_IPV4);
+        ConnectPoint cp = new ConnectPoint(deviceid, PortNumber.portNumber(port));
+        return new TestPacketContext(new DefaultInboundPacket(cp, eth, ByteBuffer.wrap(new byte[0])),
+                new DefaultOutboundPacket(deviceid, DefaultTrafficTreatment.emptyTreatment(), ByteBuffer.wrap(new byte[0])));
+    }
+
+    private class TestPacketContext extends DefaultPacketContext {
+        TestPacketContext(DefaultInboundPacket in, DefaultOutboundPacket out) {
+            super(System.currentTimeMillis(), in, out, false);
+        }
+
+        @Override
+        public void send() {
+            sent.incrementAndGet();
+            for (Instruction inst: treatmentBuilder().build().allInstructions()) {
+                if (inst instanceof Instructions.OutputInstruction
+                        && ((Instructions.OutputInstruction) inst).port().equals(PortNumber.FLOOD)) {
+                    flooded.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private class MockCoreService extends CoreServiceAdapter {
+        @Override
+        public ApplicationId registerApplication(String name) {
+            appId = new DefaultApplicationId(1, name);
+            return appId;
+        }
+    }
+
+    private class MockMastershipService extends MastershipServiceAdapter {
+        @Override
+        public boolean isLocalMaster(DeviceId deviceId) {
+            return master;
+        }
+    }
+
+    private class MockPacketService extends PacketServiceAdapter {
+        @Override
+        public void addProcessor(PacketProcessor processor, int priority) {
+            TestBridge.this.processor = processor;
+        }
+    }
+
+    private class MockDeviceService extends DeviceServiceAdapter {
+        @Override
+        public void addListener(DeviceListener listener) {
+            deviceListeners.add(listener);
+        }
+
+        @Override
+        public void removeListener(DeviceListener listener) {
+            deviceListeners.remove(listener);
+        }
+    }
+
+    private class MockFlowRuleService extends FlowRuleServiceAdapter {
+        @Override
+        public void addListener(FlowRuleListener listener) {
+            flowRuleListeners.add(listener);
+        }
+
+        @Override
+        public void removeListener(FlowRuleListener listener) {
+            flowRuleListeners.remove(listener);
+        }
+
+        @Override
+        public void applyFlowRules(FlowRule... rules) {
+            applied.addAndGet(rules.length);
+        }
+
+        @Override
+        public void removeFlowRules(FlowRule... rules) {
+            removed.addAndGet(rules.length);
+        }
+    }
+
+    private class MockFlowObjectiveService extends FlowObjectiveServiceAdapter {
+        @Override
+        public void forward(DeviceId deviceId, ForwardingObjective objective) {
+            // Parking may return early, so it is repeated until the whole latency has passed
+            long deadline = System.nanoTime() + forwardLatency;
+            for (long left = forwardLatency; left > 0; left = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(left);
+            }
+            if (objective.op() == Objective.Operation.REMOVE) {
+                withdrawn.incrementAndGet();
+                return;
+            }
+            EthCriterion src = (EthCriterion) objective.selector().getCriterion(Criterion.Type.ETH_SRC);
+            EthCriterion dst = (EthCriterion) objective.selector().getCriterion(Criterion.Type.ETH_DST);
+            List<Long> device_order = order.computeIfAbsent(deviceId, id -> new ArrayList<Long>());
+            synchronized (device_order) {
+                long src_mac = src == null ? 0 : src.mac().toLong();
+                device_order.add((src_mac << 16) | (dst.mac().toLong() & 0xffff));
+            }
+            forwarded.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.bridge;
+
+import org.onosproject.store.service.EventuallyConsistentMap;
+import org.onosproject.store.service.EventuallyConsistentMapAdapter;
+import org.onosproject.store.service.EventuallyConsistentMapBuilder;
+import org.onosproject.store.service.EventuallyConsistentMapBuilderAdapter;
+import org.onosproject.store.service.EventuallyConsistentMapEvent;
+import org.onosproject.store.service.EventuallyConsistentMapListener;
+import org.onosproject.store.service.StorageServiceAdapter;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory stand-in of the storage service. Maps outlive the components
+ * using them, like a persisted or replicated map outlives a restart.
+ */
+public class TestStorageStandIn extends StorageServiceAdapter {
+    private final Map<String, InMemoryMap<?, ?>> maps = new ConcurrentHashMap<String, InMemoryMap<?, ?>>();
+
+    @Override
+    public <K, V> EventuallyConsistentMapBuilder<K, V> eventuallyConsistentMapBuilder() {
+        return new EventuallyConsistentMapBuilderAdapter<K, V>() {
+            private String name;
+
+            @Override
+            public EventuallyConsistentMapBuilder<K, V> withName(String name) {
+                this.name = name;
+                return this;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public EventuallyConsistentMap<K, V> build() {
+                return (EventuallyConsistentMap<K, V>) maps.computeIfAbsent(name, n -> new InMemoryMap<K, V>(n));
+            }
+        };
+    }
+
+    private static class InMemoryMap<K, V> extends EventuallyConsistentMapAdapter<K, V> {
+        private final String name;
+        private final Map<K, V> map = new ConcurrentHashMap<K, V>();
+        private final List<EventuallyConsistentMapListener<K, V>> listeners =
+            new CopyOnWriteArrayList<EventuallyConsistentMapListener<K, V>>();
+
+        InMemoryMap(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        @Override
+        public boolean containsKey(K key) {
+            return map.containsKey(key);
+        }
+
+        @Override
+        public V get(K key) {
+            return map.get(key);
+        }
+
+        @Override
+        public void put(K key, V value) {
+            map.put(key, value);
+            notify(EventuallyConsistentMapEvent.Type.PUT, key, value);
+        }
+
+        @Override
+        public V remove(K key) {
+            V value = map.remove(key);
+            if (value != null) {
+                notify(EventuallyConsistentMapEvent.Type.REMOVE, key, value);
+            }
+            return value;
+        }
+
+        @Override
+        public Set<K> keySet() {
+            return new HashSet<K>(map.keySet());
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new HashSet<Map.Entry<K, V>>(map.entrySet());
+        }
+
+        @Override
+        public void addListener(EventuallyConsistentMapListener<K, V> listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeListener(EventuallyConsistentMapListener<K, V> listener) {
+            listeners.remove(listener);
+        }
+
+        // Destroying drops the map for every instance, so nothing is left to warm a restart with
+        @Override
+        public CompletableFuture<Void> destroy() {
+            map.clear();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        private void notify(EventuallyConsistentMapEvent.Type type, K key, V value) {
+            EventuallyConsistentMapEvent<K, V> event = new EventuallyConsistentMapEvent<K, V>(name, type, key, value);
+            for (EventuallyConsistentMapListener<K, V> listener: listeners) {
+                listener.event(event);
+            }
+        }
+    }
+}
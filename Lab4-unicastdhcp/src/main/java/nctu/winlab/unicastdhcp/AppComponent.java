@@ -15,6 +15,7 @@
  */
 package nctu.winlab.unicastdhcp;
 
+import org.onlab.packet.DHCP;
 import org.onlab.packet.Ethernet;
 import org.onlab.packet.IPv4;
 import org.onlab.packet.Ip4Prefix;
@@ -22,6 +23,7 @@ import org.onlab.packet.MacAddress;
 import org.onlab.packet.TCP;
 import org.onlab.packet.TpPort;
 import org.onlab.packet.UDP;
+import org.onlab.packet.VlanId;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.net.ConnectPoint;
@@ -36,20 +38,31 @@ import org.onosproject.net.config.ConfigFactory;
 import org.onosproject.net.config.NetworkConfigEvent;
 import org.onosproject.net.config.NetworkConfigListener;
 import org.onosproject.net.config.NetworkConfigRegistry;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.edge.EdgePortEvent;
+import org.onosproject.net.edge.EdgePortListener;
+import org.onosproject.net.edge.EdgePortService;
 import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flow.criteria.Criterion;
 import org.onosproject.net.flowobjective.DefaultForwardingObjective;
 import org.onosproject.net.flowobjective.FlowObjectiveService;
 import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.packet.DefaultOutboundPacket;
 import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.OutboundPacket;
 import org.onosproject.net.packet.PacketContext;
 import org.onosproject.net.packet.PacketPriority;
 import org.onosproject.net.packet.PacketProcessor;
 import org.onosproject.net.packet.PacketService;
 import org.onosproject.net.topology.PathService;
+import org.onosproject.net.topology.TopologyEvent;
+import org.onosproject.net.topology.TopologyListener;
 import org.onosproject.net.topology.TopologyService;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
@@ -59,9 +72,24 @@ import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+import static org.onlab.util.Tools.groupedThreads;
 import static org.onosproject.net.config.NetworkConfigEvent.Type.CONFIG_ADDED;
+import static org.onosproject.net.config.NetworkConfigEvent.Type.CONFIG_REMOVED;
 import static org.onosproject.net.config.NetworkConfigEvent.Type.CONFIG_UPDATED;
 import static org.onosproject.net.config.basics.SubjectFactories.APP_SUBJECT_FACTORY;
 
@@ -88,8 +116,82 @@ public class AppComponent {
 
     private TrafficSelector dhcpSelector;
 
+    // Switches client messages are requested from, i.e. those with edge ports
+    private final Set<DeviceId> puntDevices = new HashSet<DeviceId>();
+
     private DhcpPacketProcessor processor = new DhcpPacketProcessor();
 
+    private final PathCacheInvalidator topologyListener = new PathCacheInvalidator();
+
+    private final EdgePortChangeListener edgePortListener = new EdgePortChangeListener();
+
+    private final ServerHealthListener serverHealthListener = new ServerHealthListener();
+
+    private PathCache pathCache;
+
+    private ServerSelector serverSelector;
+
+    // Per-client rules time out after this many seconds
+    private static final int CLIENT_RULE_TIMEOUT = 30;
+
+    // Server and rules of every client relayed in PER_CLIENT mode, so they can
+    // be moved off a failed server before their rules time out
+    private final ConcurrentHashMap<MacAddress, ClientAssignment> clientAssignments =
+        new ConcurrentHashMap<MacAddress, ClientAssignment>();
+
+    // Client state is purged this often, in seconds
+    private static final int PURGE_INTERVAL = 5;
+
+    // Time to wait for the rules of a path before the first packet is sent straight to the server, in milliseconds
+    private static final int INSTALL_TIMEOUT = 500;
+
+    // Times out path installs and purges the client state
+    private ScheduledExecutorService timer;
+
+    private final Map<ObjectiveBatch.Outcome, LongAdder> installOutcomes = newInstallOutcomes();
+
+    // Length of the window client message rates are measured over in CONTROLLER mode, in seconds
+    private static final int RELAY_WINDOW = 10;
+
+    private final ControllerRelay controllerRelay = new ControllerRelay(TimeUnit.SECONDS.toNanos(RELAY_WINDOW));
+
+    // Server switches replies are punted from in CONTROLLER mode
+    private final Set<DeviceId> replyPuntDevices = new HashSet<DeviceId>();
+
+    // Most clients rate limited at once
+    private static final int MAX_LIMITED_CLIENTS = 65536;
+
+    // Limits the client messages handled per client and per ingress port, ahead of any path work
+    private final DhcpRateLimiter rateLimiter = new DhcpRateLimiter(MAX_LIMITED_CLIENTS);
+
+    // Edge ports DHCP server traffic is dropped at, all but the servers' when protection is on
+    private final Set<ConnectPoint> rogueDropPorts = new HashSet<ConnectPoint>();
+    private final LongAdder rogueReplies = new LongAdder();
+
+    // Transactions relayed in PER_CLIENT mode, living as long as their rules
+    private final TransactionTable transactions =
+        new TransactionTable(65536, TimeUnit.SECONDS.toNanos(CLIENT_RULE_TIMEOUT));
+
+    private final Map<DHCP.MsgType, LongAdder> messageCounts = newMessageCounts();
+
+    private final LongAdder discoverCount = new LongAdder();
+    private final LongAdder discoverNanos = new LongAdder();
+
+    // Snapshot of the application config, swapped by the config listener, null when not configured
+    private volatile DhcpConfig dhcpConfig;
+
+    // Tree the aggregated rules are installed along, null when not in AGGREGATED mode
+    private volatile DhcpTree dhcpTree;
+
+    // Ports the clients of the switches without a subnet VLAN were learned at in AGGREGATED mode,
+    // which their replies leave through
+    private final ConcurrentHashMap<MacAddress, ClientLocation> learnedClients =
+        new ConcurrentHashMap<MacAddress, ClientLocation>();
+
+    // Treatments of the aggregated rules installed on every switch, by selector
+    private final Map<DeviceId, Map<TrafficSelector, TrafficTreatment>> aggregatedRules =
+        new HashMap<DeviceId, Map<TrafficSelector, TrafficTreatment>>();
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected NetworkConfigRegistry cfgService;
 
@@ -111,11 +213,29 @@ public class AppComponent {
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected TopologyService topologyService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected EdgePortService edgePortService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected DeviceService deviceService;
+
     @Activate
     protected void activate() {
         this.appId = coreService.registerApplication("nctu.winlab.unicastdhcp");
         cfgService.addListener(cfgListener);
         cfgService.registerConfigFactory(factory);
+        pathCache = new PathCache(pathService);
+        timer = Executors.newSingleThreadScheduledExecutor(groupedThreads("nctu/unicastdhcp", "timer", log));
+        timer.scheduleAtFixedRate(() -> purgeClientState(System.nanoTime()),
+                                  PURGE_INTERVAL, PURGE_INTERVAL, TimeUnit.SECONDS);
+        serverSelector = new ServerSelector(pathCache, deviceService);
+        topologyService.addListener(topologyListener);
+        edgePortService.addListener(edgePortListener);
+        deviceService.addListener(serverHealthListener);
+        NameConfig config = cfgService.getConfig(appId, NameConfig.class);
+        if (config != null) {
+            applyConfig(DhcpConfig.of(config));
+        }
         packetService.addProcessor(this.processor, PacketProcessor.director(2));
         installPacketInRules();
         log.info("Started");
@@ -123,14 +243,113 @@ public class AppComponent {
 
     @Deactivate
     protected void deactivate() {
-        removePacketInRules();
         packetService.removeProcessor(processor);
+        deviceService.removeListener(serverHealthListener);
+        edgePortService.removeListener(edgePortListener);
+        removePacketInRules();
+        topologyService.removeListener(topologyListener);
+        removeAggregatedRules();
+        updateReplyPunts(null);
+        updateRogueDropRules(null);
+        dhcpConfig = null;
+        clientAssignments.clear();
+        rateLimiter.clear();
+        transactions.clear();
+        controllerRelay.clear();
+        timer.shutdownNow();
+        pathCache.invalidate();
         cfgService.removeListener(cfgListener);
         log.info("Stopped");
     }
 
     /**
-     * Request packet in via packet service.
+     * Gets the path cache, including its hit/miss counters.
+     */
+    public PathCache pathCache() {
+        return pathCache;
+    }
+
+    /**
+     * Gets the average time spent starting a new DHCP transaction, in nanoseconds.
+     */
+    public long averageDiscoverNanos() {
+        long count = discoverCount.sum();
+        return count == 0 ? 0 : discoverNanos.sum() / count;
+    }
+
+    /**
+     * Gets the DHCP transactions, including the DHCPDISCOVER to DHCPACK
+     * latency. The latency is only measured for the transactions relayed by
+     * the controller, since the replies carried by rules never reach it.
+     */
+    public TransactionTable transactions() {
+        return transactions;
+    }
+
+    /**
+     * Gets the number of DHCP messages of a type seen by the relay.
+     */
+    public long messageCount(DHCP.MsgType type) {
+        return messageCounts.get(type).sum();
+    }
+
+    /**
+     * Gets the state of the relay by packet-out used in CONTROLLER mode.
+     */
+    public ControllerRelay controllerRelay() {
+        return controllerRelay;
+    }
+
+    /**
+     * Gets the per-client and per-port rate limiter, including its counters.
+     */
+    public DhcpRateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Gets the number of server replies received from edge ports other than
+     * the servers' while rogue server protection is on.
+     */
+    public long rogueReplyCount() {
+        return rogueReplies.sum();
+    }
+
+    /**
+     * Gets the number of edge ports DHCP server traffic is dropped at.
+     */
+    public synchronized int rogueDropRuleCount() {
+        return rogueDropPorts.size();
+    }
+
+    /**
+     * Gets the number of paths whose installation completed with an outcome.
+     * The first packet of a transaction is relayed over the installed path
+     * only for INSTALLED, and sent straight out of the server port otherwise.
+     */
+    public long installCount(ObjectiveBatch.Outcome outcome) {
+        return installOutcomes.get(outcome).sum();
+    }
+
+    private static Map<ObjectiveBatch.Outcome, LongAdder> newInstallOutcomes() {
+        Map<ObjectiveBatch.Outcome, LongAdder> counts =
+            new EnumMap<ObjectiveBatch.Outcome, LongAdder>(ObjectiveBatch.Outcome.class);
+        for (ObjectiveBatch.Outcome outcome: ObjectiveBatch.Outcome.values()) {
+            counts.put(outcome, new LongAdder());
+        }
+        return counts;
+    }
+
+    private static Map<DHCP.MsgType, LongAdder> newMessageCounts() {
+        Map<DHCP.MsgType, LongAdder> counts = new EnumMap<DHCP.MsgType, LongAdder>(DHCP.MsgType.class);
+        for (DHCP.MsgType type: DHCP.MsgType.values()) {
+            counts.put(type, new LongAdder());
+        }
+        return counts;
+    }
+
+    /**
+     * Request packet in via packet service, from the edge switches only.
      */
     private void installPacketInRules() {
         this.dhcpSelector = DefaultTrafficSelector.builder()
@@ -141,26 +360,375 @@ public class AppComponent {
                 .matchUdpSrc(TpPort.tpPort(68))
                 .matchUdpDst(TpPort.tpPort(67))
                 .build();
-        packetService.requestPackets(this.dhcpSelector, PacketPriority.CONTROL, appId);
+        updatePacketInRules();
+    }
+
+    /**
+     * Requests client messages from the switches which have edge ports, and
+     * cancels the requests on switches which have none left. Clients only
+     * reach the network through edge ports, so transit switches never need
+     * to punt their messages.
+     */
+    private synchronized void updatePacketInRules() {
+        if (this.dhcpSelector == null) {
+            return;
+        }
+        Set<DeviceId> wanted = new HashSet<DeviceId>();
+        for (ConnectPoint point: edgePortService.getEdgePoints()) {
+            wanted.add(point.deviceId());
+        }
+
+        Iterator<DeviceId> it = puntDevices.iterator();
+        while (it.hasNext()) {
+            DeviceId deviceid = it.next();
+            if (!wanted.contains(deviceid)) {
+                packetService.cancelPackets(this.dhcpSelector, PacketPriority.CONTROL, appId, Optional.of(deviceid));
+                it.remove();
+            }
+        }
+        for (DeviceId deviceid: wanted) {
+            if (puntDevices.add(deviceid)) {
+                packetService.requestPackets(this.dhcpSelector, PacketPriority.CONTROL, appId, Optional.of(deviceid));
+            }
+        }
     }
 
     /**
      * Cancel request for packet in via packet service.
      */
-    private void removePacketInRules() {
-        packetService.cancelPackets(this.dhcpSelector, PacketPriority.CONTROL, appId);
+    private synchronized void removePacketInRules() {
+        for (DeviceId deviceid: puntDevices) {
+            packetService.cancelPackets(this.dhcpSelector, PacketPriority.CONTROL, appId, Optional.of(deviceid));
+        }
+        puntDevices.clear();
+    }
+
+    private void applyConfig(DhcpConfig config) {
+        log.info("DHCP servers are at {}!", config.servers());
+        dhcpConfig = config;
+        if (config.pathMode() == PathMode.AGGREGATED) {
+            updateAggregatedRules(config);
+        } else {
+            removeAggregatedRules();
+        }
+        updateReplyPunts(config);
+        updateRogueDropRules(config);
+    }
+
+    /**
+     * Drops DHCP server traffic entering at any edge port but the servers'
+     * when rogue server protection is on, and removes the rules otherwise.
+     */
+    private synchronized void updateRogueDropRules(DhcpConfig config) {
+        Set<ConnectPoint> wanted = new HashSet<ConnectPoint>();
+        if (config != null && config.rogueServerProtection()) {
+            for (ConnectPoint point: edgePortService.getEdgePoints()) {
+                if (!config.servers().contains(point)) {
+                    wanted.add(point);
+                }
+            }
+        }
+
+        Iterator<ConnectPoint> it = rogueDropPorts.iterator();
+        while (it.hasNext()) {
+            ConnectPoint point = it.next();
+            if (!wanted.contains(point)) {
+                flowObjectiveService.forward(point.deviceId(), rogueDropObjective(point.port()).remove());
+                it.remove();
+            }
+        }
+        for (ConnectPoint point: wanted) {
+            if (rogueDropPorts.add(point)) {
+                flowObjectiveService.forward(point.deviceId(), rogueDropObjective(point.port()).add());
+            }
+        }
+    }
+
+    private ForwardingObjective.Builder rogueDropObjective(PortNumber port) {
+        return DefaultForwardingObjective.builder()
+            .withSelector(DefaultTrafficSelector.builder(DhcpConfig.S2C_SELECTOR).matchInPort(port).build())
+            .withTreatment(DefaultTrafficTreatment.builder().drop().build())
+            // Above the relay rules, so rogue replies cannot ride on the rules of a client
+            .withPriority(61000)
+            .withFlag(ForwardingObjective.Flag.VERSATILE)
+            .fromApp(appId)
+            .makePermanent();
+    }
+
+    /**
+     * Requests the server replies from the server switches in CONTROLLER
+     * mode, and cancels the requests otherwise.
+     */
+    private synchronized void updateReplyPunts(DhcpConfig config) {
+        Set<DeviceId> wanted = new HashSet<DeviceId>();
+        if (config != null && config.pathMode() == PathMode.CONTROLLER) {
+            for (ConnectPoint server: config.servers()) {
+                wanted.add(server.deviceId());
+            }
+        }
+
+        Iterator<DeviceId> it = replyPuntDevices.iterator();
+        while (it.hasNext()) {
+            DeviceId deviceid = it.next();
+            if (!wanted.contains(deviceid)) {
+                packetService.cancelPackets(DhcpConfig.S2C_SELECTOR, PacketPriority.CONTROL, appId,
+                                            Optional.of(deviceid));
+                it.remove();
+            }
+        }
+        for (DeviceId deviceid: wanted) {
+            if (replyPuntDevices.add(deviceid)) {
+                packetService.requestPackets(DhcpConfig.S2C_SELECTOR, PacketPriority.CONTROL, appId,
+                                             Optional.of(deviceid));
+            }
+        }
+    }
+
+    // Rebuilds the aggregated rules after a change of the network, if they are in use
+    private void refreshAggregatedRules() {
+        DhcpTree tree = dhcpTree;
+        if (tree == null) {
+            return;
+        }
+        DhcpConfig config = dhcpConfig;
+        if (config != null && config.pathMode() == PathMode.AGGREGATED) {
+            updateAggregatedRules(config);
+        }
+    }
+
+    /**
+     * Installs the rules shared by all clients along the trees towards the
+     * healthy servers, or updates them to new trees.
+     */
+    private synchronized void updateAggregatedRules(DhcpConfig config) {
+        List<ConnectPoint> healthy = serverSelector.healthy(config.servers());
+        if (healthy.isEmpty()) {
+            log.warn("None of the DHCP servers {} is up", config.servers());
+        }
+        DhcpTree tree = DhcpTree.build(healthy, edgePortService.getEdgePoints(), config.subnetVlans(),
+                                       serverSelector, pathCache);
+        if (!tree.unreachable().isEmpty()) {
+            log.warn("There is no path to DHCP server from {}", tree.unreachable());
+        }
+
+        Map<DeviceId, Map<TrafficSelector, TrafficTreatment>> wanted =
+            new HashMap<DeviceId, Map<TrafficSelector, TrafficTreatment>>();
+        for (DeviceId deviceid: tree.devices()) {
+            Map<TrafficSelector, TrafficTreatment> rules = new HashMap<TrafficSelector, TrafficTreatment>();
+            wanted.put(deviceid, rules);
+            // Switches without a subnet VLAN copy the requests to the controller to learn their clients,
+            // and punt the replies matching no client's reply rule, e.g. broadcast ones, to be steered by chaddr
+            boolean learns = tree.learnsClients(deviceid);
+            TrafficTreatment.Builder requests = DefaultTrafficTreatment.builder().setOutput(tree.upstream(deviceid));
+            if (learns) {
+                requests.punt();
+            }
+            rules.put(DhcpConfig.C2S_SELECTOR, requests.build());
+
+            Set<PortNumber> ports = tree.downstream(deviceid);
+            if (!ports.isEmpty() || learns) {
+                TrafficTreatment.Builder treatment = DefaultTrafficTreatment.builder();
+                for (PortNumber port: ports) {
+                    treatment.setOutput(port);
+                }
+                if (learns) {
+                    treatment.punt();
+                }
+                rules.put(DhcpConfig.S2C_SELECTOR, treatment.build());
+            }
+
+            // Requests of a subnet are tagged where they enter, and its replies untagged where they leave
+            VlanId vlan = tree.vlan(deviceid);
+            if (vlan != null) {
+                rules.put(DefaultTrafficSelector.builder(DhcpConfig.C2S_SELECTOR).matchVlanId(VlanId.NONE).build(),
+                          DefaultTrafficTreatment.builder().pushVlan().setVlanId(vlan)
+                              .setOutput(tree.upstream(deviceid)).build());
+                TrafficTreatment.Builder treatment = DefaultTrafficTreatment.builder().popVlan();
+                for (PortNumber port: tree.edgePorts(deviceid)) {
+                    treatment.setOutput(port);
+                }
+                rules.put(DefaultTrafficSelector.builder(DhcpConfig.S2C_SELECTOR).matchVlanId(vlan).build(),
+                          treatment.build());
+            }
+            for (Map.Entry<VlanId, PortNumber> entry: tree.steering(deviceid).entrySet()) {
+                rules.put(DefaultTrafficSelector.builder(DhcpConfig.S2C_SELECTOR).matchVlanId(entry.getKey()).build(),
+                          DefaultTrafficTreatment.builder().setOutput(entry.getValue()).build());
+            }
+        }
+
+        int changed = syncAggregatedRules(wanted);
+        dhcpTree = tree;
+        forgetClients(tree);
+        log.info("DHCP tree towards {} spans {} switches, {} aggregated rules changed",
+                healthy, tree.devices().size(), changed);
+    }
+
+    private synchronized void removeAggregatedRules() {
+        syncAggregatedRules(Collections.emptyMap());
+        dhcpTree = null;
+        forgetClients(null);
+    }
+
+    // Learns the port of a client of a switch without a subnet VLAN, and installs the rule of its replies
+    private void learnClient(MacAddress client, ConnectPoint point, long now) {
+        ClientLocation known = learnedClients.get(client);
+        if (known != null && known.point.equals(point) && now - known.expires < 0) {
+            return;
+        }
+        learnedClients.put(client, new ClientLocation(point, now));
+        if (known != null && !known.point.equals(point)) {
+            log.debug("Client {} moved from {} to {}", client, known.point, point);
+            flowObjectiveService.forward(known.point.deviceId(), clientReplyObjective(client, known.point).remove());
+        }
+        flowObjectiveService.forward(point.deviceId(), clientReplyObjective(client, point).add());
+    }
+
+    // Removes the reply rules of the learned clients whose port no longer learns them, all without a tree
+    private void forgetClients(DhcpTree tree) {
+        Iterator<Map.Entry<MacAddress, ClientLocation>> it = learnedClients.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<MacAddress, ClientLocation> entry = it.next();
+            ConnectPoint point = entry.getValue().point;
+            if (tree == null || !tree.learnsClients(point.deviceId())
+                    || !tree.edgePorts(point.deviceId()).contains(point.port())) {
+                flowObjectiveService.forward(point.deviceId(), clientReplyObjective(entry.getKey(), point).remove());
+                it.remove();
+            }
+        }
+    }
+
+    // Above the shared reply rule of the switch, so the replies to the client only leave through its port
+    private ForwardingObjective.Builder clientReplyObjective(MacAddress client, ConnectPoint point) {
+        return DefaultForwardingObjective.builder()
+            .withSelector(DefaultTrafficSelector.builder(DhcpConfig.S2C_SELECTOR).matchEthDst(client).build())
+            .withTreatment(DefaultTrafficTreatment.builder().setOutput(point.port()).build())
+            .withPriority(60002)
+            .withFlag(ForwardingObjective.Flag.VERSATILE)
+            .fromApp(appId)
+            .makeTemporary(CLIENT_RULE_TIMEOUT);
+    }
+
+    // Brings the installed aggregated rules to the wanted treatments
+    private int syncAggregatedRules(Map<DeviceId, Map<TrafficSelector, TrafficTreatment>> wanted) {
+        int changed = 0;
+        for (Map.Entry<DeviceId, Map<TrafficSelector, TrafficTreatment>> device: aggregatedRules.entrySet()) {
+            Map<TrafficSelector, TrafficTreatment> keep = wanted.getOrDefault(device.getKey(), Collections.emptyMap());
+            Iterator<Map.Entry<TrafficSelector, TrafficTreatment>> it = device.getValue().entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<TrafficSelector, TrafficTreatment> entry = it.next();
+                if (!keep.containsKey(entry.getKey())) {
+                    flowObjectiveService.forward(device.getKey(),
+                            aggregatedObjective(entry.getKey(), entry.getValue()).remove());
+                    it.remove();
+                    changed++;
+                }
+            }
+        }
+        aggregatedRules.values().removeIf(Map::isEmpty);
+
+        for (Map.Entry<DeviceId, Map<TrafficSelector, TrafficTreatment>> device: wanted.entrySet()) {
+            Map<TrafficSelector, TrafficTreatment> installed = aggregatedRules.computeIfAbsent(device.getKey(),
+                    id -> new HashMap<TrafficSelector, TrafficTreatment>());
+            for (Map.Entry<TrafficSelector, TrafficTreatment> entry: device.getValue().entrySet()) {
+                if (!entry.getValue().equals(installed.get(entry.getKey()))) {
+                    // Same selector and priority, so this replaces the previous rule
+                    flowObjectiveService.forward(device.getKey(),
+                            aggregatedObjective(entry.getKey(), entry.getValue()).add());
+                    installed.put(entry.getKey(), entry.getValue());
+                    changed++;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private ForwardingObjective.Builder aggregatedObjective(TrafficSelector selector, TrafficTreatment treatment) {
+        return DefaultForwardingObjective.builder()
+            .withSelector(selector)
+            .withTreatment(treatment)
+            // Rules of a subnet VLAN take precedence over those of any traffic
+            .withPriority(selector.getCriterion(Criterion.Type.VLAN_VID) == null ? 60000 : 60001)
+            .withFlag(ForwardingObjective.Flag.VERSATILE)
+            .fromApp(appId)
+            .makePermanent();
     }
 
     private class NameConfigListener implements NetworkConfigListener {
         @Override
         public void event(NetworkConfigEvent event) {
+            if (!event.configClass().equals(NameConfig.class)) {
+                return;
+            }
             if (event.type() == CONFIG_ADDED || event.type() == CONFIG_UPDATED) {
-                if (event.configClass().equals(NameConfig.class)) {
-                    NameConfig config = cfgService.getConfig(appId, NameConfig.class);
-                    if (config != null) {
-                        log.info("DHCP server is at {}!", config.serverLocation());
-                    }
+                NameConfig config = cfgService.getConfig(appId, NameConfig.class);
+                if (config != null) {
+                    applyConfig(DhcpConfig.of(config));
                 }
+            } else if (event.type() == CONFIG_REMOVED) {
+                dhcpConfig = null;
+                removeAggregatedRules();
+                updateReplyPunts(null);
+                updateRogueDropRules(null);
+            }
+        }
+    }
+
+    private class PathCacheInvalidator implements TopologyListener {
+        @Override
+        public void event(TopologyEvent event) {
+            log.debug("Topology changed, invalidate {} cached paths", pathCache.size());
+            pathCache.invalidate();
+            refreshAggregatedRules();
+        }
+    }
+
+    // Clients attach to and replies leave through edge ports, so the packet
+    // requests, the rogue server drop rules and the tree follow edge port changes
+    private class EdgePortChangeListener implements EdgePortListener {
+        @Override
+        public void event(EdgePortEvent event) {
+            updatePacketInRules();
+            updateRogueDropRules(dhcpConfig);
+            refreshAggregatedRules();
+        }
+    }
+
+    // Moves clients off servers whose attachment port or switch goes down
+    private class ServerHealthListener implements DeviceListener {
+        @Override
+        public void event(DeviceEvent event) {
+            switch (event.type()) {
+                case PORT_ADDED:
+                case PORT_UPDATED:
+                case PORT_REMOVED:
+                case DEVICE_AVAILABILITY_CHANGED:
+                case DEVICE_REMOVED:
+                    break;
+                default:
+                    return;
+            }
+            DhcpConfig config = dhcpConfig;
+            if (config == null) {
+                return;
+            }
+
+            DeviceId deviceid = event.subject().id();
+            boolean affected = false;
+            for (ConnectPoint server: config.servers()) {
+                if (!server.deviceId().equals(deviceid)
+                        || (event.port() != null && !event.port().number().equals(server.port()))) {
+                    continue;
+                }
+                affected = true;
+                if (!serverSelector.isHealthy(server)) {
+                    log.warn("DHCP server at {} is down", server);
+                    releaseClients(server);
+                } else {
+                    log.info("DHCP server at {} is up", server);
+                }
+            }
+            if (affected) {
+                refreshAggregatedRules();
             }
         }
     }
@@ -173,7 +741,12 @@ public class AppComponent {
                 return;
             }
 
+            // Other apps' packets reach this processor too, so reject them
+            // from the raw frame before touching the parsed packet
             InboundPacket in_pkt = context.inPacket();
+            if (!DhcpPrefilter.isDhcp(in_pkt.unparsed())) {
+                return;
+            }
             Ethernet eth_pkt = in_pkt.parsed();
             if (eth_pkt == null) {
                 return;
@@ -190,11 +763,6 @@ public class AppComponent {
                 return;
             }
 
-            // Check if broadcast address
-            if (!dst_mac.isBroadcast()) {
-                return;
-            }
-
             IPv4 ipv4_pkt = (IPv4)eth_pkt.getPayload();
             byte ipv4_proto = ipv4_pkt.getProtocol();
             if (!(ipv4_proto == IPv4.PROTOCOL_UDP)) {
@@ -202,6 +770,23 @@ public class AppComponent {
             }
 
             UDP udp_pkt = (UDP)ipv4_pkt.getPayload();
+            if (!(udp_pkt.getPayload() instanceof DHCP)) {
+                return;
+            }
+            DHCP dhcp_pkt = (DHCP)udp_pkt.getPayload();
+
+            // Server replies only reach the controller in CONTROLLER mode,
+            // or from rogue servers before their drop rules are in place
+            if (udp_pkt.getSourcePort() == 67 && udp_pkt.getDestinationPort() == 68) {
+                handleReply(context, dhcp_pkt);
+                return;
+            }
+
+            // Check if broadcast address
+            if (!dst_mac.isBroadcast()) {
+                return;
+            }
+
             if (!(ipv4_pkt.getSourceAddress() == 0x00000000
                     && ipv4_pkt.getDestinationAddress() == 0xFFFFFFFF
                     && udp_pkt.getSourcePort() == 68
@@ -209,38 +794,102 @@ public class AppComponent {
                 return;
             }
 
-            // Consider this as a DHCPDISCOVER message
+            DHCP.MsgType msg_type = dhcp_pkt.getPacketType();
+            MacAddress client = clientMac(dhcp_pkt);
+            if (msg_type == null || client == null) {
+                return;
+            }
+            messageCounts.get(msg_type).increment();
+            long start = System.nanoTime();
 
             // Load DHCP server configuration
-            NameConfig config = cfgService.getConfig(appId, NameConfig.class);
+            DhcpConfig config = dhcpConfig;
             if (config == null) {
-                log.warn("DHCPDISCOVER message received, but cannot find DHCP server config!");
+                log.warn("{} message received, but cannot find DHCP server config!", msg_type);
+                return;
+            }
+
+            if (!rateLimiter.allow(client, in_pkt.receivedFrom(), config.clientRateLimit(),
+                                   config.portRateLimit(), start)) {
+                log.debug("{} from {} on {} dropped by the rate limit", msg_type, client, in_pkt.receivedFrom());
+                context.block();
+                return;
+            }
+
+            if (config.pathMode() == PathMode.AGGREGATED) {
+                // Normally carried by the aggregated rules, unless they are not installed yet
+                DhcpTree tree = dhcpTree;
+                PortNumber upstream = tree == null ? null : tree.upstream(deviceid);
+                if (upstream == null) {
+                    log.warn("{} received from {}, which is not in the DHCP tree", msg_type, in_pkt.receivedFrom());
+                    return;
+                }
+                if (tree.learnsClients(deviceid)) {
+                    // A copy, the shared rule sent the message upstream already. Messages punted before
+                    // the rules land are lost too, and retransmitted by the clients.
+                    if (tree.edgePorts(deviceid).contains(in_port)) {
+                        learnClient(client, in_pkt.receivedFrom(), start);
+                    }
+                    context.block();
+                    return;
+                }
+                VlanId vlan = tree.vlan(deviceid);
+                if (vlan != null && tree.edgePorts(deviceid).contains(in_port)) {
+                    context.treatmentBuilder().pushVlan().setVlanId(vlan);
+                }
+                context.treatmentBuilder().setOutput(upstream);
+                context.send();
+                return;
+            }
+
+            // Relayed by packet-out, until the client sends too much to be worth it
+            if (config.pathMode() == PathMode.CONTROLLER
+                    && !controllerRelay.record(client, in_pkt.receivedFrom(), config.flowThreshold(), start)) {
+                relayToServer(context, client, dhcp_pkt, msg_type, config, start);
+                return;
+            }
+
+            // Messages of an ongoing transaction follow its route, without installing the path again
+            TransactionTable.Transaction transaction = transactions.get(client, dhcp_pkt.getTransactionId(), start);
+            if (transaction != null && config.pathMode() == PathMode.PER_CLIENT
+                    && controllerRelay.location(client) != null) {
+                // Its path could not be installed, so it goes on through the controller
+                relayToServer(context, client, dhcp_pkt, msg_type, config, start);
+                return;
+            }
+            if (transaction != null) {
+                PortNumber out_port = transaction.route(deviceid);
+                if (out_port != null) {
+                    log.debug("{} of ongoing transaction {} from {}", msg_type,
+                            Integer.toHexString(dhcp_pkt.getTransactionId()), in_pkt.receivedFrom());
+                    context.treatmentBuilder().setOutput(out_port);
+                    context.send();
+                    return;
+                }
+            }
+
+            ConnectPoint dhcpServerLoc = serverSelector.select(deviceid, client, config.servers());
+            if (dhcpServerLoc == null) {
+                log.warn("None of the DHCP servers {} is up and reachable from {}",
+                        config.servers(), in_pkt.receivedFrom());
                 return;
             }
-            ConnectPoint dhcpServerLoc = config.serverLocation();
             ElementId dhcpServer = dhcpServerLoc.elementId();
 
-            // Build the selector and install flow rules
-            TrafficSelector c2s_selector = DefaultTrafficSelector.builder()
-                .matchEthSrc(eth_pkt.getSourceMAC())
-                .matchEthType(Ethernet.TYPE_IPV4)
-                .matchIPProtocol(IPv4.PROTOCOL_UDP)
-                .matchUdpSrc(TpPort.tpPort(68))
-                .matchUdpDst(TpPort.tpPort(67))
-                .build();
+            ObjectiveBatch batch = new ObjectiveBatch();
+            Map<DeviceId, PortNumber> route = new HashMap<DeviceId, PortNumber>();
+            route.put(dhcpServerLoc.deviceId(), dhcpServerLoc.port());
 
-            TrafficSelector s2c_selector = DefaultTrafficSelector.builder()
-                .matchEthDst(eth_pkt.getSourceMAC())
-                .matchEthType(Ethernet.TYPE_IPV4)
-                .matchIPProtocol(IPv4.PROTOCOL_UDP)
-                .matchUdpSrc(TpPort.tpPort(67))
-                .matchUdpDst(TpPort.tpPort(68))
-                .build();
+            // Build the selector and install flow rules
+            // Requests are matched on the frame they come in, replies are addressed to the client hardware address
+            TrafficSelector c2s_selector = config.c2sSelector(src_mac);
+            TrafficSelector s2c_selector = config.s2cSelector(client);
 
             // Calculate the path forward and back
             if (!dhcpServer.equals(in_pkt.receivedFrom().elementId())) {
-                log.info("Creating path between: {} <-> {}", dhcpServer, in_pkt.receivedFrom().elementId());
-                Set<Path> paths_c2s = pathService.getPaths(in_pkt.receivedFrom().elementId(), dhcpServer);
+                log.debug("Creating path between: {} <-> {}", dhcpServer, in_pkt.receivedFrom().elementId());
+                PathCache.Paths paths = pathCache.get(deviceid, dhcpServerLoc);
+                Set<Path> paths_c2s = paths.toServer();
                 if (paths_c2s.isEmpty()) {
                     log.warn("There is no path to DHCP server from {}", in_pkt.receivedFrom());
                     return;
@@ -251,32 +900,143 @@ public class AppComponent {
                     return;
                 }
 
-                Set<Path> paths_s2c = pathService.getPaths(dhcpServer, in_pkt.receivedFrom().elementId());
+                Set<Path> paths_s2c = paths.toClient();
                 if (paths_s2c.isEmpty()) {
                     log.warn("There is no path back to {} from DHCP server", in_pkt.receivedFrom());
                     return;
                 }
                 Path path_s2c = selectPath(paths_s2c, null);
 
-                log.info("Install client to server path");
-                installPathRules(c2s_selector, path_c2s);
-                log.info("Install server to client path");
-                installPathRules(s2c_selector, path_s2c);
+                log.debug("Install client to server path");
+                installPathRules(c2s_selector, path_c2s, batch);
+                for (Link link: path_c2s.links()) {
+                    route.put(link.src().deviceId(), link.src().port());
+                }
+                log.debug("Install server to client path");
+                installPathRules(s2c_selector, path_s2c, batch);
+            }
+
+            log.debug("Install to server edge path");
+            installEdgeLink(c2s_selector, DefaultEdgeLink.createEdgeLink(dhcpServerLoc, false),
+                            config.serverTreatment(dhcpServerLoc), batch);
+            log.debug("Install to client edge path");
+            installEdgeLink(s2c_selector, DefaultEdgeLink.createEdgeLink(in_pkt.receivedFrom(), false),
+                            DefaultTrafficTreatment.builder().setOutput(in_port).build(), batch);
+            transactions.start(client, dhcp_pkt.getTransactionId(), dhcpServerLoc, route,
+                               msg_type == DHCP.MsgType.DHCPDISCOVER, start);
+
+            // Hold the packet until the whole path is programmed, so it is not
+            // dropped by a switch its rule has not reached yet
+            context.block();
+            OutboundPacket out_pkt = new DefaultOutboundPacket(deviceid,
+                    DefaultTrafficTreatment.builder().setOutput(route.get(deviceid)).build(), in_pkt.unparsed());
+            OutboundPacket server_pkt = new DefaultOutboundPacket(dhcpServerLoc.deviceId(),
+                    config.serverTreatment(dhcpServerLoc), in_pkt.unparsed());
+            batch.submit(flowObjectiveService, timer, INSTALL_TIMEOUT, outcome -> {
+                installOutcomes.get(outcome).increment();
+                if (outcome != ObjectiveBatch.Outcome.INSTALLED) {
+                    // Transit switches do not punt client messages, so relay the transaction through the
+                    // controller both ways, with the replies to the client punted at the server switch
+                    log.warn("Path from {} to DHCP server {} not installed ({}), relaying to the server directly",
+                            in_pkt.receivedFrom(), dhcpServerLoc, outcome);
+                    controllerRelay.record(client, in_pkt.receivedFrom(), 0, System.nanoTime());
+                    flowObjectiveService.forward(dhcpServerLoc.deviceId(), replyPuntObjective(s2c_selector).add());
+                    packetService.emit(server_pkt);
+                    return;
+                }
+                packetService.emit(out_pkt);
+            });
+            clientAssignments.put(client, new ClientAssignment(dhcpServerLoc, batch));
+
+            long elapsed = System.nanoTime() - start;
+            discoverCount.increment();
+            discoverNanos.add(elapsed);
+            if (log.isDebugEnabled()) {
+                log.debug("{} from {} handled in {} us, path cache hit rate: {}%", msg_type, in_pkt.receivedFrom(),
+                        TimeUnit.NANOSECONDS.toMicros(elapsed), String.format("%.1f", pathCache.hitRate()));
+            }
+        }
+
+        private void handleReply(PacketContext context, DHCP dhcp_pkt) {
+            DhcpConfig config = dhcpConfig;
+            InboundPacket in_pkt = context.inPacket();
+            if (config != null && config.rogueServerProtection()
+                    && !config.servers().contains(in_pkt.receivedFrom())
+                    && edgePortService.isEdgePoint(in_pkt.receivedFrom())) {
+                // Sent by a host which is not a configured server, before its drop rule took effect
+                log.warn("DHCP reply from rogue server at {} dropped", in_pkt.receivedFrom());
+                rogueReplies.increment();
+                context.block();
+                return;
+            }
+
+            DHCP.MsgType msg_type = dhcp_pkt.getPacketType();
+            MacAddress client = clientMac(dhcp_pkt);
+            if (msg_type == null || client == null) {
+                return;
+            }
+            messageCounts.get(msg_type).increment();
+
+            if (msg_type == DHCP.MsgType.DHCPACK) {
+                long latency = transactions.acknowledge(client, dhcp_pkt.getTransactionId(), System.nanoTime());
+                if (latency >= 0) {
+                    log.debug("DHCPACK for {} after {} us", client, TimeUnit.NANOSECONDS.toMicros(latency));
+                }
+            }
+
+            // Punted by a switch without a subnet VLAN, as it matched no reply rule of a client there
+            DhcpTree tree = dhcpTree;
+            ClientLocation learned = learnedClients.get(client);
+            if (tree != null && learned != null && learned.point.deviceId().equals(in_pkt.receivedFrom().deviceId())
+                    && !tree.edgePorts(learned.point.deviceId()).contains(in_pkt.receivedFrom().port())) {
+                packetService.emit(new DefaultOutboundPacket(learned.point.deviceId(),
+                        DefaultTrafficTreatment.builder().setOutput(learned.point.port()).build(), in_pkt.unparsed()));
+                context.block();
+                return;
+            }
+
+            // Relayed in CONTROLLER mode, and otherwise for the transactions whose path could not be installed
+            ConnectPoint location = controllerRelay.location(client);
+            if (config == null || !config.servers().contains(in_pkt.receivedFrom()) || location == null) {
+                // Not relayed by us, e.g. a reply to a unicast renewal or punted by another app, so left to others
+                log.debug("{} for unknown client {}", msg_type, client);
+                return;
+            }
+            packetService.emit(new DefaultOutboundPacket(location.deviceId(),
+                    DefaultTrafficTreatment.builder().setOutput(location.port()).build(), in_pkt.unparsed()));
+            controllerRelay.replied();
+            context.block();
+        }
 
-                // Packet out
-                context.treatmentBuilder().setOutput(path_c2s.src().port());
-            } else {
-                // DHCP Server and Client are on the same edge switch
-                context.treatmentBuilder().setOutput(dhcpServerLoc.port());
+        // Sends a client message straight out of the server port
+        private void relayToServer(PacketContext context, MacAddress client, DHCP dhcp_pkt, DHCP.MsgType msg_type,
+                                   DhcpConfig config, long now) {
+            InboundPacket in_pkt = context.inPacket();
+            ConnectPoint server = serverSelector.select(in_pkt.receivedFrom().deviceId(), client, config.servers());
+            if (server == null) {
+                log.warn("None of the DHCP servers {} is up and reachable from {}",
+                        config.servers(), in_pkt.receivedFrom());
+                return;
             }
 
-            log.info("Install to server edge path");
-            installEdgeLink(c2s_selector, DefaultEdgeLink.createEdgeLink(dhcpServerLoc, false));
-            log.info("Install to client edge path");
-            installEdgeLink(s2c_selector, DefaultEdgeLink.createEdgeLink(in_pkt.receivedFrom(), false));
+            int xid = dhcp_pkt.getTransactionId();
+            if (transactions.get(client, xid, now) == null) {
+                transactions.start(client, xid, server, Collections.emptyMap(),
+                                   msg_type == DHCP.MsgType.DHCPDISCOVER, now);
+            }
+            context.block();
+            packetService.emit(new DefaultOutboundPacket(server.deviceId(), config.serverTreatment(server),
+                                                         in_pkt.unparsed()));
+        }
+    }
 
-            context.send();
+    // Gets the client hardware address of a DHCP message, or null if it is not an Ethernet address
+    private static MacAddress clientMac(DHCP dhcp_pkt) {
+        byte[] chaddr = dhcp_pkt.getClientHardwareAddress();
+        if (chaddr == null || chaddr.length != MacAddress.MAC_ADDRESS_LENGTH) {
+            return null;
         }
+        return MacAddress.valueOf(chaddr);
     }
 
     // Selects a path that does not lead back to the specified port.
@@ -289,44 +1049,114 @@ public class AppComponent {
         return null;
     }
 
-    private void installPathRules(TrafficSelector selector, Path path) {
+    private void installPathRules(TrafficSelector selector, Path path, ObjectiveBatch batch) {
         for (Link link: path.links()) {
-            log.info("Install path rule: {} -> {}", link.src(), link.dst());
+            log.debug("Install path rule: {} -> {}", link.src(), link.dst());
 
             TrafficTreatment treatment = DefaultTrafficTreatment.builder()
                     .setOutput(link.src().port())
                     .build();
 
-            ForwardingObjective forwardingObjective = DefaultForwardingObjective.builder()
-                .withSelector(selector)
-                .withTreatment(treatment)
-                .withPriority(60000)
-                .withFlag(ForwardingObjective.Flag.VERSATILE)
-                .fromApp(appId)
-                .makeTemporary(30)
-                .add();
-
-            flowObjectiveService.forward(link.src().deviceId(), forwardingObjective);
+            batch.add(link.src().deviceId(), clientObjective(selector, treatment));
         }
     }
 
-    private void installEdgeLink(TrafficSelector selector, EdgeLink link) {
-        log.info("Install edge link: {} -> DEST", link.src());
+    private void installEdgeLink(TrafficSelector selector, EdgeLink link, TrafficTreatment treatment,
+                                 ObjectiveBatch batch) {
+        log.debug("Install edge link: {} -> DEST", link.src());
 
-        TrafficTreatment treatment = DefaultTrafficTreatment.builder()
-                .setOutput(link.src().port())
-                .build();
+        batch.add(link.src().deviceId(), clientObjective(selector, treatment));
+    }
 
-        ForwardingObjective forwardingObjective = DefaultForwardingObjective.builder()
+    private ForwardingObjective.Builder clientObjective(TrafficSelector selector, TrafficTreatment treatment) {
+        return DefaultForwardingObjective.builder()
             .withSelector(selector)
             .withTreatment(treatment)
             .withPriority(60000)
             .withFlag(ForwardingObjective.Flag.VERSATILE)
             .fromApp(appId)
-            .makeTemporary(30)
-            .add();
+            .makeTemporary(CLIENT_RULE_TIMEOUT);
+    }
+
+    // Above the rules of the client, so its replies reach the controller even where those are installed
+    private ForwardingObjective.Builder replyPuntObjective(TrafficSelector selector) {
+        return DefaultForwardingObjective.builder()
+            .withSelector(selector)
+            .withTreatment(DefaultTrafficTreatment.builder().punt().build())
+            .withPriority(60100)
+            .withFlag(ForwardingObjective.Flag.VERSATILE)
+            .fromApp(appId)
+            .makeTemporary(CLIENT_RULE_TIMEOUT);
+    }
+
+    /**
+     * Removes the rules of all clients relayed to a server, so their next
+     * DHCPDISCOVER reaches the controller and picks another server.
+     */
+    private void releaseClients(ConnectPoint server) {
+        int released = 0;
+        Iterator<ClientAssignment> it = clientAssignments.values().iterator();
+        while (it.hasNext()) {
+            ClientAssignment assignment = it.next();
+            if (!assignment.server.equals(server)) {
+                continue;
+            }
+            it.remove();
+            List<DeviceId> devices = assignment.rules.devices();
+            List<ForwardingObjective> objectives = assignment.rules.objectives();
+            for (int i = 0; i < objectives.size(); i++) {
+                ForwardingObjective objective = objectives.get(i);
+                flowObjectiveService.forward(devices.get(i),
+                        clientObjective(objective.selector(), objective.treatment()).remove());
+            }
+            released++;
+        }
+        transactions.removeServer(server);
+        log.info("Released {} clients of DHCP server at {}", released, server);
+    }
 
-        flowObjectiveService.forward(link.src().deviceId(), forwardingObjective);
+    // Forgets clients whose rules have timed out already or which went idle
+    private void purgeClientState(long now) {
+        clientAssignments.values().removeIf(assignment -> now - assignment.expires >= 0);
+        learnedClients.values().removeIf(location -> now - location.expires >= 0);
+        transactions.purgeExpired(now);
+        controllerRelay.purgeIdle(now);
+        rateLimiter.purgeIdle(now);
+    }
+
+    private static final class ClientAssignment {
+        private final ConnectPoint server;
+        private final ObjectiveBatch rules;
+        private final long expires = System.nanoTime() + TimeUnit.SECONDS.toNanos(CLIENT_RULE_TIMEOUT);
+
+        private ClientAssignment(ConnectPoint server, ObjectiveBatch rules) {
+            this.server = server;
+            this.rules = rules;
+        }
+    }
+
+    private static final class ClientLocation {
+        private final ConnectPoint point;
+        // Its reply rule times out after this if unused, a later message learns it again
+        private final long expires;
+
+        private ClientLocation(ConnectPoint point, long now) {
+            this.point = point;
+            this.expires = now + TimeUnit.SECONDS.toNanos(CLIENT_RULE_TIMEOUT);
+        }
+    }
+
+    /**
+     * Gets the number of clients currently relayed to a server in PER_CLIENT mode.
+     */
+    public int clientCount(ConnectPoint server) {
+        int count = 0;
+        for (ClientAssignment assignment: clientAssignments.values()) {
+            if (assignment.server.equals(server)) {
+                count++;
+            }
+        }
+        return count;
     }
 }
 
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client state of the relay by packet-out: where every client is attached,
+ * so replies can be sent back to it, and how many messages it sent in the
+ * current window, so busy clients can be moved onto rules.
+ */
+public class ControllerRelay {
+    private final ConcurrentHashMap<MacAddress, Client> clients = new ConcurrentHashMap<MacAddress, Client>();
+
+    private final long window;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder replies = new LongAdder();
+    private final LongAdder promotions = new LongAdder();
+
+    /**
+     * Creates a relay.
+     *
+     * @param window length of a rate window in nanoseconds
+     */
+    public ControllerRelay(long window) {
+        this.window = window;
+    }
+
+    /**
+     * Records a message from a client.
+     *
+     * @param client MAC address of the client
+     * @param location where the client is attached
+     * @param threshold messages per window above which the client should get rules, 0 for never
+     * @param now current time in nanoseconds
+     * @return true if the client should get rules instead of being relayed
+     */
+    public boolean record(MacAddress client, ConnectPoint location, int threshold, long now) {
+        Client state = this.clients.computeIfAbsent(client, mac -> new Client(now));
+        int count;
+        synchronized (state) {
+            state.location = location;
+            state.lastSeen = now;
+            if (now - state.windowStart >= this.window) {
+                state.windowStart = now;
+                state.count = 0;
+            }
+            count = ++state.count;
+        }
+        if (threshold > 0 && count > threshold) {
+            this.promotions.increment();
+            return true;
+        }
+        this.requests.increment();
+        return false;
+    }
+
+    /**
+     * Gets where a client was last seen, or null if it is unknown.
+     */
+    public ConnectPoint location(MacAddress client) {
+        Client state = this.clients.get(client);
+        if (state == null) {
+            return null;
+        }
+        synchronized (state) {
+            return state.location;
+        }
+    }
+
+    /**
+     * Counts a reply relayed back to a client.
+     */
+    public void replied() {
+        this.replies.increment();
+    }
+
+    /**
+     * Forgets the clients which sent nothing for a whole window.
+     *
+     * @return number of clients removed
+     */
+    public int purgeIdle(long now) {
+        int before = this.clients.size();
+        this.clients.values().removeIf(state -> {
+            synchronized (state) {
+                return now - state.lastSeen >= this.window;
+            }
+        });
+        return Math.max(0, before - this.clients.size());
+    }
+
+    public void clear() {
+        this.clients.clear();
+    }
+
+    public int size() {
+        return this.clients.size();
+    }
+
+    /**
+     * Gets the number of client messages relayed to a server.
+     */
+    public long requests() {
+        return this.requests.sum();
+    }
+
+    /**
+     * Gets the number of server replies relayed to a client.
+     */
+    public long replies() {
+        return this.replies.sum();
+    }
+
+    /**
+     * Gets the number of client messages handed over to rules.
+     */
+    public long promotions() {
+        return this.promotions.sum();
+    }
+
+    private static final class Client {
+        private ConnectPoint location;
+        private long windowStart;
+        private long lastSeen;
+        private int count;
+
+        private Client(long now) {
+            this.windowStart = now;
+            this.lastSeen = now;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.TpPort;
+import org.onlab.packet.VlanId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.TrafficTreatment;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, pre-parsed snapshot of the application config, so packet
+ * processing never touches the JSON backed {@link NameConfig}.
+ */
+public final class DhcpConfig {
+    /**
+     * Matches DHCP traffic from any client to the servers.
+     */
+    public static final TrafficSelector C2S_SELECTOR = DefaultTrafficSelector.builder()
+        .matchEthType(Ethernet.TYPE_IPV4)
+        .matchIPProtocol(IPv4.PROTOCOL_UDP)
+        .matchUdpSrc(TpPort.tpPort(68))
+        .matchUdpDst(TpPort.tpPort(67))
+        .build();
+
+    /**
+     * Matches DHCP traffic from the servers to any client.
+     */
+    public static final TrafficSelector S2C_SELECTOR = DefaultTrafficSelector.builder()
+        .matchEthType(Ethernet.TYPE_IPV4)
+        .matchIPProtocol(IPv4.PROTOCOL_UDP)
+        .matchUdpSrc(TpPort.tpPort(67))
+        .matchUdpDst(TpPort.tpPort(68))
+        .build();
+
+    private final List<ConnectPoint> servers;
+    private final PathMode pathMode;
+    private final int flowThreshold;
+    private final int clientRateLimit;
+    private final int portRateLimit;
+    private final boolean rogueServerProtection;
+    private final Map<DeviceId, VlanId> subnetVlans;
+    private final Map<ConnectPoint, TrafficTreatment> serverTreatments;
+
+    private DhcpConfig(List<ConnectPoint> servers, PathMode pathMode, int flowThreshold,
+                       int clientRateLimit, int portRateLimit, boolean rogueServerProtection,
+                       Map<DeviceId, VlanId> subnetVlans) {
+        this.servers = Collections.unmodifiableList(servers);
+        this.pathMode = pathMode;
+        this.flowThreshold = flowThreshold;
+        this.clientRateLimit = clientRateLimit;
+        this.portRateLimit = portRateLimit;
+        this.rogueServerProtection = rogueServerProtection;
+        this.subnetVlans = Collections.unmodifiableMap(subnetVlans);
+
+        Map<ConnectPoint, TrafficTreatment> treatments = new HashMap<ConnectPoint, TrafficTreatment>();
+        for (ConnectPoint server: servers) {
+            treatments.put(server, DefaultTrafficTreatment.builder().setOutput(server.port()).build());
+        }
+        this.serverTreatments = Collections.unmodifiableMap(treatments);
+    }
+
+    /**
+     * Parses an application config.
+     */
+    public static DhcpConfig of(NameConfig config) {
+        return new DhcpConfig(config.serverLocations(), config.pathMode(), config.flowThreshold(),
+                              config.clientRateLimit(), config.portRateLimit(), config.rogueServerProtection(),
+                              config.subnetVlans());
+    }
+
+    public List<ConnectPoint> servers() {
+        return this.servers;
+    }
+
+    public PathMode pathMode() {
+        return this.pathMode;
+    }
+
+    /**
+     * Gets the number of messages per relay window after which a client
+     * relayed by the controller gets rules, 0 if it never does.
+     */
+    public int flowThreshold() {
+        return this.flowThreshold;
+    }
+
+    /**
+     * Gets the messages per second handled from a single client, 0 for no limit.
+     */
+    public int clientRateLimit() {
+        return this.clientRateLimit;
+    }
+
+    /**
+     * Gets the messages per second handled from a single ingress port, 0 for no limit.
+     */
+    public int portRateLimit() {
+        return this.portRateLimit;
+    }
+
+    /**
+     * Gets whether DHCP server traffic is dropped at the edge ports of non-servers.
+     */
+    public boolean rogueServerProtection() {
+        return this.rogueServerProtection;
+    }
+
+    /**
+     * Gets the VLAN of the subnet behind every edge switch which has one.
+     */
+    public Map<DeviceId, VlanId> subnetVlans() {
+        return this.subnetVlans;
+    }
+
+    /**
+     * Gets the treatment delivering packets to a server from its switch.
+     */
+    public TrafficTreatment serverTreatment(ConnectPoint server) {
+        TrafficTreatment treatment = this.serverTreatments.get(server);
+        return treatment != null ? treatment : DefaultTrafficTreatment.builder().setOutput(server.port()).build();
+    }
+
+    /**
+     * Gets the selector of the DHCP traffic from a single client to the servers.
+     */
+    public TrafficSelector c2sSelector(MacAddress client) {
+        return DefaultTrafficSelector.builder(C2S_SELECTOR).matchEthSrc(client).build();
+    }
+
+    /**
+     * Gets the selector of the DHCP traffic from the servers to a single client.
+     */
+    public TrafficSelector s2cSelector(MacAddress client) {
+        return DefaultTrafficSelector.builder(S2C_SELECTOR).matchEthDst(client).build();
+    }
+}
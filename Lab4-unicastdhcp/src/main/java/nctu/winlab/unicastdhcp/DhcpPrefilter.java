@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tells DHCP packets apart from other traffic by peeking at a few bytes of
+ * the raw frame, so the packet processor can skip everything else without
+ * walking the parsed packet.
+ *
+ * Accepts IPv4 UDP packets from port 68 to 67 or from 67 to 68, optionally
+ * behind a single VLAN tag. IP fragments other than the first cannot carry
+ * the UDP header and are rejected.
+ */
+public final class DhcpPrefilter {
+    private static final int ETH_HEADER_LENGTH = 14;
+    private static final int VLAN_TAG_LENGTH = 4;
+    private static final int IPV4_MIN_HEADER_LENGTH = 20;
+    private static final int UDP_PORTS_LENGTH = 4;
+
+    private static final int DHCP_SERVER_PORT = 67;
+    private static final int DHCP_CLIENT_PORT = 68;
+
+    private DhcpPrefilter() {
+    }
+
+    /**
+     * Checks whether a raw Ethernet frame may be a DHCP message. The buffer
+     * is read from its position without moving it.
+     */
+    public static boolean isDhcp(ByteBuffer frame) {
+        if (frame == null) {
+            return false;
+        }
+        int start = frame.position();
+        int length = frame.remaining();
+        if (length < ETH_HEADER_LENGTH + IPV4_MIN_HEADER_LENGTH + UDP_PORTS_LENGTH) {
+            return false;
+        }
+
+        int ip = ETH_HEADER_LENGTH;
+        int eth_type = frame.getShort(start + ip - 2) & 0xffff;
+        if (eth_type == (Ethernet.TYPE_VLAN & 0xffff)) {
+            ip += VLAN_TAG_LENGTH;
+            if (length < ip + IPV4_MIN_HEADER_LENGTH + UDP_PORTS_LENGTH) {
+                return false;
+            }
+            eth_type = frame.getShort(start + ip - 2) & 0xffff;
+        }
+        if (eth_type != Ethernet.TYPE_IPV4) {
+            return false;
+        }
+
+        int version_ihl = frame.get(start + ip) & 0xff;
+        int ihl = (version_ihl & 0x0f) * 4;
+        if (version_ihl >> 4 != 4 || ihl < IPV4_MIN_HEADER_LENGTH) {
+            return false;
+        }
+        // Protocol, and fragment offset without the flags
+        if (frame.get(start + ip + 9) != IPv4.PROTOCOL_UDP || (frame.getShort(start + ip + 6) & 0x1fff) != 0) {
+            return false;
+        }
+
+        int udp = ip + ihl;
+        if (length < udp + UDP_PORTS_LENGTH) {
+            return false;
+        }
+        int src_port = frame.getShort(start + udp) & 0xffff;
+        int dst_port = frame.getShort(start + udp + 2) & 0xffff;
+        return (src_port == DHCP_CLIENT_PORT && dst_port == DHCP_SERVER_PORT)
+            || (src_port == DHCP_SERVER_PORT && dst_port == DHCP_CLIENT_PORT);
+    }
+}
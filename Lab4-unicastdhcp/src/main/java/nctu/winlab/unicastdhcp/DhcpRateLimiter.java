@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token buckets limiting the DHCP messages the controller handles per
+ * client MAC address and per ingress port, so a client sending in a tight
+ * loop cannot make it compute and install paths over and over.
+ *
+ * Every bucket holds up to one second worth of messages and starts full.
+ * The port is checked first, so a host spraying client addresses cannot
+ * create more client buckets than its port lets messages through, and the
+ * number of client buckets is capped on top of that.
+ */
+public class DhcpRateLimiter {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConcurrentHashMap<MacAddress, Bucket> clients = new ConcurrentHashMap<MacAddress, Bucket>();
+    private final ConcurrentHashMap<ConnectPoint, Bucket> ports = new ConcurrentHashMap<ConnectPoint, Bucket>();
+
+    private final int maxClients;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder clientLimited = new LongAdder();
+    private final LongAdder portLimited = new LongAdder();
+
+    /**
+     * Creates a limiter.
+     *
+     * @param maxClients most clients tracked at once, messages of further clients are dropped
+     */
+    public DhcpRateLimiter(int maxClients) {
+        this.maxClients = maxClients;
+    }
+
+    /**
+     * Takes a token for a message from both the port it was received on
+     * and the client.
+     *
+     * @param client hardware address of the client
+     * @param ingress where the message was received
+     * @param clientRate messages per second allowed per client, 0 for no limit
+     * @param portRate messages per second allowed per port, 0 for no limit
+     * @param now current time in nanoseconds
+     * @return true if the message may be handled
+     */
+    public boolean allow(MacAddress client, ConnectPoint ingress, int clientRate, int portRate, long now) {
+        if (portRate > 0 && !this.ports.computeIfAbsent(ingress, cp -> new Bucket(portRate, now))
+                .take(portRate, now)) {
+            this.portLimited.increment();
+            return false;
+        }
+        if (clientRate > 0) {
+            Bucket bucket = this.clients.get(client);
+            if (bucket == null) {
+                // The size is only a hint under concurrency, which is good enough for a bound
+                if (this.clients.size() >= this.maxClients) {
+                    this.clientLimited.increment();
+                    return false;
+                }
+                bucket = this.clients.computeIfAbsent(client, mac -> new Bucket(clientRate, now));
+            }
+            if (!bucket.take(clientRate, now)) {
+                this.clientLimited.increment();
+                return false;
+            }
+        }
+        this.allowed.increment();
+        return true;
+    }
+
+    /**
+     * Forgets the buckets which were not used for a second. They are full
+     * again by then, so this does not change any later decision.
+     *
+     * @return number of buckets removed
+     */
+    public int purgeIdle(long now) {
+        int before = this.clients.size() + this.ports.size();
+        this.clients.values().removeIf(bucket -> bucket.idle(now));
+        this.ports.values().removeIf(bucket -> bucket.idle(now));
+        return Math.max(0, before - this.clients.size() - this.ports.size());
+    }
+
+    public void clear() {
+        this.clients.clear();
+        this.ports.clear();
+    }
+
+    public int size() {
+        return this.clients.size() + this.ports.size();
+    }
+
+    /**
+     * Gets the number of messages let through.
+     */
+    public long allowed() {
+        return this.allowed.sum();
+    }
+
+    /**
+     * Gets the number of messages dropped because their client sent too many.
+     */
+    public long clientLimited() {
+        return this.clientLimited.sum();
+    }
+
+    /**
+     * Gets the number of messages dropped because their ingress port received too many.
+     */
+    public long portLimited() {
+        return this.portLimited.sum();
+    }
+
+    private static final class Bucket {
+        private double tokens;
+        private long lastRefill;
+
+        private Bucket(int rate, long now) {
+            this.tokens = rate;
+            this.lastRefill = now;
+        }
+
+        private synchronized boolean take(int rate, long now) {
+            long elapsed = now - this.lastRefill;
+            if (elapsed > 0) {
+                this.tokens = Math.min(rate, this.tokens + (double) elapsed * rate / SECOND);
+                this.lastRefill = now;
+            }
+            if (this.tokens < 1) {
+                return false;
+            }
+            this.tokens--;
+            return true;
+        }
+
+        private synchronized boolean idle(long now) {
+            return now - this.lastRefill >= SECOND;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onlab.packet.VlanId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.PortNumber;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Forest of shortest paths from every edge switch towards the DHCP servers.
+ *
+ * Every edge switch joins the tree of its nearest server, and every switch
+ * in the forest has a single upstream port towards a server, so one rule
+ * per switch carries the requests of all clients. Edge switches can be
+ * given the VLAN of their subnet: their requests reach the server tagged
+ * with it, and replies tagged with it only go down towards that switch,
+ * so the servers must keep a tagged interface in every such subnet and
+ * reply through it. Untagged replies go down the tree towards the edge
+ * switches without a VLAN, which learn the ports of their clients from
+ * the requests and only send a reply out of the port of its client.
+ */
+public final class DhcpTree {
+    private final List<ConnectPoint> servers;
+    private final Map<DeviceId, PortNumber> upstream;
+    private final Map<DeviceId, Set<PortNumber>> downstream;
+    private final Map<DeviceId, VlanId> vlans;
+    private final Map<DeviceId, Map<VlanId, PortNumber>> steering;
+    private final Map<DeviceId, Set<PortNumber>> edgePorts;
+    private final Set<DeviceId> learning;
+    private final Set<DeviceId> unreachable;
+
+    private DhcpTree(List<ConnectPoint> servers, Map<DeviceId, PortNumber> upstream,
+                     Map<DeviceId, Set<PortNumber>> downstream, Map<DeviceId, VlanId> vlans,
+                     Map<DeviceId, Map<VlanId, PortNumber>> steering, Map<DeviceId, Set<PortNumber>> edgePorts,
+                     Set<DeviceId> learning, Set<DeviceId> unreachable) {
+        this.servers = servers;
+        this.upstream = upstream;
+        this.downstream = downstream;
+        this.vlans = vlans;
+        this.steering = steering;
+        this.edgePorts = edgePorts;
+        this.learning = learning;
+        this.unreachable = unreachable;
+    }
+
+    /**
+     * Builds the forest towards the servers.
+     *
+     * @param servers locations of the healthy DHCP servers
+     * @param edgePoints all edge ports of the network
+     * @param subnetVlans VLAN of the subnet behind every edge switch which has one
+     * @param selector selector of the server each edge switch is relayed to
+     * @param pathCache cache of the paths towards the servers
+     */
+    public static DhcpTree build(List<ConnectPoint> servers, Iterable<ConnectPoint> edgePoints,
+                                 Map<DeviceId, VlanId> subnetVlans, ServerSelector selector, PathCache pathCache) {
+        Map<DeviceId, PortNumber> upstream = new HashMap<DeviceId, PortNumber>();
+        // Port of the next switch towards the server, leading back down
+        Map<DeviceId, ConnectPoint> parent = new HashMap<DeviceId, ConnectPoint>();
+        Set<DeviceId> unreachable = new HashSet<DeviceId>();
+        for (ConnectPoint server: servers) {
+            // A second server on the same switch would never be used
+            upstream.putIfAbsent(server.deviceId(), server.port());
+        }
+
+        Set<DeviceId> edge_devices = new LinkedHashSet<DeviceId>();
+        for (ConnectPoint cp: edgePoints) {
+            edge_devices.add(cp.deviceId());
+        }
+        for (DeviceId deviceid: edge_devices) {
+            if (upstream.containsKey(deviceid)) {
+                continue;
+            }
+            ConnectPoint server = selector.select(deviceid, deviceid.toString().hashCode(), servers);
+            Set<Path> paths = server == null ? Collections.emptySet() : pathCache.get(deviceid, server).toServer();
+            if (paths.isEmpty()) {
+                unreachable.add(deviceid);
+                continue;
+            }
+
+            // The rest of a shortest path is a shortest path too, so joining
+            // the forest where the path meets it cannot create a loop
+            for (Link link: paths.iterator().next().links()) {
+                DeviceId hop = link.src().deviceId();
+                if (upstream.containsKey(hop)) {
+                    break;
+                }
+                upstream.put(hop, link.src().port());
+                parent.put(hop, link.dst());
+            }
+        }
+
+        Map<DeviceId, Set<PortNumber>> edge_ports = new HashMap<DeviceId, Set<PortNumber>>();
+        for (ConnectPoint cp: edgePoints) {
+            if (upstream.containsKey(cp.deviceId()) && !servers.contains(cp)) {
+                edge_ports.computeIfAbsent(cp.deviceId(), id -> new HashSet<PortNumber>()).add(cp.port());
+            }
+        }
+
+        // Replies go down the branches leading to edge ports, tagged ones only down their own
+        Map<DeviceId, Set<PortNumber>> downstream = new HashMap<DeviceId, Set<PortNumber>>();
+        Map<DeviceId, VlanId> vlans = new HashMap<DeviceId, VlanId>();
+        Map<DeviceId, Map<VlanId, PortNumber>> steering = new HashMap<DeviceId, Map<VlanId, PortNumber>>();
+        Set<DeviceId> learning = new HashSet<DeviceId>();
+        for (DeviceId deviceid: edge_ports.keySet()) {
+            VlanId vlan = subnetVlans.get(deviceid);
+            if (vlan == null) {
+                learning.add(deviceid);
+                for (ConnectPoint up = parent.get(deviceid); up != null; up = parent.get(up.deviceId())) {
+                    if (!downstream.computeIfAbsent(up.deviceId(), id -> new HashSet<PortNumber>()).add(up.port())) {
+                        // Already on the way to another edge switch, and so is the rest
+                        break;
+                    }
+                }
+            } else {
+                vlans.put(deviceid, vlan);
+                for (ConnectPoint up = parent.get(deviceid); up != null; up = parent.get(up.deviceId())) {
+                    steering.computeIfAbsent(up.deviceId(), id -> new HashMap<VlanId, PortNumber>())
+                        .put(vlan, up.port());
+                }
+            }
+        }
+        return new DhcpTree(servers, upstream, downstream, vlans, steering, edge_ports, learning, unreachable);
+    }
+
+    public List<ConnectPoint> servers() {
+        return Collections.unmodifiableList(this.servers);
+    }
+
+    /**
+     * Gets the switches in the tree.
+     */
+    public Set<DeviceId> devices() {
+        return Collections.unmodifiableSet(this.upstream.keySet());
+    }
+
+    /**
+     * Gets the port towards a server, or null if the switch is not in the tree.
+     */
+    public PortNumber upstream(DeviceId deviceid) {
+        return this.upstream.get(deviceid);
+    }
+
+    /**
+     * Gets the ports untagged replies leave a switch through, towards the
+     * switches without a subnet VLAN.
+     */
+    public Set<PortNumber> downstream(DeviceId deviceid) {
+        Set<PortNumber> ports = this.downstream.get(deviceid);
+        return ports == null ? Collections.emptySet() : Collections.unmodifiableSet(ports);
+    }
+
+    /**
+     * Gets the VLAN of the subnet behind an edge switch, or null if it has none.
+     */
+    public VlanId vlan(DeviceId deviceid) {
+        return this.vlans.get(deviceid);
+    }
+
+    /**
+     * Gets the ports replies tagged with a subnet VLAN leave a switch
+     * through, towards the edge switch of the subnet, by VLAN.
+     */
+    public Map<VlanId, PortNumber> steering(DeviceId deviceid) {
+        Map<VlanId, PortNumber> ports = this.steering.get(deviceid);
+        return ports == null ? Collections.emptyMap() : Collections.unmodifiableMap(ports);
+    }
+
+    /**
+     * Gets the client ports of a switch in the tree.
+     */
+    public Set<PortNumber> edgePorts(DeviceId deviceid) {
+        Set<PortNumber> ports = this.edgePorts.get(deviceid);
+        return ports == null ? Collections.emptySet() : Collections.unmodifiableSet(ports);
+    }
+
+    /**
+     * Gets whether an edge switch has no subnet VLAN, so untagged replies
+     * only leave it through the port their client was learned at.
+     */
+    public boolean learnsClients(DeviceId deviceid) {
+        return this.learning.contains(deviceid);
+    }
+
+    /**
+     * Gets the edge switches without any path to a server.
+     */
+    public Set<DeviceId> unreachable() {
+        return Collections.unmodifiableSet(this.unreachable);
+    }
+}
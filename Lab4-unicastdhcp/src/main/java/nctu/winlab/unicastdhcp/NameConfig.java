@@ -15,22 +15,150 @@
  */
 package nctu.winlab.unicastdhcp;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import org.onlab.packet.VlanId;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
 import org.onosproject.net.config.Config;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 public class NameConfig extends Config<ApplicationId> {
 
     public static final String SERVER_LOCATION = "serverLocation";
+    public static final String SERVER_LOCATIONS = "serverLocations";
+    public static final String PATH_MODE = "pathMode";
+    public static final String FLOW_THRESHOLD = "flowThreshold";
+    public static final String CLIENT_RATE_LIMIT = "clientRateLimit";
+    public static final String PORT_RATE_LIMIT = "portRateLimit";
+    public static final String ROGUE_SERVER_PROTECTION = "rogueServerProtection";
+    public static final String SUBNET_VLANS = "subnetVlans";
+
+    // Messages per relay window after which a client relayed by the controller gets rules
+    public static final int FLOW_THRESHOLD_DEFAULT = 4;
+
+    // Messages per second the controller handles from a single client and a single ingress port
+    public static final int CLIENT_RATE_LIMIT_DEFAULT = 5;
+    public static final int PORT_RATE_LIMIT_DEFAULT = 50;
 
     @Override
     public boolean isValid() {
-        return hasOnlyFields(SERVER_LOCATION)
-            && isConnectPoint(SERVER_LOCATION, Config.FieldPresence.MANDATORY);
+        if (!(hasOnlyFields(SERVER_LOCATION, SERVER_LOCATIONS, PATH_MODE, FLOW_THRESHOLD,
+                            CLIENT_RATE_LIMIT, PORT_RATE_LIMIT, ROGUE_SERVER_PROTECTION, SUBNET_VLANS)
+                && isConnectPoint(SERVER_LOCATION, Config.FieldPresence.OPTIONAL)
+                && isString(PATH_MODE, Config.FieldPresence.OPTIONAL)
+                && isIntegralNumber(FLOW_THRESHOLD, Config.FieldPresence.OPTIONAL, 0, Integer.MAX_VALUE)
+                && isIntegralNumber(CLIENT_RATE_LIMIT, Config.FieldPresence.OPTIONAL, 0, Integer.MAX_VALUE)
+                && isIntegralNumber(PORT_RATE_LIMIT, Config.FieldPresence.OPTIONAL, 0, Integer.MAX_VALUE)
+                && isBoolean(ROGUE_SERVER_PROTECTION, Config.FieldPresence.OPTIONAL)
+                && PathMode.fromString(get(PATH_MODE, PathMode.PER_CLIENT.name())) != null)) {
+            return false;
+        }
+        try {
+            return !serverLocations().isEmpty() && subnetVlans() != null;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
     }
 
+    /**
+     * Gets the first configured DHCP server.
+     */
     public ConnectPoint serverLocation() {
-        return ConnectPoint.fromString(get(SERVER_LOCATION, null));
+        List<ConnectPoint> servers = serverLocations();
+        return servers.isEmpty() ? null : servers.get(0);
+    }
+
+    /**
+     * Gets all configured DHCP servers, from both the single "serverLocation"
+     * and the "serverLocations" list.
+     */
+    public List<ConnectPoint> serverLocations() {
+        List<ConnectPoint> servers = new ArrayList<ConnectPoint>();
+        String single = get(SERVER_LOCATION, null);
+        if (single != null) {
+            servers.add(ConnectPoint.fromString(single));
+        }
+        for (ConnectPoint server: getList(SERVER_LOCATIONS, ConnectPoint::fromString,
+                                          Collections.<ConnectPoint>emptyList())) {
+            if (!servers.contains(server)) {
+                servers.add(server);
+            }
+        }
+        return servers;
+    }
+
+    public PathMode pathMode() {
+        PathMode mode = PathMode.fromString(get(PATH_MODE, PathMode.PER_CLIENT.name()));
+        return mode == null ? PathMode.PER_CLIENT : mode;
+    }
+
+    /**
+     * Gets how many messages a client may send per relay window in CONTROLLER
+     * mode before rules are installed for it, 0 to never install rules.
+     */
+    public int flowThreshold() {
+        return get(FLOW_THRESHOLD, FLOW_THRESHOLD_DEFAULT);
+    }
+
+    /**
+     * Gets how many messages per second the controller handles from a
+     * single client, 0 for no limit.
+     */
+    public int clientRateLimit() {
+        return get(CLIENT_RATE_LIMIT, CLIENT_RATE_LIMIT_DEFAULT);
+    }
+
+    /**
+     * Gets how many messages per second the controller handles from a
+     * single ingress port, 0 for no limit.
+     */
+    public int portRateLimit() {
+        return get(PORT_RATE_LIMIT, PORT_RATE_LIMIT_DEFAULT);
+    }
+
+    /**
+     * Gets whether DHCP server traffic is dropped at every edge port but
+     * the configured servers'.
+     */
+    public boolean rogueServerProtection() {
+        return get(ROGUE_SERVER_PROTECTION, false);
+    }
+
+    /**
+     * Gets the VLAN of the subnet behind every edge switch which has one,
+     * given as an object from device IDs to VLAN IDs. The servers keep an
+     * interface in every subnet, so they tell the subnet of a request from
+     * its tag and reply tagged the same, like they would from the giaddr
+     * of a relay agent.
+     *
+     * @return the VLANs by edge switch, or null if a VLAN ID is invalid
+     */
+    public Map<DeviceId, VlanId> subnetVlans() {
+        Map<DeviceId, VlanId> vlans = new HashMap<DeviceId, VlanId>();
+        JsonNode node = object.path(SUBNET_VLANS);
+        if (node.isMissingNode()) {
+            return vlans;
+        }
+        if (!node.isObject()) {
+            return null;
+        }
+        Iterator<Map.Entry<String, JsonNode>> it = node.fields();
+        while (it.hasNext()) {
+            Map.Entry<String, JsonNode> entry = it.next();
+            int vlan = entry.getValue().asInt(0);
+            if (!entry.getValue().isInt() || vlan < 1 || vlan >= VlanId.MAX_VLAN) {
+                return null;
+            }
+            vlans.put(DeviceId.deviceId(entry.getKey()), VlanId.vlanId((short) vlan));
+        }
+        return vlans;
     }
 }
 
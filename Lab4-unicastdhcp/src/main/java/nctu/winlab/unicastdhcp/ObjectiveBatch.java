@@ -0,0 +1,131 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flowobjective.FlowObjectiveService;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.flowobjective.Objective;
+import org.onosproject.net.flowobjective.ObjectiveContext;
+import org.onosproject.net.flowobjective.ObjectiveError;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Forwarding objectives submitted together, e.g. all rules of a path, with
+ * a single callback run once every one of them is installed, once one of
+ * them fails, or once a timeout expires, whichever comes first.
+ */
+public class ObjectiveBatch implements ObjectiveContext {
+    /**
+     * How a batch completed.
+     */
+    public enum Outcome {
+        INSTALLED,
+        FAILED,
+        TIMED_OUT
+    }
+
+    private final List<DeviceId> devices = new ArrayList<DeviceId>();
+    private final List<ForwardingObjective.Builder> builders = new ArrayList<ForwardingObjective.Builder>();
+    private final List<ForwardingObjective> objectives = new ArrayList<ForwardingObjective>();
+
+    private final AtomicInteger remaining = new AtomicInteger();
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile Consumer<Outcome> callback;
+    private volatile ScheduledFuture<?> timeout;
+
+    /**
+     * Adds an objective to install, before the batch is submitted.
+     */
+    public void add(DeviceId deviceid, ForwardingObjective.Builder objective) {
+        this.devices.add(deviceid);
+        this.builders.add(objective);
+    }
+
+    /**
+     * Submits all objectives of the batch.
+     *
+     * @param service service the objectives are submitted to
+     * @param timer executor running the timeout
+     * @param timeoutMillis time to wait for the installation, in milliseconds
+     * @param callback run once with the outcome of the batch
+     */
+    public void submit(FlowObjectiveService service, ScheduledExecutorService timer, long timeoutMillis,
+                       Consumer<Outcome> callback) {
+        this.callback = callback;
+        this.remaining.set(this.builders.size());
+        if (this.builders.isEmpty()) {
+            complete(Outcome.INSTALLED);
+            return;
+        }
+        this.timeout = timer.schedule(() -> complete(Outcome.TIMED_OUT), timeoutMillis, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < this.builders.size(); i++) {
+            ForwardingObjective objective = this.builders.get(i).add(this);
+            this.objectives.add(objective);
+            service.forward(this.devices.get(i), objective);
+        }
+    }
+
+    /**
+     * Gets the switches of the objectives, in the order they were added.
+     */
+    public List<DeviceId> devices() {
+        return Collections.unmodifiableList(this.devices);
+    }
+
+    /**
+     * Gets the submitted objectives, in the order they were added.
+     */
+    public List<ForwardingObjective> objectives() {
+        return Collections.unmodifiableList(this.objectives);
+    }
+
+    public boolean isDone() {
+        return this.done.get();
+    }
+
+    @Override
+    public void onSuccess(Objective objective) {
+        if (this.remaining.decrementAndGet() == 0) {
+            complete(Outcome.INSTALLED);
+        }
+    }
+
+    @Override
+    public void onError(Objective objective, ObjectiveError error) {
+        complete(Outcome.FAILED);
+    }
+
+    private void complete(Outcome outcome) {
+        if (!this.done.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledFuture<?> pending = this.timeout;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        this.callback.accept(outcome);
+    }
+}
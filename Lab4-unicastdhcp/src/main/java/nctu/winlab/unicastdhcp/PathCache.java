@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Path;
+import org.onosproject.net.topology.PathService;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the paths between ingress switches and DHCP servers, in both
+ * directions, until the topology changes.
+ */
+public class PathCache {
+    private final PathService pathService;
+
+    private final ConcurrentHashMap<Key, Paths> cache = new ConcurrentHashMap<Key, Paths>();
+
+    // Bumped on every invalidation, so paths computed on an old topology are not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public PathCache(PathService pathService) {
+        this.pathService = pathService;
+    }
+
+    /**
+     * Gets the paths between an ingress switch and a server.
+     */
+    public Paths get(DeviceId ingress, ConnectPoint server) {
+        Key key = new Key(ingress, server);
+        Paths paths = this.cache.get(key);
+        if (paths != null) {
+            this.hits.increment();
+            return paths;
+        }
+
+        this.misses.increment();
+        long gen = this.generation.get();
+        paths = new Paths(this.pathService.getPaths(ingress, server.elementId()),
+                          this.pathService.getPaths(server.elementId(), ingress));
+        if (gen == this.generation.get()) {
+            this.cache.put(key, paths);
+            if (gen != this.generation.get()) {
+                // Invalidated meanwhile
+                this.cache.remove(key, paths);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Drops all cached paths.
+     */
+    public void invalidate() {
+        this.generation.incrementAndGet();
+        this.cache.clear();
+    }
+
+    public int size() {
+        return this.cache.size();
+    }
+
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Gets the percentage of lookups served from the cache.
+     */
+    public double hitRate() {
+        long h = hits();
+        long total = h + misses();
+        return total == 0 ? 0 : 100.0 * h / total;
+    }
+
+    /**
+     * Paths from an ingress switch to a server and back.
+     */
+    public static final class Paths {
+        private final Set<Path> toServer;
+        private final Set<Path> toClient;
+
+        private Paths(Set<Path> toServer, Set<Path> toClient) {
+            this.toServer = toServer;
+            this.toClient = toClient;
+        }
+
+        public Set<Path> toServer() {
+            return this.toServer;
+        }
+
+        public Set<Path> toClient() {
+            return this.toClient;
+        }
+    }
+
+    private static final class Key {
+        private final DeviceId ingress;
+        private final ConnectPoint server;
+        private final int hash;
+
+        private Key(DeviceId ingress, ConnectPoint server) {
+            this.ingress = ingress;
+            this.server = server;
+            // Hashed on every lookup, so avoid the varargs array of Objects.hash
+            this.hash = 31 * ingress.hashCode() + server.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.ingress.equals(other.ingress) && this.server.equals(other.server);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
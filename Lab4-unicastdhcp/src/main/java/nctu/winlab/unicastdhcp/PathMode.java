@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+/**
+ * How DHCP traffic is steered between clients and the server.
+ */
+public enum PathMode {
+    /** Temporary rules matching the client MAC, installed per DHCPDISCOVER. */
+    PER_CLIENT,
+    /** Permanent rules shared by all clients, installed along a tree towards the server. */
+    AGGREGATED,
+    /**
+     * No rules, DHCP messages are relayed by packet-out between the client
+     * edge and the server, until a client gets busy enough for PER_CLIENT rules.
+     */
+    CONTROLLER;
+
+    /**
+     * Parses a path mode name, case-insensitively.
+     *
+     * @return the mode, or null if the name is unknown
+     */
+    public static PathMode fromString(String name) {
+        for (PathMode mode: values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Path;
+import org.onosproject.net.Port;
+import org.onosproject.net.device.DeviceService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Picks the DHCP server a client is relayed to.
+ *
+ * Only servers whose attachment port is up and reachable from the ingress
+ * switch are considered, and among them only the ones with the fewest hops.
+ * Ties are broken by rendezvous hashing of the client, so clients are spread
+ * evenly and keep their server as long as it stays healthy.
+ */
+public class ServerSelector {
+    private final PathCache pathCache;
+    private final DeviceService deviceService;
+
+    public ServerSelector(PathCache pathCache, DeviceService deviceService) {
+        this.pathCache = pathCache;
+        this.deviceService = deviceService;
+    }
+
+    /**
+     * Selects the server for a client.
+     *
+     * @param ingress switch the client is attached to
+     * @param client MAC address of the client
+     * @param servers configured servers
+     * @return the server, or null if none is healthy and reachable
+     */
+    public ConnectPoint select(DeviceId ingress, MacAddress client, List<ConnectPoint> servers) {
+        return select(ingress, client.toLong(), servers);
+    }
+
+    /**
+     * Selects the server for an arbitrary key, e.g. a whole switch.
+     */
+    public ConnectPoint select(DeviceId ingress, long key, List<ConnectPoint> servers) {
+        ConnectPoint best = null;
+        int best_hops = Integer.MAX_VALUE;
+        long best_score = 0;
+        for (ConnectPoint server: servers) {
+            if (!isHealthy(server)) {
+                continue;
+            }
+            int hops = hops(ingress, server);
+            if (hops < 0 || hops > best_hops) {
+                continue;
+            }
+            long score = score(key, server);
+            if (hops < best_hops || Long.compareUnsigned(score, best_score) > 0) {
+                best = server;
+                best_hops = hops;
+                best_score = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Gets the servers whose attachment port is up.
+     */
+    public List<ConnectPoint> healthy(List<ConnectPoint> servers) {
+        List<ConnectPoint> healthy = new ArrayList<ConnectPoint>();
+        for (ConnectPoint server: servers) {
+            if (isHealthy(server)) {
+                healthy.add(server);
+            }
+        }
+        return healthy;
+    }
+
+    public boolean isHealthy(ConnectPoint server) {
+        if (!this.deviceService.isAvailable(server.deviceId())) {
+            return false;
+        }
+        Port port = this.deviceService.getPort(server);
+        return port != null && port.isEnabled();
+    }
+
+    // Number of links between a switch and a server, or -1 if there is no path
+    private int hops(DeviceId ingress, ConnectPoint server) {
+        if (ingress.equals(server.deviceId())) {
+            return 0;
+        }
+        Set<Path> paths = this.pathCache.get(ingress, server).toServer();
+        if (paths.isEmpty()) {
+            return -1;
+        }
+        return paths.iterator().next().links().size();
+    }
+
+    // Rendezvous hash weight of a key on a server, stable across controller instances
+    static long score(long key, ConnectPoint server) {
+        long h = key * 0x9e3779b97f4a7c15L + server.toString().hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
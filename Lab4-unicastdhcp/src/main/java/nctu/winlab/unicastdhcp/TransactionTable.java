@@ -0,0 +1,276 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded table of the DHCP transactions being relayed, keyed by client MAC
+ * and transaction ID.
+ *
+ * A transaction remembers the route its path rules were installed along, so
+ * later messages of it are forwarded over that route instead of installing
+ * the path again. Transactions expire after a fixed time, which must not
+ * exceed the lifetime of their rules, and the oldest ones are evicted when
+ * the table is full.
+ */
+public class TransactionTable {
+    private final int capacity;
+    private final long ttl;
+
+    // Insertion ordered, so the eldest entry is also the first one to expire
+    private final LinkedHashMap<Key, Transaction> table = new LinkedHashMap<Key, Transaction>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Transaction> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder continued = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder acks = new LongAdder();
+    private final LongAdder ackNanos = new LongAdder();
+
+    /**
+     * Creates a transaction table.
+     *
+     * @param capacity maximum number of transactions
+     * @param ttl transaction lifetime in nanoseconds
+     */
+    public TransactionTable(int capacity, long ttl) {
+        this.capacity = capacity;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Looks up an ongoing transaction.
+     *
+     * @return the transaction, or null if it is unknown or expired
+     */
+    public Transaction get(MacAddress client, int xid, long now) {
+        Key key = new Key(client.toLong(), xid);
+        synchronized (this) {
+            Transaction transaction = this.table.get(key);
+            if (transaction == null) {
+                return null;
+            }
+            if (now - transaction.started > this.ttl) {
+                this.table.remove(key);
+                this.expirations.increment();
+                return null;
+            }
+            this.continued.increment();
+            return transaction;
+        }
+    }
+
+    /**
+     * Records a new transaction.
+     *
+     * @param route port towards the server on every switch of the path
+     * @param discover whether the transaction starts with a DHCPDISCOVER
+     */
+    public Transaction start(MacAddress client, int xid, ConnectPoint server, Map<DeviceId, PortNumber> route,
+                             boolean discover, long now) {
+        Key key = new Key(client.toLong(), xid);
+        Transaction transaction = new Transaction(server, route, discover, now);
+        synchronized (this) {
+            // Re-insert, so a restarted transaction moves to the end of the expiry order
+            this.table.remove(key);
+            this.table.put(key, transaction);
+        }
+        this.started.increment();
+        return transaction;
+    }
+
+    /**
+     * Records the DHCPACK of a transaction.
+     *
+     * @return the time since its DHCPDISCOVER in nanoseconds, or -1 if the
+     *         transaction is unknown, did not start with a DHCPDISCOVER or
+     *         was acknowledged already
+     */
+    public long acknowledge(MacAddress client, int xid, long now) {
+        Transaction transaction;
+        synchronized (this) {
+            transaction = this.table.get(new Key(client.toLong(), xid));
+        }
+        if (transaction == null || !transaction.discover || !transaction.markAcknowledged()) {
+            return -1;
+        }
+        long latency = now - transaction.started;
+        this.acks.increment();
+        this.ackNanos.add(latency);
+        return latency;
+    }
+
+    /**
+     * Forgets all transactions relayed to a server.
+     *
+     * @return number of transactions removed
+     */
+    public synchronized int removeServer(ConnectPoint server) {
+        int removed = 0;
+        Iterator<Transaction> it = this.table.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().server.equals(server)) {
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all expired transactions.
+     *
+     * @return number of transactions removed
+     */
+    public int purgeExpired(long now) {
+        int purged = 0;
+        synchronized (this) {
+            Iterator<Transaction> it = this.table.values().iterator();
+            while (it.hasNext() && now - it.next().started > this.ttl) {
+                it.remove();
+                purged++;
+            }
+        }
+        this.expirations.add(purged);
+        return purged;
+    }
+
+    public synchronized void clear() {
+        this.table.clear();
+    }
+
+    public synchronized int size() {
+        return this.table.size();
+    }
+
+    public long started() {
+        return this.started.sum();
+    }
+
+    /**
+     * Gets the number of messages which belonged to an ongoing transaction.
+     */
+    public long continued() {
+        return this.continued.sum();
+    }
+
+    public long evictions() {
+        return this.evictions.sum();
+    }
+
+    public long expirations() {
+        return this.expirations.sum();
+    }
+
+    public long acks() {
+        return this.acks.sum();
+    }
+
+    /**
+     * Gets the average time from DHCPDISCOVER to DHCPACK, in nanoseconds.
+     */
+    public long averageAckNanos() {
+        long count = this.acks.sum();
+        return count == 0 ? 0 : this.ackNanos.sum() / count;
+    }
+
+    /**
+     * State of a relayed transaction.
+     */
+    public static final class Transaction {
+        private final ConnectPoint server;
+        private final Map<DeviceId, PortNumber> route;
+        private final boolean discover;
+        private final long started;
+        private boolean acknowledged;
+
+        private Transaction(ConnectPoint server, Map<DeviceId, PortNumber> route, boolean discover, long started) {
+            this.server = server;
+            this.route = Collections.unmodifiableMap(route);
+            this.discover = discover;
+            this.started = started;
+        }
+
+        public ConnectPoint server() {
+            return this.server;
+        }
+
+        /**
+         * Gets the port towards the server on a switch of the route, or null
+         * if the switch is not on it.
+         */
+        public PortNumber route(DeviceId deviceid) {
+            return this.route.get(deviceid);
+        }
+
+        private synchronized boolean markAcknowledged() {
+            if (this.acknowledged) {
+                return false;
+            }
+            this.acknowledged = true;
+            return true;
+        }
+    }
+
+    private static final class Key {
+        private final long mac;
+        private final int xid;
+        // Hashed on every lookup, so avoid the varargs array and boxing of Objects.hash
+        private final int hash;
+
+        private Key(long mac, int xid) {
+            this.mac = mac;
+            this.xid = xid;
+            this.hash = 31 * Long.hashCode(mac) + xid;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.mac == other.mac && this.xid == other.xid;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
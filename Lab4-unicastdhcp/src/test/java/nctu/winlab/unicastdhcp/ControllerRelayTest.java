@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Test;
+import org.onlab.packet.DHCP;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the relay by packet-out used in CONTROLLER mode.
+ */
+public class ControllerRelayTest {
+    private static final int EDGES = 4;
+    private static final int CLIENTS = 25;
+
+    @Test
+    public void relaysWithoutRules() {
+        TestDhcp dhcp = new TestDhcp(EDGES, CLIENTS).activate();
+        dhcp.configure(PathMode.CONTROLLER);
+
+        for (int k = 1; k <= EDGES; k++) {
+            for (int c = 0; c < CLIENTS; c++) {
+                dhcp.process(dhcp.discover(k, c));
+                dhcp.process(dhcp.reply(k, c, DHCP.MsgType.DHCPOFFER, (k << 16) | c));
+            }
+        }
+
+        assertEquals(0, dhcp.ruleCount());
+        assertEquals(EDGES * CLIENTS * 2, dhcp.emitted.get());
+        assertEquals(EDGES * CLIENTS, dhcp.component.controllerRelay().requests());
+        assertEquals(EDGES * CLIENTS, dhcp.component.controllerRelay().replies());
+        // Requests go out at the server switch, replies at the client edges
+        assertEquals(EDGES * CLIENTS, dhcp.emittedThrough.stream()
+                .filter(TestDhcp.deviceId(0)::equals).count());
+        dhcp.deactivate();
+    }
+
+    @Test
+    public void installsRulesForBusyClients() {
+        TestDhcp dhcp = new TestDhcp(EDGES, CLIENTS).activate();
+        dhcp.configure(PathMode.CONTROLLER, 2);
+
+        // A retransmitting client passes the threshold on its third message
+        dhcp.process(dhcp.discover(1, 0));
+        dhcp.process(dhcp.discover(1, 0));
+        assertEquals(0, dhcp.ruleCount());
+        dhcp.process(dhcp.request(1, 0, DHCP.MsgType.DHCPDISCOVER, 0x77));
+
+        assertEquals(4, dhcp.ruleCount());
+        assertEquals(2, dhcp.component.controllerRelay().requests());
+        assertEquals(1, dhcp.component.controllerRelay().promotions());
+        dhcp.deactivate();
+    }
+
+    @Test
+    public void repliesOnlyToKnownClients() {
+        TestDhcp dhcp = new TestDhcp(EDGES, CLIENTS).activate();
+        dhcp.configure(PathMode.CONTROLLER);
+
+        dhcp.process(dhcp.reply(1, 0, DHCP.MsgType.DHCPACK, 1));
+        assertEquals(0, dhcp.emitted.get());
+        assertEquals(1, dhcp.component.messageCount(DHCP.MsgType.DHCPACK));
+        dhcp.deactivate();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that DHCPDISCOVER handling works on the config snapshot only.
+ */
+public class DhcpConfigTest {
+    @Test
+    public void noConfigLookupPerPacket() {
+        TestDhcp dhcp = new TestDhcp(4, 10).activate();
+        dhcp.configure(PathMode.PER_CLIENT);
+        int lookups = dhcp.configLookups.get();
+
+        for (int k = 1; k <= 4; k++) {
+            for (int c = 0; c < 10; c++) {
+                dhcp.process(dhcp.discover(k, c));
+            }
+        }
+
+        assertEquals(lookups, dhcp.configLookups.get());
+        assertEquals(40, dhcp.emitted.get());
+        dhcp.deactivate();
+    }
+
+    @Test
+    public void dropsDiscoversOnceRemoved() {
+        TestDhcp dhcp = new TestDhcp(4, 10).activate();
+        dhcp.configure(PathMode.PER_CLIENT);
+        dhcp.process(dhcp.discover(1, 0));
+        assertEquals(1, dhcp.emitted.get());
+
+        dhcp.unconfigure();
+        dhcp.process(dhcp.discover(1, 1));
+        assertEquals(1, dhcp.emitted.get());
+        dhcp.deactivate();
+    }
+}
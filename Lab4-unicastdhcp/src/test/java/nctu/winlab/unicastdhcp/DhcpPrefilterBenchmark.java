@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onlab.packet.DHCP;
+import org.onlab.packet.DeserializationException;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.TCP;
+import org.onlab.packet.UDP;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of rejecting a packet which is not DHCP, here bridged
+ * IPv4/TCP traffic, in the DHCP packet processor: by walking the parsed
+ * packet as before, by deserializing the frame first when it has not been
+ * parsed yet, and with the raw frame check.
+ *
+ * Run with the test classpath, e.g. from an IDE or with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=nctu.winlab.unicastdhcp.DhcpPrefilterBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DhcpPrefilterBenchmark {
+    private byte[] raw;
+    private ByteBuffer unparsed;
+    private Ethernet parsed;
+
+    @Setup
+    public void setUp() {
+        TCP tcp = new TCP();
+        tcp.setSourcePort(40000);
+        tcp.setDestinationPort(80);
+        IPv4 ipv4 = new IPv4();
+        ipv4.setSourceAddress(IPv4.toIPv4Address("10.0.0.1"));
+        ipv4.setDestinationAddress(IPv4.toIPv4Address("10.0.0.2"));
+        ipv4.setProtocol(IPv4.PROTOCOL_TCP);
+        ipv4.setPayload(tcp);
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(MacAddress.valueOf("02:00:00:00:00:01"));
+        eth.setDestinationMACAddress(MacAddress.valueOf("02:00:00:00:00:02"));
+        eth.setEtherType(Ethernet.TYPE_IPV4);
+        eth.setPayload(ipv4);
+
+        raw = eth.serialize();
+        unparsed = ByteBuffer.wrap(raw).asReadOnlyBuffer();
+        try {
+            parsed = Ethernet.deserializer().deserialize(raw, 0, raw.length);
+        } catch (DeserializationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Mirrors the checks of DhcpPacketProcessor.process before the raw frame check
+    @Benchmark
+    public boolean parsedWalk() {
+        return isDhcp(parsed);
+    }
+
+    @Benchmark
+    public boolean deserializeAndWalk() throws DeserializationException {
+        return isDhcp(Ethernet.deserializer().deserialize(raw, 0, raw.length));
+    }
+
+    @Benchmark
+    public boolean prefilter() {
+        return DhcpPrefilter.isDhcp(unparsed);
+    }
+
+    private static boolean isDhcp(Ethernet eth_pkt) {
+        if (eth_pkt == null || eth_pkt.getEtherType() != Ethernet.TYPE_IPV4) {
+            return false;
+        }
+        IPv4 ipv4_pkt = (IPv4) eth_pkt.getPayload();
+        if (ipv4_pkt.getProtocol() != IPv4.PROTOCOL_UDP) {
+            return false;
+        }
+        UDP udp_pkt = (UDP) ipv4_pkt.getPayload();
+        return udp_pkt.getPayload() instanceof DHCP;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DhcpPrefilterBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
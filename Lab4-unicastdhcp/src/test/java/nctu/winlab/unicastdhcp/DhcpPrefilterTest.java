@@ -0,0 +1,93 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Test;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the raw frame check used to skip non-DHCP packets.
+ */
+public class DhcpPrefilterTest {
+    @Test
+    public void acceptsDhcp() {
+        assertTrue(DhcpPrefilter.isDhcp(frame(false, IPv4.PROTOCOL_UDP, 68, 67, 0)));
+        assertTrue(DhcpPrefilter.isDhcp(frame(false, IPv4.PROTOCOL_UDP, 67, 68, 0)));
+        assertTrue(DhcpPrefilter.isDhcp(frame(true, IPv4.PROTOCOL_UDP, 68, 67, 0)));
+    }
+
+    @Test
+    public void rejectsOtherTraffic() {
+        assertFalse(DhcpPrefilter.isDhcp(frame(false, IPv4.PROTOCOL_TCP, 68, 67, 0)));
+        assertFalse(DhcpPrefilter.isDhcp(frame(false, IPv4.PROTOCOL_UDP, 53, 67, 0)));
+        assertFalse(DhcpPrefilter.isDhcp(frame(false, IPv4.PROTOCOL_UDP, 68, 68, 0)));
+        // Later fragments carry payload bytes where the ports would be
+        assertFalse(DhcpPrefilter.isDhcp(frame(false, IPv4.PROTOCOL_UDP, 68, 67, 185)));
+
+        ByteBuffer arp = frame(false, IPv4.PROTOCOL_UDP, 68, 67, 0);
+        arp.putShort(12, Ethernet.TYPE_ARP);
+        assertFalse(DhcpPrefilter.isDhcp(arp));
+    }
+
+    @Test
+    public void rejectsMalformedFrames() {
+        assertFalse(DhcpPrefilter.isDhcp(null));
+        assertFalse(DhcpPrefilter.isDhcp(ByteBuffer.allocate(20)));
+
+        ByteBuffer truncated = frame(false, IPv4.PROTOCOL_UDP, 68, 67, 0);
+        truncated.limit(14 + 20 + 2);
+        assertFalse(DhcpPrefilter.isDhcp(truncated));
+
+        // Options push the UDP header past the end of the frame
+        ByteBuffer long_header = frame(false, IPv4.PROTOCOL_UDP, 68, 67, 0);
+        long_header.put(14, (byte) 0x4f);
+        assertFalse(DhcpPrefilter.isDhcp(long_header));
+    }
+
+    @Test
+    public void keepsPosition() {
+        ByteBuffer frame = ByteBuffer.allocate(4 + 14 + 20 + 8);
+        frame.position(4);
+        frame.put(frame(false, IPv4.PROTOCOL_UDP, 68, 67, 0));
+        frame.position(4);
+        assertTrue(DhcpPrefilter.isDhcp(frame));
+        assertEquals(4, frame.position());
+    }
+
+    // Ethernet, IPv4 without options and UDP headers, without payload
+    private static ByteBuffer frame(boolean vlan, byte protocol, int src_port, int dst_port, int fragment) {
+        int ip = vlan ? 18 : 14;
+        ByteBuffer frame = ByteBuffer.allocate(ip + 20 + 8);
+        frame.put(new byte[] {-1, -1, -1, -1, -1, -1, 2, 0, 0, 0, 0, 1});
+        if (vlan) {
+            frame.putShort(Ethernet.TYPE_VLAN).putShort((short) 10);
+        }
+        frame.putShort(Ethernet.TYPE_IPV4);
+        frame.put((byte) 0x45).put((byte) 0).putShort((short) 28).putShort((short) 0);
+        frame.putShort((short) fragment).put((byte) 64).put(protocol).putShort((short) 0);
+        frame.putInt(0).putInt(0xffffffff);
+        frame.putShort((short) src_port).putShort((short) dst_port).putShort((short) 8).putShort((short) 0);
+        frame.flip();
+        return frame;
+    }
+}
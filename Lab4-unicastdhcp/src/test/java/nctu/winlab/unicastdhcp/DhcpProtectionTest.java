@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Test;
+import org.onlab.packet.DHCP;
+import org.onlab.packet.MacAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the rate limiting and rogue server protection of the relay.
+ */
+public class DhcpProtectionTest {
+    private static final int EDGES = 4;
+    private static final int CLIENTS = 10;
+
+    @Test
+    public void limitsLoopingClient() {
+        TestDhcp dhcp = new TestDhcp(EDGES, CLIENTS).activate();
+        dhcp.configure(dhcp.configNode(PathMode.PER_CLIENT).put(NameConfig.CLIENT_RATE_LIMIT, 2));
+
+        // A new transaction every time, so each one would install a path
+        for (int xid = 0; xid < 20; xid++) {
+            dhcp.process(dhcp.request(1, 0, DHCP.MsgType.DHCPDISCOVER, xid));
+        }
+        assertEquals(2, dhcp.component.rateLimiter().allowed());
+        assertEquals(18, dhcp.component.rateLimiter().clientLimited());
+        assertEquals(2, dhcp.component.transactions().size());
+
+        // Other clients are not affected
+        dhcp.process(dhcp.discover(1, 1));
+        assertEquals(3, dhcp.component.rateLimiter().allowed());
+        dhcp.deactivate();
+    }
+
+    @Test
+    public void limitsPort() {
+        TestDhcp dhcp = new TestDhcp(EDGES, CLIENTS).activate();
+        dhcp.configure(dhcp.configNode(PathMode.PER_CLIENT)
+            .put(NameConfig.CLIENT_RATE_LIMIT, 0)
+            .put(NameConfig.PORT_RATE_LIMIT, 3));
+
+        for (int xid = 0; xid < 10; xid++) {
+            dhcp.process(dhcp.request(2, 0, DHCP.MsgType.DHCPDISCOVER, xid));
+        }
+        assertEquals(3, dhcp.component.rateLimiter().allowed());
+        assertEquals(7, dhcp.component.rateLimiter().portLimited());
+        assertEquals(0, dhcp.component.rateLimiter().clientLimited());
+        dhcp.deactivate();
+    }
+
+    @Test
+    public void limitsSpoofingPortByDefault() {
+        TestDhcp dhcp = new TestDhcp(EDGES, CLIENTS).activate();
+        dhcp.configure(PathMode.PER_CLIENT);
+
+        // A new client address every time, so only the port limit applies
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            dhcp.process(dhcp.request(dhcp.clientLocation(3, 0), MacAddress.valueOf(0x0a0000000000L + i),
+                                      DHCP.MsgType.DHCPDISCOVER, i));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        DhcpRateLimiter limiter = dhcp.component.rateLimiter();
+        long allowed = limiter.allowed();
+        assertTrue(allowed >= NameConfig.PORT_RATE_LIMIT_DEFAULT);
+        assertTrue(allowed <= NameConfig.PORT_RATE_LIMIT_DEFAULT * (1 + seconds) + 1);
+        assertEquals(1000 - allowed, limiter.portLimited());
+        assertEquals(0, limiter.clientLimited());
+        assertEquals(allowed, dhcp.component.transactions().size());
+        // No client bucket for any message the port limit dropped
+        assertTrue(limiter.size() <= allowed + 1);
+        dhcp.deactivate();
+    }
+
+    @Test
+    public void dropsRogueServers() {
+        TestDhcp dhcp = new TestDhcp(EDGES, CLIENTS).activate();
+        dhcp.configure(dhcp.configNode(PathMode.PER_CLIENT).put(NameConfig.ROGUE_SERVER_PROTECTION, true));
+
+        // Every client port, but not the server port
+        assertEquals(EDGES * CLIENTS, dhcp.component.rogueDropRuleCount());
+        assertEquals(EDGES * CLIENTS, dhcp.ruleCount());
+
+        // A reply punted from a client port is not accounted nor relayed
+        dhcp.process(dhcp.reply(dhcp.clientLocation(2, 0), 1, 0, DHCP.MsgType.DHCPOFFER, 1));
+        assertEquals(1, dhcp.component.rogueReplyCount());
+        assertEquals(0, dhcp.component.messageCount(DHCP.MsgType.DHCPOFFER));
+        dhcp.process(dhcp.reply(1, 0, DHCP.MsgType.DHCPOFFER, 1));
+        assertEquals(1, dhcp.component.messageCount(DHCP.MsgType.DHCPOFFER));
+
+        // Turning the protection off removes the rules
+        dhcp.configure(PathMode.PER_CLIENT);
+        assertEquals(0, dhcp.component.rogueDropRuleCount());
+        assertEquals(0, dhcp.ruleCount());
+        dhcp.deactivate();
+    }
+}
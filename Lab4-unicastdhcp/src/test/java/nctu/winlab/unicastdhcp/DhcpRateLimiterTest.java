@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the per-client and per-port token buckets.
+ */
+public class DhcpRateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+
+    private final ConnectPoint port1 = new ConnectPoint(DEVICE, PortNumber.portNumber(1));
+    private final ConnectPoint port2 = new ConnectPoint(DEVICE, PortNumber.portNumber(2));
+
+    @Test
+    public void limitsClient() {
+        DhcpRateLimiter limiter = new DhcpRateLimiter(100);
+        MacAddress client = MacAddress.valueOf(1);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.allow(client, port1, 5, 0, 0));
+        }
+        assertFalse(limiter.allow(client, port1, 5, 0, 0));
+        // Another client on the same port has its own bucket
+        assertTrue(limiter.allow(MacAddress.valueOf(2), port1, 5, 0, 0));
+
+        // Refilled at the configured rate
+        assertTrue(limiter.allow(client, port1, 5, 0, SECOND / 5));
+        assertFalse(limiter.allow(client, port1, 5, 0, SECOND / 5));
+        assertEquals(7, limiter.allowed());
+        assertEquals(2, limiter.clientLimited());
+    }
+
+    @Test
+    public void limitsPort() {
+        DhcpRateLimiter limiter = new DhcpRateLimiter(100);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allow(MacAddress.valueOf(i), port1, 0, 3, 0));
+        }
+        assertFalse(limiter.allow(MacAddress.valueOf(3), port1, 0, 3, 0));
+        assertTrue(limiter.allow(MacAddress.valueOf(3), port2, 0, 3, 0));
+        assertEquals(1, limiter.portLimited());
+    }
+
+    @Test
+    public void portCheckedFirst() {
+        DhcpRateLimiter limiter = new DhcpRateLimiter(100);
+        assertTrue(limiter.allow(MacAddress.valueOf(1), port1, 5, 1, 0));
+        for (int i = 2; i < 50; i++) {
+            assertFalse(limiter.allow(MacAddress.valueOf(i), port1, 5, 1, 0));
+        }
+        // Only the allowed client got a bucket
+        assertEquals(2, limiter.size());
+        assertEquals(48, limiter.portLimited());
+        assertEquals(0, limiter.clientLimited());
+    }
+
+    @Test
+    public void capsClients() {
+        DhcpRateLimiter limiter = new DhcpRateLimiter(3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allow(MacAddress.valueOf(i), port1, 5, 0, 0));
+        }
+        assertFalse(limiter.allow(MacAddress.valueOf(3), port1, 5, 0, 0));
+        // Known clients keep their buckets
+        assertTrue(limiter.allow(MacAddress.valueOf(0), port1, 5, 0, 0));
+        assertEquals(3, limiter.size());
+        assertEquals(1, limiter.clientLimited());
+
+        // Room again once the idle ones are purged
+        limiter.purgeIdle(SECOND);
+        assertTrue(limiter.allow(MacAddress.valueOf(3), port1, 5, 0, SECOND));
+    }
+
+    @Test
+    public void unlimitedWhenZero() {
+        DhcpRateLimiter limiter = new DhcpRateLimiter(100);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.allow(MacAddress.valueOf(1), port1, 0, 0, 0));
+        }
+        assertEquals(0, limiter.size());
+    }
+
+    @Test
+    public void purgesIdleBuckets() {
+        DhcpRateLimiter limiter = new DhcpRateLimiter(100);
+        limiter.allow(MacAddress.valueOf(1), port1, 5, 50, 0);
+        limiter.allow(MacAddress.valueOf(2), port2, 5, 50, SECOND / 2);
+        assertEquals(4, limiter.size());
+
+        assertEquals(2, limiter.purgeIdle(SECOND));
+        assertEquals(2, limiter.size());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+import org.onlab.packet.DHCP;
+import org.onlab.packet.VlanId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.packet.PacketContext;
+
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the number of DHCP rules installed in the network by the
+ * per-client and the aggregated path modes, and checks the client ports
+ * every reply reaches in aggregated mode.
+ */
+public class DhcpRuleScaleTest {
+    private static final int EDGES = 32;
+    private static final int[] CLIENT_COUNTS = {10, 100, 500};
+
+    @Test
+    public void ruleCount() {
+        for (int clients: CLIENT_COUNTS) {
+            TestDhcp per_client = new TestDhcp(EDGES, clients).activate();
+            per_client.configure(PathMode.PER_CLIENT);
+            discoverAll(per_client, clients);
+            int before = per_client.ruleCount();
+            // Replies are not copied to the controller
+            assertEquals(0, per_client.puntingRules());
+            per_client.deactivate();
+
+            TestDhcp aggregated = new TestDhcp(EDGES, clients).activate();
+            aggregated.configure(PathMode.AGGREGATED);
+            discoverAll(aggregated, clients);
+            int after = aggregated.ruleCount();
+
+            // Edge and core rule in each direction for every client
+            assertEquals(EDGES * clients * 4, before);
+            // One rule in each direction on every switch of the tree, and a reply rule per client
+            assertEquals((EDGES + 1) * 2 + EDGES * clients, after);
+            // Requests are copied to the controller on the edge switches, which forward them by themselves
+            assertEquals(0, aggregated.sent.get());
+            assertEquals(EDGES * 2, aggregated.puntingRules());
+            // Replies only reach their own client, broadcast ones through the controller
+            assertEquals(Collections.singleton(aggregated.clientLocation(EDGES, clients - 1)),
+                         aggregated.replyDelivery(null, TestDhcp.clientMac(EDGES, clients - 1)));
+            assertEquals(0, aggregated.replyDelivery(null).size());
+
+            // Switching back removes the shared rules
+            aggregated.configure(PathMode.PER_CLIENT);
+            assertEquals(0, aggregated.ruleCount());
+            aggregated.deactivate();
+        }
+    }
+
+    @Test
+    public void subnetVlansSteerReplies() {
+        int clients = 100;
+        TestDhcp dhcp = new TestDhcp(EDGES, clients).activate();
+        ObjectNode node = dhcp.configNode(PathMode.AGGREGATED);
+        ObjectNode vlans = node.putObject(NameConfig.SUBNET_VLANS);
+        for (int k = 1; k <= EDGES; k++) {
+            vlans.put(dhcp.topology.edgeSwitch(k).toString(), 100 + k);
+        }
+        dhcp.configure(node);
+        discoverAll(dhcp, clients);
+
+        // A rule per subnet on the core, and on every edge switch the
+        // shared request rule, the tagging rule and the untagging rule
+        assertEquals(1 + EDGES + EDGES * 3, dhcp.ruleCount());
+        assertEquals(EDGES * clients, dhcp.sent.get());
+        for (int k = 1; k <= EDGES; k++) {
+            Set<ConnectPoint> delivered = dhcp.replyDelivery(VlanId.vlanId((short) (100 + k)));
+            assertEquals(clients, delivered.size());
+            assertTrue(delivered.contains(dhcp.clientLocation(k, 0)));
+        }
+        // Untagged replies are not sent into subnets with a VLAN
+        assertEquals(0, dhcp.replyDelivery(null).size());
+
+        // Without the VLANs, replies follow the clients learned from then on
+        dhcp.configure(PathMode.AGGREGATED);
+        assertEquals((EDGES + 1) * 2, dhcp.ruleCount());
+        assertEquals(0, dhcp.replyDelivery(null, TestDhcp.clientMac(1, 0)).size());
+        dhcp.process(dhcp.discover(1, 0));
+        assertEquals(Collections.singleton(dhcp.clientLocation(1, 0)),
+                     dhcp.replyDelivery(null, TestDhcp.clientMac(1, 0)));
+        dhcp.deactivate();
+    }
+
+    @Test
+    public void untaggedRepliesReachOnlyTheirClient() {
+        TestDhcp dhcp = new TestDhcp(EDGES, 10).activate();
+        dhcp.configure(PathMode.AGGREGATED);
+        dhcp.process(dhcp.discover(1, 0));
+
+        assertEquals(Collections.singleton(dhcp.clientLocation(1, 0)),
+                     dhcp.replyDelivery(null, TestDhcp.clientMac(1, 0)));
+        assertEquals(0, dhcp.replyDelivery(null, TestDhcp.clientMac(1, 1)).size());
+
+        // Matching no reply rule, e.g. broadcast, so punted by the edge switch and sent to the learned port
+        ConnectPoint uplink = new ConnectPoint(dhcp.topology.edgeSwitch(1), PortNumber.portNumber(1));
+        PacketContext punted = dhcp.reply(uplink, 1, 0, DHCP.MsgType.DHCPOFFER, 0x10000);
+        dhcp.process(punted);
+        assertTrue(punted.isHandled());
+        assertEquals(Collections.singletonList(dhcp.topology.edgeSwitch(1)), dhcp.emittedThrough);
+
+        // Nor is a reply to a client never heard of sent anywhere
+        uplink = new ConnectPoint(dhcp.topology.edgeSwitch(2), PortNumber.portNumber(1));
+        PacketContext unknown = dhcp.reply(uplink, 2, 0, DHCP.MsgType.DHCPOFFER, 0x20000);
+        dhcp.process(unknown);
+        assertFalse(unknown.isHandled());
+        assertEquals(1, dhcp.emitted.get());
+
+        // Going back to tagged subnets removes the learned reply rules
+        ObjectNode node = dhcp.configNode(PathMode.AGGREGATED);
+        node.putObject(NameConfig.SUBNET_VLANS).put(dhcp.topology.edgeSwitch(1).toString(), 101);
+        dhcp.configure(node);
+        assertEquals(0, dhcp.replyDelivery(null, TestDhcp.clientMac(1, 0)).size());
+        dhcp.deactivate();
+    }
+
+    private void discoverAll(TestDhcp dhcp, int clients) {
+        for (int k = 1; k <= EDGES; k++) {
+            for (int c = 0; c < clients; c++) {
+                dhcp.process(dhcp.discover(k, c));
+            }
+        }
+    }
+}
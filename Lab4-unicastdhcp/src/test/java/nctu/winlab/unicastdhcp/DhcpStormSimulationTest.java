@@ -0,0 +1,188 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Test;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.packet.PacketContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Floods the relay with a DHCPDISCOVER from every client of a synthetic
+ * fat tree and ring at once, from several packet threads, and checks the
+ * flow objectives issued, the handling latency and the heap retained after
+ * the storm, for every path mode.
+ *
+ * The default sizes keep the build fast. The networks can be scaled, e.g.
+ * to 10,000 clients behind 500 switches, with
+ * {@code mvn test -Dtest=DhcpStormSimulationTest -Ddhcp.sim.fatTreeK=20
+ * -Ddhcp.sim.ringSwitches=500 -Ddhcp.sim.clients=10000}.
+ */
+public class DhcpStormSimulationTest {
+    private static final int FAT_TREE_K = Integer.getInteger("dhcp.sim.fatTreeK", 8);
+    private static final int RING_SWITCHES = Integer.getInteger("dhcp.sim.ringSwitches", 64);
+    private static final int CLIENTS = Integer.getInteger("dhcp.sim.clients", 1024);
+    private static final int THREADS = Integer.getInteger("dhcp.sim.threads", 4);
+
+    // Paths are installed in the background, so no packet thread comes near the install timeout
+    private static final long MAX_P99_MICROS = TimeUnit.MILLISECONDS.toMicros(500);
+    // Generous bound on the state kept per client, including the rules of the stand-in services
+    private static final long MAX_HEAP_PER_CLIENT = 64 * 1024;
+
+    @Test
+    public void fatTreeStorm() throws Exception {
+        int edges = FAT_TREE_K * FAT_TREE_K / 2;
+        stormAllModes("fat tree", () -> TestTopology.fatTree(FAT_TREE_K, clientsPerEdge(edges)));
+    }
+
+    @Test
+    public void ringStorm() throws Exception {
+        stormAllModes("ring", () -> TestTopology.ring(RING_SWITCHES, clientsPerEdge(RING_SWITCHES)));
+    }
+
+    private static int clientsPerEdge(int edges) {
+        return (CLIENTS + edges - 1) / edges;
+    }
+
+    private void stormAllModes(String name, Supplier<TestTopology> network) throws Exception {
+        for (PathMode mode: PathMode.values()) {
+            TestDhcp dhcp = new TestDhcp(network.get()).activate();
+            dhcp.configure(mode);
+            int setup = dhcp.objectives.get();
+
+            Storm storm = new Storm(dhcp);
+            storm.run();
+
+            TestTopology topology = dhcp.topology;
+            int clients = topology.edgeCount() * topology.clients();
+            int issued = dhcp.objectives.get() - setup;
+            String run = name + " of " + topology.devices().size() + " switches, " + mode;
+
+            switch (mode) {
+                case PER_CLIENT:
+                    // Path rules in both directions, plus an edge rule at each end
+                    assertEquals(expectedClientObjectives(topology), issued);
+                    assertEquals(clients, dhcp.emitted.get());
+                    assertEquals(1.0, dhcp.firstPacketSuccessRate(), 0);
+                    assertEquals(clients, dhcp.component.transactions().size());
+                    break;
+                case AGGREGATED:
+                    // Requests ride on the rules installed with the config, replies on a rule per client
+                    assertEquals(clients, issued);
+                    assertEquals(0, dhcp.sent.get());
+                    break;
+                default:
+                    assertEquals(0, issued);
+                    assertEquals(clients, dhcp.emitted.get());
+                    assertEquals(clients, dhcp.component.controllerRelay().requests());
+                    break;
+            }
+            assertTrue(run, storm.throughput() > 0);
+            assertTrue(run, storm.percentileMicros(0.50) <= storm.percentileMicros(0.99));
+            assertTrue(run + ": p99 " + storm.percentileMicros(0.99) + " us",
+                       storm.percentileMicros(0.99) < MAX_P99_MICROS);
+            assertTrue(run + ": " + storm.heapBytes + " bytes retained",
+                       storm.heapBytes < clients * MAX_HEAP_PER_CLIENT);
+            dhcp.deactivate();
+        }
+    }
+
+    private static long expectedClientObjectives(TestTopology topology) {
+        DeviceId server = topology.serverLocation().deviceId();
+        long objectives = 0;
+        for (int k = 1; k <= topology.edgeCount(); k++) {
+            DeviceId edge = topology.edgeSwitch(k);
+            int hops = edge.equals(server) ? 0
+                    : topology.paths(edge, server).iterator().next().links().size()
+                    + topology.paths(server, edge).iterator().next().links().size();
+            objectives += (long) topology.clients() * (hops + 2);
+        }
+        return objectives;
+    }
+
+    // One DHCPDISCOVER per client, split across the packet threads
+    private static final class Storm {
+        private final TestDhcp dhcp;
+        private final List<PacketContext> packets = new ArrayList<PacketContext>();
+        private long[] latencies;
+        private long elapsed;
+        private long heapBytes;
+
+        private Storm(TestDhcp dhcp) {
+            this.dhcp = dhcp;
+            for (int k = 1; k <= dhcp.topology.edgeCount(); k++) {
+                for (int c = 0; c < dhcp.topology.clients(); c++) {
+                    packets.add(dhcp.discover(k, c));
+                }
+            }
+        }
+
+        private void run() throws Exception {
+            latencies = new long[packets.size()];
+            long heap_before = usedHeap();
+
+            ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+            List<Future<?>> done = new ArrayList<Future<?>>();
+            long start = System.nanoTime();
+            for (int t = 0; t < THREADS; t++) {
+                int first = t;
+                done.add(threads.submit(() -> {
+                    for (int i = first; i < packets.size(); i += THREADS) {
+                        long begin = System.nanoTime();
+                        dhcp.process(packets.get(i));
+                        latencies[i] = System.nanoTime() - begin;
+                    }
+                }));
+            }
+            for (Future<?> future: done) {
+                future.get();
+            }
+            elapsed = System.nanoTime() - start;
+            threads.shutdown();
+
+            // Includes the rules kept by the stand-in flow objective service
+            heapBytes = Math.max(0, usedHeap() - heap_before);
+            Arrays.sort(latencies);
+        }
+
+        private double throughput() {
+            return latencies.length * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsed);
+        }
+
+        private long percentileMicros(double percentile) {
+            int index = (int) Math.ceil(percentile * latencies.length) - 1;
+            return TimeUnit.NANOSECONDS.toMicros(latencies[Math.max(0, index)]);
+        }
+
+        private static long usedHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            System.gc();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Test;
+import org.onlab.packet.DHCP;
+import org.onosproject.net.packet.PacketContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests that the first packets of new DHCP transactions are relayed only
+ * once their whole path is programmed, or through the controller once the
+ * install timed out.
+ */
+public class FirstPacketTest {
+    private static final int EDGES = 8;
+    private static final int CLIENTS = 50;
+
+    @Test
+    public void heldUntilPathInstalled() {
+        TestDhcp dhcp = new TestDhcp(EDGES, CLIENTS).activate();
+        dhcp.configure(PathMode.PER_CLIENT);
+        dhcp.installMode = TestDhcp.InstallMode.DEFERRED;
+
+        discoverAll(dhcp);
+        // Nothing leaves the controller while the rules are on their way
+        assertEquals(0, dhcp.emitted.get());
+
+        dhcp.completeInstalls();
+        assertEquals(1.0, dhcp.firstPacketSuccessRate(), 0);
+        assertEquals(EDGES * CLIENTS, dhcp.emitted.get());
+        assertEquals(EDGES * CLIENTS, dhcp.firstPacketsDelivered.get());
+        assertEquals(EDGES * CLIENTS, dhcp.component.installCount(ObjectiveBatch.Outcome.INSTALLED));
+        dhcp.deactivate();
+    }
+
+    @Test
+    public void relayedAfterTimeout() throws InterruptedException {
+        TestDhcp dhcp = new TestDhcp(EDGES, CLIENTS).activate();
+        dhcp.configure(PathMode.PER_CLIENT);
+        dhcp.installMode = TestDhcp.InstallMode.LOST;
+
+        discoverAll(dhcp);
+        assertEquals(0, dhcp.emitted.get());
+
+        // Sent straight to the server once the install timeout expires
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dhcp.emitted.get() < EDGES * CLIENTS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(EDGES * CLIENTS, dhcp.emitted.get());
+        assertEquals(0, dhcp.firstPacketsDelivered.get());
+        assertEquals(EDGES * CLIENTS, dhcp.component.installCount(ObjectiveBatch.Outcome.TIMED_OUT));
+
+        // The rest of the exchange goes through the controller too, with
+        // the replies punted at the server switch
+        for (int k = 1; k <= EDGES; k++) {
+            for (int c = 0; c < CLIENTS; c++) {
+                int xid = (k << 16) | c;
+                dhcp.process(dhcp.reply(k, c, DHCP.MsgType.DHCPOFFER, xid));
+                dhcp.process(dhcp.request(k, c, DHCP.MsgType.DHCPREQUEST, xid));
+                dhcp.process(dhcp.reply(k, c, DHCP.MsgType.DHCPACK, xid));
+            }
+        }
+        assertEquals(EDGES * CLIENTS * 4, dhcp.emitted.get());
+        // Requests go out at the server switch, replies at the client edges
+        assertEquals(EDGES * CLIENTS * 2, dhcp.emittedThrough.stream()
+                .filter(TestDhcp.deviceId(0)::equals).count());
+        assertEquals(EDGES * CLIENTS * 2, dhcp.component.controllerRelay().replies());
+        assertEquals(EDGES * CLIENTS, dhcp.component.transactions().acks());
+        dhcp.deactivate();
+    }
+
+    @Test
+    public void retransmissionFollowsTransaction() {
+        TestDhcp dhcp = new TestDhcp(EDGES, CLIENTS).activate();
+        dhcp.configure(PathMode.PER_CLIENT);
+        dhcp.installMode = TestDhcp.InstallMode.DEFERRED;
+
+        dhcp.process(dhcp.discover(1, 0));
+        int rules = dhcp.ruleCount();
+        dhcp.process(dhcp.discover(1, 0));
+
+        // The retransmission is relayed right away and installs nothing more
+        assertEquals(1, dhcp.sent.get());
+        dhcp.completeInstalls();
+        assertEquals(rules + 4, dhcp.ruleCount());
+        assertEquals(1, dhcp.emitted.get());
+        dhcp.deactivate();
+    }
+
+    @Test
+    public void unknownReplyLeftToOthers() {
+        for (PathMode mode: new PathMode[] {PathMode.PER_CLIENT, PathMode.AGGREGATED}) {
+            TestDhcp dhcp = new TestDhcp(EDGES, CLIENTS).activate();
+            dhcp.configure(mode);
+
+            // No transaction of ours, e.g. the ACK of a unicast renewal punted by another app
+            PacketContext reply = dhcp.reply(1, 0, DHCP.MsgType.DHCPACK, 0x99);
+            dhcp.process(reply);
+            assertFalse(reply.isHandled());
+            assertEquals(0, dhcp.emitted.get());
+            dhcp.deactivate();
+        }
+    }
+
+    private void discoverAll(TestDhcp dhcp) {
+        for (int k = 1; k <= EDGES; k++) {
+            for (int c = 0; c < CLIENTS; c++) {
+                dhcp.process(dhcp.discover(k, c));
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.ElementId;
+import org.onosproject.net.Path;
+import org.onosproject.net.topology.PathServiceAdapter;
+
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of the path cache.
+ */
+public class PathCacheTest {
+    private final DeviceId edge1 = DeviceId.deviceId("of:0000000000000001");
+    private final DeviceId edge2 = DeviceId.deviceId("of:0000000000000002");
+    private final ConnectPoint server = ConnectPoint.deviceConnectPoint("of:0000000000000003/2");
+
+    @Test
+    public void computesOncePerIngress() {
+        CountingPathService pathService = new CountingPathService();
+        PathCache cache = new PathCache(pathService);
+
+        PathCache.Paths first = cache.get(edge1, server);
+        for (int i = 0; i < 1000; i++) {
+            assertSame(first, cache.get(edge1, server));
+        }
+        cache.get(edge2, server);
+
+        // Both directions for each of the two ingress switches
+        assertEquals(4, pathService.calls);
+        assertEquals(1000, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void recomputesAfterInvalidation() {
+        CountingPathService pathService = new CountingPathService();
+        PathCache cache = new PathCache(pathService);
+
+        cache.get(edge1, server);
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        cache.get(edge1, server);
+
+        assertEquals(4, pathService.calls);
+        assertEquals(0, cache.hits());
+    }
+
+    private static class CountingPathService extends PathServiceAdapter {
+        private int calls;
+
+        @Override
+        public Set<Path> getPaths(ElementId src, ElementId dst) {
+            calls++;
+            return Collections.emptySet();
+        }
+    }
+}
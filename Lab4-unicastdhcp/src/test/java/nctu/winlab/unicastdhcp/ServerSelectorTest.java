@@ -0,0 +1,158 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Test;
+import org.onlab.graph.ScalarWeight;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DefaultPath;
+import org.onosproject.net.DefaultPort;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.ElementId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.net.topology.PathServiceAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the DHCP server selection.
+ */
+public class ServerSelectorTest {
+    private static final int CLIENTS = 10000;
+
+    private final DeviceId ingress = DeviceId.deviceId("of:0000000000000001");
+
+    private final Map<DeviceId, Integer> hops = new HashMap<DeviceId, Integer>();
+    private final Set<ConnectPoint> down = new HashSet<ConnectPoint>();
+    private final ServerSelector selector =
+        new ServerSelector(new PathCache(new HopPathService()), new MockDeviceService());
+
+    @Test
+    public void spreadsClientsEvenly() {
+        List<ConnectPoint> servers = servers(4, 2);
+        Map<ConnectPoint, Integer> counts = assign(servers);
+
+        assertEquals(4, counts.size());
+        for (int count: counts.values()) {
+            assertTrue("unbalanced: " + counts, Math.abs(count - CLIENTS / 4) < CLIENTS / 20);
+        }
+    }
+
+    @Test
+    public void prefersNearestServers() {
+        List<ConnectPoint> servers = servers(3, 2);
+        hops.put(servers.get(2).deviceId(), 1);
+
+        Map<ConnectPoint, Integer> counts = assign(servers);
+        assertEquals(Collections.singleton(servers.get(2)), counts.keySet());
+    }
+
+    @Test
+    public void skipsServersThatAreDown() {
+        List<ConnectPoint> servers = servers(3, 2);
+        Map<MacAddress, ConnectPoint> before = new HashMap<MacAddress, ConnectPoint>();
+        for (int c = 0; c < CLIENTS; c++) {
+            before.put(client(c), selector.select(ingress, client(c), servers));
+        }
+
+        ConnectPoint failed = servers.get(0);
+        down.add(failed);
+        for (int c = 0; c < CLIENTS; c++) {
+            ConnectPoint server = selector.select(ingress, client(c), servers);
+            assertNotEquals(failed, server);
+            // Only the clients of the failed server move
+            if (!before.get(client(c)).equals(failed)) {
+                assertEquals(before.get(client(c)), server);
+            }
+        }
+
+        down.addAll(servers);
+        assertNull(selector.select(ingress, client(0), servers));
+    }
+
+    private Map<ConnectPoint, Integer> assign(List<ConnectPoint> servers) {
+        Map<ConnectPoint, Integer> counts = new HashMap<ConnectPoint, Integer>();
+        for (int c = 0; c < CLIENTS; c++) {
+            counts.merge(selector.select(ingress, client(c), servers), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private List<ConnectPoint> servers(int count, int distance) {
+        List<ConnectPoint> servers = new ArrayList<ConnectPoint>();
+        for (int i = 0; i < count; i++) {
+            DeviceId deviceid = DeviceId.deviceId(String.format("of:%016x", i + 2));
+            hops.put(deviceid, distance);
+            servers.add(new ConnectPoint(deviceid, PortNumber.portNumber(1)));
+        }
+        return servers;
+    }
+
+    private static MacAddress client(int i) {
+        return MacAddress.valueOf(0x020000000000L + i);
+    }
+
+    // Returns a path of the configured number of links between the ingress and a server switch
+    private class HopPathService extends PathServiceAdapter {
+        @Override
+        public Set<Path> getPaths(ElementId src, ElementId dst) {
+            Integer count = hops.get(src.equals(ingress) ? dst : src);
+            if (count == null) {
+                return Collections.emptySet();
+            }
+            Link[] links = new Link[count];
+            Arrays.fill(links, DefaultLink.builder()
+                .providerId(ProviderId.NONE)
+                .src(new ConnectPoint((DeviceId) src, PortNumber.portNumber(1)))
+                .dst(new ConnectPoint((DeviceId) dst, PortNumber.portNumber(1)))
+                .type(Link.Type.DIRECT)
+                .build());
+            return Collections.singleton(new DefaultPath(ProviderId.NONE, Arrays.asList(links),
+                                                         ScalarWeight.toWeight(count)));
+        }
+    }
+
+    private class MockDeviceService extends DeviceServiceAdapter {
+        @Override
+        public boolean isAvailable(DeviceId deviceId) {
+            return true;
+        }
+
+        @Override
+        public Port getPort(ConnectPoint cp) {
+            return new DefaultPort(null, cp.port(), !down.contains(cp));
+        }
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.onlab.packet.DHCP;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.UDP;
+import org.onlab.packet.VlanId;
+import org.onlab.packet.dhcp.DhcpOption;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultPort;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.ElementId;
+import org.onosproject.net.Path;
+import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.config.Config;
+import org.onosproject.net.config.NetworkConfigEvent;
+import org.onosproject.net.config.NetworkConfigListener;
+import org.onosproject.net.config.NetworkConfigRegistryAdapter;
+import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.edge.EdgePortServiceAdapter;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flow.instructions.Instruction;
+import org.onosproject.net.flow.instructions.Instructions;
+import org.onosproject.net.flowobjective.FlowObjectiveServiceAdapter;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.flowobjective.Objective;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.DefaultOutboundPacket;
+import org.onosproject.net.packet.DefaultPacketContext;
+import org.onosproject.net.packet.OutboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.net.packet.PacketServiceAdapter;
+import org.onosproject.net.topology.PathServiceAdapter;
+import org.onosproject.net.topology.TopologyEvent;
+import org.onosproject.net.topology.TopologyListener;
+import org.onosproject.net.topology.TopologyServiceAdapter;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DHCP relay component on a stand-in network, fed with synthetic DHCP
+ * packet contexts.
+ *
+ * By default a core switch (device 0) holds the DHCP server on port 1.
+ * Every edge switch k = 1..edges is linked from its port 1 to core port
+ * k + 1 and has one client on each of the ports 2..clients + 1. Other
+ * networks can be given as a {@link TestTopology}.
+ */
+public class TestDhcp {
+    public static final PortNumber SERVER_PORT = PortNumber.portNumber(1);
+    public static final MacAddress SERVER_MAC = MacAddress.valueOf("02:ff:00:00:00:01");
+    public static final int SERVER_IP = 0x0a000001;
+
+    public final AppComponent component = new AppComponent();
+    public final AtomicInteger sent = new AtomicInteger();
+    public final AtomicInteger emitted = new AtomicInteger();
+    // Switch every emitted packet was sent through
+    public final List<DeviceId> emittedThrough = Collections.synchronizedList(new ArrayList<DeviceId>());
+    public final AtomicInteger configLookups = new AtomicInteger();
+    // Forwarding objectives issued by the component, including removals
+    public final AtomicInteger objectives = new AtomicInteger();
+    // Treatments of the rules currently installed on every device, by selector
+    public final Map<DeviceId, Map<TrafficSelector, TrafficTreatment>> rules =
+        new ConcurrentHashMap<DeviceId, Map<TrafficSelector, TrafficTreatment>>();
+
+    /**
+     * How the stand-in flow objective service completes objectives.
+     */
+    public enum InstallMode {
+        // Installed and acknowledged within forward()
+        IMMEDIATE,
+        // Installed and acknowledged on completeInstalls()
+        DEFERRED,
+        // Never installed nor acknowledged
+        LOST
+    }
+
+    public volatile InstallMode installMode = InstallMode.IMMEDIATE;
+    // Relayed first packets, and how many of them found their whole path installed
+    public final AtomicInteger firstPackets = new AtomicInteger();
+    public final AtomicInteger firstPacketsDelivered = new AtomicInteger();
+
+    private final List<Map.Entry<DeviceId, ForwardingObjective>> deferred =
+        new ArrayList<Map.Entry<DeviceId, ForwardingObjective>>();
+
+    public final TestTopology topology;
+    private final ApplicationId appId = new DefaultApplicationId(1, "nctu.winlab.unicastdhcp");
+    private NameConfig config;
+    private NetworkConfigListener cfgListener;
+    private PacketProcessor processor;
+    private TopologyListener topologyListener;
+
+    public TestDhcp(int edges, int clients) {
+        this(TestTopology.star(edges, clients));
+    }
+
+    public TestDhcp(TestTopology topology) {
+        this.topology = topology;
+        component.cfgService = new MockNetworkConfigRegistry();
+        component.coreService = new MockCoreService();
+        component.flowRuleService = new FlowRuleServiceAdapter();
+        component.flowObjectiveService = new MockFlowObjectiveService();
+        component.packetService = new MockPacketService();
+        component.pathService = new MockPathService();
+        component.topologyService = new MockTopologyService();
+        component.edgePortService = new MockEdgePortService();
+        component.deviceService = new MockDeviceService();
+    }
+
+    public TestDhcp activate() {
+        component.activate();
+        return this;
+    }
+
+    public void deactivate() {
+        component.deactivate();
+    }
+
+    /**
+     * Pushes a new application config, as if uploaded through the network config service.
+     */
+    public void configure(PathMode mode) {
+        configure(mode, NameConfig.FLOW_THRESHOLD_DEFAULT);
+    }
+
+    /**
+     * Pushes a new application config with a CONTROLLER mode flow threshold.
+     */
+    public void configure(PathMode mode, int flowThreshold) {
+        configure(configNode(mode).put(NameConfig.FLOW_THRESHOLD, flowThreshold));
+    }
+
+    /**
+     * Creates the JSON of an application config, for tests which set more fields.
+     */
+    public ObjectNode configNode(PathMode mode) {
+        return new ObjectMapper().createObjectNode()
+            .put(NameConfig.SERVER_LOCATION, serverLocation().deviceId() + "/" + serverLocation().port())
+            .put(NameConfig.PATH_MODE, mode.name());
+    }
+
+    /**
+     * Pushes a new application config given as JSON.
+     */
+    public void configure(ObjectNode node) {
+        NameConfig next = new NameConfig();
+        next.init(appId, "UnicastDhcpConfig", node, new ObjectMapper(), cfg -> { });
+        NetworkConfigEvent.Type type = config == null ? NetworkConfigEvent.Type.CONFIG_ADDED
+                                                      : NetworkConfigEvent.Type.CONFIG_UPDATED;
+        config = next;
+        cfgListener.event(new NetworkConfigEvent(type, appId, NameConfig.class));
+    }
+
+    /**
+     * Removes the application config.
+     */
+    public void unconfigure() {
+        config = null;
+        cfgListener.event(new NetworkConfigEvent(NetworkConfigEvent.Type.CONFIG_REMOVED, appId, NameConfig.class));
+    }
+
+    public void process(PacketContext context) {
+        processor.process(context);
+    }
+
+    /**
+     * Notifies the component of a topology change, as if a link went up or down.
+     */
+    public void topologyChanged() {
+        topologyListener.event(new TopologyEvent(TopologyEvent.Type.TOPOLOGY_CHANGED, null,
+                                                 Collections.emptyList()));
+    }
+
+    /**
+     * Installs and acknowledges all objectives held back in DEFERRED mode.
+     */
+    public void completeInstalls() {
+        List<Map.Entry<DeviceId, ForwardingObjective>> pending;
+        synchronized (deferred) {
+            pending = new ArrayList<Map.Entry<DeviceId, ForwardingObjective>>(deferred);
+            deferred.clear();
+        }
+        for (Map.Entry<DeviceId, ForwardingObjective> entry: pending) {
+            install(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Gets the share of relayed first packets which found their whole path installed.
+     */
+    public double firstPacketSuccessRate() {
+        int count = firstPackets.get();
+        return count == 0 ? 0 : (double) firstPacketsDelivered.get() / count;
+    }
+
+    private void install(DeviceId deviceId, ForwardingObjective objective) {
+        Map<TrafficSelector, TrafficTreatment> selectors =
+            rules.computeIfAbsent(deviceId, id -> new ConcurrentHashMap<TrafficSelector, TrafficTreatment>());
+        if (objective.op() == Objective.Operation.REMOVE) {
+            selectors.remove(objective.selector());
+        } else {
+            selectors.put(objective.selector(), objective.treatment());
+        }
+        objective.context().ifPresent(context -> context.onSuccess(objective));
+    }
+
+    // Whether the rules of both directions are installed on the edge switch and the server switch
+    private boolean pathInstalled(MacAddress client, DeviceId edge) {
+        TrafficSelector c2s = DefaultTrafficSelector.builder(DhcpConfig.C2S_SELECTOR).matchEthSrc(client).build();
+        TrafficSelector s2c = DefaultTrafficSelector.builder(DhcpConfig.S2C_SELECTOR).matchEthDst(client).build();
+        for (DeviceId deviceId: Arrays.asList(edge, serverLocation().deviceId())) {
+            Map<TrafficSelector, TrafficTreatment> selectors = rules.getOrDefault(deviceId, Collections.emptyMap());
+            if (!selectors.containsKey(c2s) || !selectors.containsKey(s2c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int ruleCount() {
+        int count = 0;
+        for (Map<TrafficSelector, TrafficTreatment> selectors: rules.values()) {
+            count += selectors.size();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of installed rules which send packets to the controller.
+     */
+    public int puntingRules() {
+        int count = 0;
+        for (Map<TrafficSelector, TrafficTreatment> selectors: rules.values()) {
+            for (TrafficTreatment treatment: selectors.values()) {
+                for (Instruction instruction: treatment.allInstructions()) {
+                    if (instruction.type() == Instruction.Type.OUTPUT
+                            && ((Instructions.OutputInstruction) instruction).port().equals(PortNumber.CONTROLLER)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Follows a broadcast reply sent by the server through the installed
+     * shared rules, and gets the client ports it leaves the network through.
+     *
+     * @param vlan VLAN the server tags the reply with, or null if untagged
+     */
+    public Set<ConnectPoint> replyDelivery(VlanId vlan) {
+        return replyDelivery(vlan, MacAddress.BROADCAST);
+    }
+
+    /**
+     * Follows a reply sent by the server through the installed shared
+     * rules and the reply rules of the learned clients, and gets the
+     * client ports it leaves the network through. Copies to the
+     * controller are left out.
+     *
+     * @param vlan VLAN the server tags the reply with, or null if untagged
+     * @param dst destination address of the reply
+     */
+    public Set<ConnectPoint> replyDelivery(VlanId vlan, MacAddress dst) {
+        Set<ConnectPoint> delivered = new HashSet<ConnectPoint>();
+        Queue<DeviceId> queue = new ArrayDeque<DeviceId>();
+        Set<DeviceId> visited = new HashSet<DeviceId>();
+        queue.add(serverLocation().deviceId());
+        while (!queue.isEmpty()) {
+            DeviceId deviceId = queue.poll();
+            if (!visited.add(deviceId)) {
+                continue;
+            }
+            Map<TrafficSelector, TrafficTreatment> selectors = rules.getOrDefault(deviceId, Collections.emptyMap());
+            TrafficTreatment treatment = vlan == null ? null : selectors.get(
+                    DefaultTrafficSelector.builder(DhcpConfig.S2C_SELECTOR).matchVlanId(vlan).build());
+            if (treatment == null && vlan == null) {
+                treatment = selectors.get(
+                        DefaultTrafficSelector.builder(DhcpConfig.S2C_SELECTOR).matchEthDst(dst).build());
+            }
+            if (treatment == null) {
+                treatment = selectors.get(DhcpConfig.S2C_SELECTOR);
+            }
+            if (treatment == null) {
+                continue;
+            }
+            for (Instruction instruction: treatment.allInstructions()) {
+                if (instruction.type() != Instruction.Type.OUTPUT) {
+                    continue;
+                }
+                PortNumber port = ((Instructions.OutputInstruction) instruction).port();
+                if (port.equals(PortNumber.CONTROLLER)) {
+                    continue;
+                }
+                ConnectPoint out = new ConnectPoint(deviceId, port);
+                ConnectPoint peer = topology.peer(out);
+                if (peer != null) {
+                    queue.add(peer.deviceId());
+                } else {
+                    delivered.add(out);
+                }
+            }
+        }
+        return delivered;
+    }
+
+    public static DeviceId deviceId(int device) {
+        return DeviceId.deviceId(String.format("of:%016x", device + 1));
+    }
+
+    public ConnectPoint serverLocation() {
+        return topology.serverLocation();
+    }
+
+    public ConnectPoint clientLocation(int edge, int client) {
+        return topology.clientLocation(edge, client);
+    }
+
+    public static MacAddress clientMac(int edge, int client) {
+        return MacAddress.valueOf(0x020000000000L + ((long) edge << 16) + client);
+    }
+
+    /**
+     * Creates the context of a DHCPDISCOVER sent by a client.
+     */
+    public PacketContext discover(int edge, int client) {
+        return request(edge, client, DHCP.MsgType.DHCPDISCOVER, (edge << 16) | client);
+    }
+
+    /**
+     * Creates the context of a broadcast DHCP message sent by a client.
+     */
+    public PacketContext request(int edge, int client, DHCP.MsgType type, int xid) {
+        return dhcpPacket(clientLocation(edge, client), clientMac(edge, client), MacAddress.BROADCAST,
+                          DHCP.OPCODE_REQUEST, 68, 67, type, xid, clientMac(edge, client));
+    }
+
+    /**
+     * Creates the context of a broadcast DHCP message sent from any port with any client address.
+     */
+    public PacketContext request(ConnectPoint from, MacAddress client, DHCP.MsgType type, int xid) {
+        return dhcpPacket(from, client, MacAddress.BROADCAST, DHCP.OPCODE_REQUEST, 68, 67, type, xid, client);
+    }
+
+    /**
+     * Creates the context of a DHCP reply punted from the server port.
+     */
+    public PacketContext reply(int edge, int client, DHCP.MsgType type, int xid) {
+        return reply(serverLocation(), edge, client, type, xid);
+    }
+
+    /**
+     * Creates the context of a DHCP reply punted from any port, e.g. one of a rogue server.
+     */
+    public PacketContext reply(ConnectPoint from, int edge, int client, DHCP.MsgType type, int xid) {
+        return dhcpPacket(from, SERVER_MAC, clientMac(edge, client),
+                          DHCP.OPCODE_REPLY, 67, 68, type, xid, clientMac(edge, client));
+    }
+
+    private PacketContext dhcpPacket(ConnectPoint cp, MacAddress src, MacAddress dst, byte opcode,
+                                     int src_port, int dst_port, DHCP.MsgType type, int xid, MacAddress chaddr) {
+        DhcpOption msg_type = new DhcpOption()
+            .setCode(DHCP.DHCPOptionCode.OptionCode_MessageType.getValue())
+            .setLength((byte) 1)
+            .setData(new byte[] {(byte) type.getValue()});
+        DHCP dhcp = new DHCP()
+            .setOpCode(opcode)
+            .setHardwareType(DHCP.HWTYPE_ETHERNET)
+            .setHardwareAddressLength((byte) 6)
+            .setTransactionId(xid)
+            .setClientHardwareAddress(chaddr.toBytes())
+            .setOptions(Collections.singletonList(msg_type));
+        UDP udp = new UDP();
+        udp.setSourcePort(src_port);
+        udp.setDestinationPort(dst_port);
+        udp.setPayload(dhcp);
+        IPv4 ipv4 = new IPv4();
+        ipv4.setSourceAddress(opcode == DHCP.OPCODE_REQUEST ? 0 : SERVER_IP);
+        ipv4.setDestinationAddress(0xffffffff);
+        ipv4.setProtocol(IPv4.PROTOCOL_UDP);
+        ipv4.setPayload(udp);
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(src);
+        eth.setDestinationMACAddress(dst);
+        eth.setEtherType(Ethernet.TYPE_IPV4);
+        eth.setPayload(ipv4);
+
+        return new TestPacketContext(new DefaultInboundPacket(cp, eth, ByteBuffer.wrap(eth.serialize())),
+                new DefaultOutboundPacket(cp.deviceId(), DefaultTrafficTreatment.emptyTreatment(),
+                                          ByteBuffer.wrap(new byte[0])));
+    }
+
+    private class TestPacketContext extends DefaultPacketContext {
+        TestPacketContext(DefaultInboundPacket in, DefaultOutboundPacket out) {
+            super(System.currentTimeMillis(), in, out, false);
+        }
+
+        @Override
+        public void send() {
+            sent.incrementAndGet();
+        }
+    }
+
+    private static class MockCoreService extends CoreServiceAdapter {
+        @Override
+        public ApplicationId registerApplication(String name) {
+            return new DefaultApplicationId(1, name);
+        }
+    }
+
+    private class MockNetworkConfigRegistry extends NetworkConfigRegistryAdapter {
+        @Override
+        public void addListener(NetworkConfigListener listener) {
+            cfgListener = listener;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <S, C extends Config<S>> C getConfig(S subject, Class<C> configClass) {
+            configLookups.incrementAndGet();
+            return (C) config;
+        }
+    }
+
+    private class MockPacketService extends PacketServiceAdapter {
+        @Override
+        public void addProcessor(PacketProcessor processor, int priority) {
+            TestDhcp.this.processor = processor;
+        }
+
+        @Override
+        public void emit(OutboundPacket packet) {
+            emitted.incrementAndGet();
+            emittedThrough.add(packet.sendThrough());
+
+            // Ethernet source address of the relayed frame
+            ByteBuffer data = packet.data().duplicate();
+            byte[] src = new byte[MacAddress.MAC_ADDRESS_LENGTH];
+            data.position(MacAddress.MAC_ADDRESS_LENGTH);
+            data.get(src);
+            firstPackets.incrementAndGet();
+            if (pathInstalled(MacAddress.valueOf(src), packet.sendThrough())) {
+                firstPacketsDelivered.incrementAndGet();
+            }
+        }
+    }
+
+    private class MockPathService extends PathServiceAdapter {
+        @Override
+        public Set<Path> getPaths(ElementId src, ElementId dst) {
+            return topology.paths(src, dst);
+        }
+    }
+
+    private class MockTopologyService extends TopologyServiceAdapter {
+        @Override
+        public void addListener(TopologyListener listener) {
+            topologyListener = listener;
+        }
+    }
+
+    private class MockEdgePortService extends EdgePortServiceAdapter {
+        @Override
+        public Iterable<ConnectPoint> getEdgePoints() {
+            return topology.edgePoints();
+        }
+
+        @Override
+        public boolean isEdgePoint(ConnectPoint point) {
+            return topology.edgePoints().contains(point);
+        }
+    }
+
+    // Every switch is available and every port is up
+    private static class MockDeviceService extends DeviceServiceAdapter {
+        @Override
+        public boolean isAvailable(DeviceId deviceId) {
+            return true;
+        }
+
+        @Override
+        public Port getPort(ConnectPoint cp) {
+            return new DefaultPort(null, cp.port(), true);
+        }
+    }
+
+    private class MockFlowObjectiveService extends FlowObjectiveServiceAdapter {
+        @Override
+        public void forward(DeviceId deviceId, ForwardingObjective objective) {
+            objectives.incrementAndGet();
+            switch (installMode) {
+                case IMMEDIATE:
+                    install(deviceId, objective);
+                    break;
+                case DEFERRED:
+                    synchronized (deferred) {
+                        deferred.add(new AbstractMap.SimpleEntry<DeviceId, ForwardingObjective>(deviceId, objective));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.onlab.graph.ScalarWeight;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DefaultPath;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.ElementId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.provider.ProviderId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Synthetic network for the DHCP relay tests.
+ *
+ * Ports are numbered per switch in the order they are attached, starting
+ * with the DHCP server on port 1 of its switch, then the links, and last the
+ * clients. Every edge switch has the same number of clients. Paths are the
+ * shortest ones found by a breadth-first search, one per pair of switches.
+ */
+public final class TestTopology {
+    private final List<DeviceId> devices = new ArrayList<DeviceId>();
+    private final List<Link> links = new ArrayList<Link>();
+    private final Map<DeviceId, List<Link>> ingress = new HashMap<DeviceId, List<Link>>();
+    private final Map<DeviceId, Integer> lastPort = new HashMap<DeviceId, Integer>();
+    private final List<DeviceId> edgeSwitches = new ArrayList<DeviceId>();
+    private final Map<DeviceId, Integer> firstClientPort = new HashMap<DeviceId, Integer>();
+    private final int clients;
+    private ConnectPoint server;
+
+    // Link towards a destination switch from every other switch, by destination
+    private final ConcurrentHashMap<DeviceId, Map<DeviceId, Link>> routes =
+        new ConcurrentHashMap<DeviceId, Map<DeviceId, Link>>();
+
+    private TestTopology(int switches, int clients) {
+        this.clients = clients;
+        for (int i = 0; i < switches; i++) {
+            DeviceId deviceid = TestDhcp.deviceId(i);
+            devices.add(deviceid);
+            ingress.put(deviceid, new ArrayList<Link>());
+            lastPort.put(deviceid, 0);
+        }
+    }
+
+    /**
+     * Creates a core switch (device 0) with the server, linked from port 1
+     * of every edge switch k = 1..edges to its port k + 1.
+     */
+    public static TestTopology star(int edges, int clients) {
+        TestTopology topology = new TestTopology(edges + 1, clients);
+        topology.attachServer(0);
+        for (int k = 1; k <= edges; k++) {
+            topology.connect(k, 0);
+        }
+        for (int k = 1; k <= edges; k++) {
+            topology.attachClients(k);
+        }
+        return topology;
+    }
+
+    /**
+     * Creates a k-ary fat tree of 5k^2/4 switches, with the server on the
+     * first core switch and the clients on the k^2/2 edge switches.
+     */
+    public static TestTopology fatTree(int k, int clients) {
+        if (k < 2 || k % 2 != 0) {
+            throw new IllegalArgumentException("Fat tree arity must be even: " + k);
+        }
+        int half = k / 2;
+        int cores = half * half;
+        int aggs = k * half;
+        TestTopology topology = new TestTopology(cores + 2 * aggs, clients);
+        topology.attachServer(0);
+        for (int pod = 0; pod < k; pod++) {
+            for (int e = 0; e < half; e++) {
+                for (int a = 0; a < half; a++) {
+                    topology.connect(cores + aggs + pod * half + e, cores + pod * half + a);
+                }
+            }
+        }
+        for (int pod = 0; pod < k; pod++) {
+            for (int a = 0; a < half; a++) {
+                for (int c = 0; c < half; c++) {
+                    topology.connect(cores + pod * half + a, a * half + c);
+                }
+            }
+        }
+        for (int e = 0; e < aggs; e++) {
+            topology.attachClients(cores + aggs + e);
+        }
+        return topology;
+    }
+
+    /**
+     * Creates a ring of switches, each linked to the next one, with the
+     * server on switch 0 and clients on every switch.
+     */
+    public static TestTopology ring(int switches, int clients) {
+        if (switches < 3) {
+            throw new IllegalArgumentException("Ring needs at least 3 switches: " + switches);
+        }
+        TestTopology topology = new TestTopology(switches, clients);
+        topology.attachServer(0);
+        for (int i = 0; i < switches; i++) {
+            topology.connect(i, (i + 1) % switches);
+        }
+        for (int i = 0; i < switches; i++) {
+            topology.attachClients(i);
+        }
+        return topology;
+    }
+
+    private PortNumber nextPort(DeviceId deviceid) {
+        int port = lastPort.get(deviceid) + 1;
+        lastPort.put(deviceid, port);
+        return PortNumber.portNumber(port);
+    }
+
+    private void attachServer(int device) {
+        DeviceId deviceid = devices.get(device);
+        server = new ConnectPoint(deviceid, nextPort(deviceid));
+    }
+
+    // Links two switches in both directions
+    private void connect(int a, int b) {
+        ConnectPoint cp_a = new ConnectPoint(devices.get(a), nextPort(devices.get(a)));
+        ConnectPoint cp_b = new ConnectPoint(devices.get(b), nextPort(devices.get(b)));
+        addLink(cp_a, cp_b);
+        addLink(cp_b, cp_a);
+    }
+
+    private void addLink(ConnectPoint src, ConnectPoint dst) {
+        Link link = DefaultLink.builder()
+            .providerId(ProviderId.NONE)
+            .src(src)
+            .dst(dst)
+            .type(Link.Type.DIRECT)
+            .state(Link.State.ACTIVE)
+            .build();
+        links.add(link);
+        ingress.get(dst.deviceId()).add(link);
+    }
+
+    private void attachClients(int device) {
+        DeviceId deviceid = devices.get(device);
+        edgeSwitches.add(deviceid);
+        firstClientPort.put(deviceid, lastPort.get(deviceid) + 1);
+        lastPort.put(deviceid, lastPort.get(deviceid) + clients);
+    }
+
+    public List<DeviceId> devices() {
+        return Collections.unmodifiableList(devices);
+    }
+
+    public List<Link> links() {
+        return Collections.unmodifiableList(links);
+    }
+
+    public int edgeCount() {
+        return edgeSwitches.size();
+    }
+
+    public int clients() {
+        return clients;
+    }
+
+    /**
+     * Gets an edge switch, numbered from 1.
+     */
+    public DeviceId edgeSwitch(int edge) {
+        return edgeSwitches.get(edge - 1);
+    }
+
+    public ConnectPoint serverLocation() {
+        return server;
+    }
+
+    public ConnectPoint clientLocation(int edge, int client) {
+        DeviceId deviceid = edgeSwitch(edge);
+        return new ConnectPoint(deviceid, PortNumber.portNumber(firstClientPort.get(deviceid) + client));
+    }
+
+    /**
+     * Gets the port at the other end of a link, or null if no link is
+     * attached to a port.
+     */
+    public ConnectPoint peer(ConnectPoint point) {
+        for (Link link: ingress.get(point.deviceId())) {
+            if (link.dst().equals(point)) {
+                return link.src();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the server and client ports.
+     */
+    public List<ConnectPoint> edgePoints() {
+        List<ConnectPoint> points = new ArrayList<ConnectPoint>();
+        points.add(server);
+        for (int k = 1; k <= edgeSwitches.size(); k++) {
+            for (int c = 0; c < clients; c++) {
+                points.add(clientLocation(k, c));
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Gets the shortest path between two switches, or no path if they are
+     * the same or not switches of this network.
+     */
+    public Set<Path> paths(ElementId src, ElementId dst) {
+        if (src.equals(dst) || !ingress.containsKey(src) || !ingress.containsKey(dst)) {
+            return Collections.emptySet();
+        }
+        Map<DeviceId, Link> next = routes.computeIfAbsent((DeviceId) dst, this::routesTo);
+        List<Link> hops = new ArrayList<Link>();
+        DeviceId at = (DeviceId) src;
+        while (!at.equals(dst)) {
+            Link link = next.get(at);
+            if (link == null) {
+                return Collections.emptySet();
+            }
+            hops.add(link);
+            at = link.dst().deviceId();
+        }
+        return Collections.singleton(new DefaultPath(ProviderId.NONE, hops, ScalarWeight.toWeight(hops.size())));
+    }
+
+    // Breadth-first search backwards from the destination
+    private Map<DeviceId, Link> routesTo(DeviceId dst) {
+        Map<DeviceId, Link> next = new HashMap<DeviceId, Link>();
+        Queue<DeviceId> queue = new ArrayDeque<DeviceId>();
+        queue.add(dst);
+        while (!queue.isEmpty()) {
+            DeviceId at = queue.poll();
+            for (Link link: ingress.get(at)) {
+                DeviceId from = link.src().deviceId();
+                if (!from.equals(dst) && !next.containsKey(from)) {
+                    next.put(from, link);
+                    queue.add(from);
+                }
+            }
+        }
+        return next;
+    }
+}
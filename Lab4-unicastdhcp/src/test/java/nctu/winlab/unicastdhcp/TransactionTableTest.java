@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.unicastdhcp;
+
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of the DHCP transaction table.
+ */
+public class TransactionTableTest {
+    private static final long TTL = 1000;
+
+    private final MacAddress client = MacAddress.valueOf("02:00:00:00:00:01");
+    private final DeviceId edge = DeviceId.deviceId("of:0000000000000001");
+    private final ConnectPoint server = ConnectPoint.deviceConnectPoint("of:0000000000000002/1");
+    private final Map<DeviceId, PortNumber> route = Collections.singletonMap(edge, PortNumber.portNumber(1));
+
+    @Test
+    public void followsOngoingTransaction() {
+        TransactionTable table = new TransactionTable(16, TTL);
+        table.start(client, 0x1234, server, route, true, 0);
+
+        TransactionTable.Transaction transaction = table.get(client, 0x1234, 10);
+        assertNotNull(transaction);
+        assertEquals(PortNumber.portNumber(1), transaction.route(edge));
+        assertNull(transaction.route(server.deviceId()));
+        assertNull(table.get(client, 0x4321, 10));
+        assertEquals(1, table.continued());
+    }
+
+    @Test
+    public void expires() {
+        TransactionTable table = new TransactionTable(16, TTL);
+        table.start(client, 1, server, route, true, 0);
+        table.start(client, 2, server, route, true, 500);
+
+        assertEquals(1, table.purgeExpired(TTL + 1));
+        assertNull(table.get(client, 1, TTL + 1));
+        assertNull(table.get(client, 2, TTL + 501));
+        assertEquals(2, table.expirations());
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void evictsOldestWhenFull() {
+        TransactionTable table = new TransactionTable(4, TTL);
+        for (int xid = 0; xid < 10; xid++) {
+            table.start(client, xid, server, route, true, 0);
+        }
+
+        assertEquals(4, table.size());
+        assertEquals(6, table.evictions());
+        assertNull(table.get(client, 5, 0));
+        assertNotNull(table.get(client, 6, 0));
+    }
+
+    @Test
+    public void measuresAckLatencyOnce() {
+        TransactionTable table = new TransactionTable(16, TTL);
+        table.start(client, 1, server, route, true, 100);
+        table.start(client, 2, server, route, false, 100);
+
+        assertEquals(300, table.acknowledge(client, 1, 400));
+        assertEquals(-1, table.acknowledge(client, 1, 500));
+        // Started by a DHCPREQUEST, so there is no DHCPDISCOVER to measure from
+        assertEquals(-1, table.acknowledge(client, 2, 500));
+        assertEquals(1, table.acks());
+        assertEquals(300, table.averageAckNanos());
+    }
+
+    @Test
+    public void forgetsServer() {
+        TransactionTable table = new TransactionTable(16, TTL);
+        table.start(client, 1, server, route, true, 0);
+        table.start(client, 2, ConnectPoint.deviceConnectPoint("of:0000000000000003/1"), route, true, 0);
+
+        assertEquals(1, table.removeServer(server));
+        assertNull(table.get(client, 1, 0));
+        assertNotNull(table.get(client, 2, 0));
+    }
+}
@@ -20,11 +20,14 @@ import org.onlab.packet.Ethernet;
 import org.onlab.packet.IPv4;
 import org.onlab.packet.Ip4Prefix;
 import org.onlab.packet.Ip4Address;
+import org.onlab.packet.IpAddress;
 import org.onlab.packet.MacAddress;
 import org.onlab.packet.TCP;
 import org.onlab.packet.TpPort;
 import org.onlab.packet.UDP;
+import org.onlab.packet.VlanId;
 import org.onosproject.core.ApplicationId;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.CoreService;
 import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.DefaultEdgeLink;
@@ -36,9 +39,27 @@ import org.onosproject.net.Link;
 import org.onosproject.net.Path;
 import org.onosproject.net.PortNumber;
 import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
 import org.onosproject.net.host.HostService;
+import org.onosproject.net.intf.Interface;
+import org.onosproject.net.intf.InterfaceService;
+import org.onosproject.net.meter.Band;
+import org.onosproject.net.meter.DefaultBand;
+import org.onosproject.net.meter.DefaultMeterRequest;
+import org.onosproject.net.meter.Meter;
+import org.onosproject.net.meter.MeterId;
+import org.onosproject.net.meter.MeterRequest;
+import org.onosproject.net.meter.MeterService;
 import org.onosproject.net.packet.DefaultOutboundPacket;
 import org.onosproject.net.packet.InboundPacket;
 import org.onosproject.net.packet.OutboundPacket;
@@ -58,17 +79,41 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.ARP_HOT_THRESHOLD;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.ARP_HOT_THRESHOLD_DEFAULT;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.ARP_OFFLOAD;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.ARP_OFFLOAD_DEFAULT;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.ARP_OFFLOAD_RATE;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.ARP_OFFLOAD_RATE_DEFAULT;
 import static org.onlab.util.Tools.get;
+import static org.onlab.util.Tools.groupedThreads;
 
 /**
  * Skeletal ONOS application component.
  */
-@Component(immediate = true)
+@Component(immediate = true,
+           service = {AppComponent.class},
+           property = {
+               ARP_OFFLOAD + ":Boolean=" + ARP_OFFLOAD_DEFAULT,
+               ARP_HOT_THRESHOLD + ":Integer=" + ARP_HOT_THRESHOLD_DEFAULT,
+               ARP_OFFLOAD_RATE + ":Integer=" + ARP_OFFLOAD_RATE_DEFAULT,
+           })
 public class AppComponent {
 
     private ApplicationId appId;
@@ -77,32 +122,251 @@ public class AppComponent {
 
     private ArpPacketProcessor processor = new ArpPacketProcessor();
 
-    private Map<Ip4Address, MacAddress> arpTable = new HashMap<>();
+    // Bindings live this long after their host last sent an ARP packet, in seconds
+    private static final int ARP_TTL = 300;
+
+    // Bindings in use are probed this long before they expire, in seconds
+    private static final int ARP_PROBE_LEAD = 30;
+
+    // Expired bindings are purged and probes sent this often, in seconds
+    private static final int ARP_MAINTENANCE_INTERVAL = 5;
+
+    private static final int ARP_CACHE_CAPACITY = 65536;
+
+    // Sender of the probes, locally administered so it is never a host's
+    private static final MacAddress PROBE_MAC = MacAddress.valueOf("02:00:00:00:ff:fe");
+
+    private final ArpCache arpCache = new ArpCache(ARP_CACHE_CAPACITY, TimeUnit.SECONDS.toNanos(ARP_TTL),
+                                                   TimeUnit.SECONDS.toNanos(ARP_PROBE_LEAD));
+
+    // Requests for an address are flooded at most this often, in milliseconds
+    private static final int ARP_FLOOD_INTERVAL = 1000;
+
+    // Requesters wait this long for an answer, in milliseconds
+    private static final int ARP_PENDING_TIMEOUT = 3000;
+
+    private static final int ARP_PENDING_CAPACITY = 4096;
+
+    private static final int ARP_MAX_WAITERS = 64;
+
+    private final PendingArpTable pendingArp = new PendingArpTable(ARP_PENDING_CAPACITY, ARP_MAX_WAITERS,
+            TimeUnit.MILLISECONDS.toNanos(ARP_FLOOD_INTERVAL), TimeUnit.MILLISECONDS.toNanos(ARP_PENDING_TIMEOUT));
+
+    // Punt rules of hot targets take precedence over the ARP interception rules
+    private static final int ARP_OFFLOAD_PRIORITY = PacketPriority.CONTROL.priorityValue() + 1000;
+
+    private static final int ARP_MAX_HOT_TARGETS = 64;
+
+    private final HotArpTargets hotTargets = new HotArpTargets(ARP_MAX_HOT_TARGETS);
+
+    // Rules and meters installed for every hot target
+    private final Map<Integer, List<Offload>> offloads = new ConcurrentHashMap<Integer, List<Offload>>();
+
+    private ScheduledExecutorService arpMaintenance;
+
+    private final ArpHostListener hostListener = new ArpHostListener();
+
+    // Requests for addresses neither cached nor known to the host service, and the packet-outs
+    // and port outputs they cost
+    private final LongAdder unresolvedRequests = new LongAdder();
+    private final LongAdder floodPacketOuts = new LongAdder();
+    private final LongAdder floodOutputs = new LongAdder();
+    private final LongAdder hostServiceAnswers = new LongAdder();
+
+    /* Configurable properties */
+    /** Whether ARP requests for hot targets are rate limited by the switches. */
+    private volatile boolean arpOffload = ARP_OFFLOAD_DEFAULT;
 
-    private Map<MacAddress, ConnectPoint> hostLocation = new HashMap<>();
+    /** ARP requests per second for an address which make it a hot target. */
+    private int arpHotThreshold = ARP_HOT_THRESHOLD_DEFAULT;
+
+    /** ARP requests per second for a hot target each switch sends to the controller. */
+    private int arpOffloadRate = ARP_OFFLOAD_RATE_DEFAULT;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService cfgService;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected CoreService coreService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected FlowRuleService flowRuleService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected MeterService meterService;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected EdgePortService edgePortService;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected PacketService packetService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected HostService hostService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected InterfaceService interfaceService;
+
     @Activate
-    protected void activate() {
+    protected void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
+        modified(context);
         this.appId = coreService.registerApplication("nctu.winlab.ProxyArp");
+        arpMaintenance = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("nctu/proxyarp", "arp-maintenance", log));
+        arpMaintenance.scheduleAtFixedRate(() -> maintainArpCache(System.nanoTime()), ARP_MAINTENANCE_INTERVAL,
+                                           ARP_MAINTENANCE_INTERVAL, TimeUnit.SECONDS);
+        hostService.addListener(hostListener);
+        long now = System.nanoTime();
+        for (Host host: hostService.getHosts()) {
+            learnHost(host, now);
+        }
         packetService.addProcessor(this.processor, PacketProcessor.director(2));
         log.info("Started");
     }
 
     @Deactivate
     protected void deactivate() {
+        cfgService.unregisterProperties(getClass(), false);
         packetService.removeProcessor(processor);
+        hostService.removeListener(hostListener);
+        arpMaintenance.shutdownNow();
+        withdrawOffloads();
+        arpCache.clear();
+        pendingArp.clear();
+        hotTargets.clear();
         log.info("Stopped");
     }
 
+    @Modified
+    public void modified(ComponentContext context) {
+        Dictionary<?, ?> properties = context != null ? context.getProperties() : new Properties();
+        if (context != null) {
+            arpOffload = getBooleanProperty(properties, ARP_OFFLOAD, arpOffload);
+            arpHotThreshold = getIntProperty(properties, ARP_HOT_THRESHOLD, arpHotThreshold);
+            int rate = getIntProperty(properties, ARP_OFFLOAD_RATE, arpOffloadRate);
+            if (rate != arpOffloadRate) {
+                // Hot targets get new meters once detected again
+                arpOffloadRate = rate;
+                withdrawOffloads();
+            }
+        }
+        if (!arpOffload) {
+            withdrawOffloads();
+        }
+        log.info("Reconfigured. ARP offload: {}, hot threshold: {}/s, offload rate: {}/s",
+                arpOffload, arpHotThreshold, arpOffloadRate);
+    }
+
+    private boolean getBooleanProperty(Dictionary<?, ?> properties, String name, boolean orig) {
+        String value = get(properties, name);
+        if (value == null || value.isEmpty()) {
+            return orig;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    private int getIntProperty(Dictionary<?, ?> properties, String name, int orig) {
+        String value = get(properties, name);
+        if (value == null || value.isEmpty()) {
+            return orig;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed >= 1) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        log.warn("Invalid value for {}: {}", name, value);
+        return orig;
+    }
+
+    /**
+     * Gets the ARP cache, including its hit/miss/stale counters.
+     */
+    public ArpCache arpCache() {
+        return arpCache;
+    }
+
+    /**
+     * Gets the number of requests for addresses unknown to both the cache
+     * and the host service, which had to be flooded.
+     */
+    public long unresolvedRequestCount() {
+        return unresolvedRequests.sum();
+    }
+
+    /**
+     * Gets the number of packet-outs sent to flood unresolved requests,
+     * one per switch and request.
+     */
+    public long floodPacketOutCount() {
+        return floodPacketOuts.sum();
+    }
+
+    /**
+     * Gets the number of edge ports unresolved requests were flooded to.
+     */
+    public long floodOutputCount() {
+        return floodOutputs.sum();
+    }
+
+    /**
+     * Gets the number of requests answered from the host service after a cache miss.
+     */
+    public long hostServiceAnswerCount() {
+        return hostServiceAnswers.sum();
+    }
+
+    /**
+     * Gets the requests waiting for an address to be resolved, including
+     * the flood/coalesced/answered/timed out counters.
+     */
+    public PendingArpTable pendingArp() {
+        return pendingArp;
+    }
+
+    /**
+     * Gets the hot targets, including their promotion/demotion counters.
+     */
+    public HotArpTargets hotTargets() {
+        return hotTargets;
+    }
+
+    /**
+     * Purges the expired bindings and the requests which waited too long,
+     * and probes the bindings in use which are about to expire. A host answering the probe confirms its binding.
+     * Run by a timer, or directly by tests.
+     */
+    void maintainArpCache(long now) {
+        try {
+            int purged = arpCache.purgeExpired(now);
+            int dropped = pendingArp.expire(now);
+            if (dropped > 0) {
+                log.debug("{} ARP requests timed out, {} addresses still pending", dropped, pendingArp.size());
+            }
+            Map<Integer, ArpCache.Binding> due = arpCache.dueForProbe(now);
+            for (Map.Entry<Integer, ArpCache.Binding> entry: due.entrySet()) {
+                // Sent from 0.0.0.0 like an RFC 5227 probe, so the host caches nothing for it
+                ArpCache.Binding binding = entry.getValue();
+                Ethernet probe = ARP.buildArpRequest(PROBE_MAC.toBytes(), new byte[4], binding.mac().toBytes(),
+                        Ip4Address.valueOf(entry.getKey()).toOctets(), binding.mac().toBytes(), Ethernet.VLAN_UNTAGGED);
+                packetOut(probe, binding.location());
+            }
+            if (arpOffload) {
+                updateOffloads(now);
+            }
+            if (purged > 0 || !due.isEmpty()) {
+                log.debug("ARP cache: {} bindings expired, {} probed, {} left", purged, due.size(), arpCache.size());
+            }
+        } catch (RuntimeException e) {
+            // Keep the task scheduled
+            log.warn("ARP cache maintenance failed", e);
+        }
+    }
+
     private class ArpPacketProcessor implements PacketProcessor {
         @Override
         public void process(PacketContext context) {
@@ -139,11 +403,20 @@ public class AppComponent {
             MacAddress dst_mac = MacAddress.valueOf(arp_pkt.getTargetHardwareAddress());
             Ip4Address src_ip = Ip4Address.valueOf(arp_pkt.getSenderProtocolAddress());
             Ip4Address dst_ip = Ip4Address.valueOf(arp_pkt.getTargetProtocolAddress());
-
-            MacAddress orig_mac = arpTable.get(src_ip);
-            if (orig_mac == null || !orig_mac.equals(src_mac)) {
-                log.info("UPDATE TABLE. {}[{}] -> [{}]", src_ip, orig_mac, src_mac);
-                arpTable.put(src_ip, src_mac);
+            long now = System.nanoTime();
+
+            // Probes are sent from 0.0.0.0, which binds nothing
+            int answered = 0;
+            if (src_ip.toInt() != 0) {
+                MacAddress orig_mac = arpCache.learn(src_ip.toInt(), src_mac, in_pkt.receivedFrom(), now);
+                if (orig_mac == null || !orig_mac.equals(src_mac)) {
+                    log.info("UPDATE TABLE. {}[{}] -> [{}]", src_ip, orig_mac, src_mac);
+                }
+                if (orig_mac != null && !orig_mac.equals(src_mac)) {
+                    withdrawOffload(src_ip.toInt());
+                }
+                // Any ARP packet of a host resolves it for those waiting
+                answered = answerWaiters(src_ip, src_mac, now);
             }
 
             if (arp_pkt.isGratuitous()) {
@@ -154,25 +427,54 @@ public class AppComponent {
             }
 
             if (arp_pkt.getOpCode() == ARP.OP_REQUEST) {
-                MacAddress target_mac = arpTable.get(dst_ip);
-                if (target_mac == null) {
-                    // Send to all edge ports
-                    log.info("TABLE MISS. Send request to edge ports");
-                    hostLocation.put(src_mac, in_pkt.receivedFrom());
-                    packetOutEdgePorts(eth_pkt, in_pkt.receivedFrom());
+                VlanId vlan = VlanId.vlanId(eth_pkt.getVlanID());
+                if (arpOffload) {
+                    hotTargets.record(dst_ip.toInt());
+                }
+                ArpCache.Binding target = arpCache.lookup(dst_ip.toInt(), now);
+                if (target == null) {
+                    target = resolveFromHostService(dst_ip, vlan, now);
+                }
+                if (target == null) {
+                    // Flood as a last resort, only where the target can be and once per interval
+                    unresolvedRequests.increment();
+                    // For a reply the pending requests do not cover, e.g. one sent later
+                    arpCache.learnRequester(src_mac, in_pkt.receivedFrom(), now);
+                    if (pendingArp.await(dst_ip.toInt(), eth_pkt, in_pkt.receivedFrom(), now)) {
+                        int sent = packetOutEdgePorts(eth_pkt, floodScope(dst_ip, vlan), in_pkt.receivedFrom());
+                        log.info("TABLE MISS. Send request to {} edge ports", sent);
+                    } else {
+                        log.debug("TABLE MISS. Request for {} already flooded", dst_ip);
+                    }
                     context.block();
                 } else {
                     // Directly reply
-                    log.info("TABLE HIT. Requested MAC = {}", target_mac);
+                    log.info("TABLE HIT. Requested MAC = {}", target.mac());
 
-                    Ethernet resp = ARP.buildArpReply(dst_ip, target_mac, eth_pkt);
+                    Ethernet resp = ARP.buildArpReply(dst_ip, target.mac(), eth_pkt);
                     packetOut(resp, in_pkt.receivedFrom());
 
                     context.block();
                 }
             } else if (arp_pkt.getOpCode() == ARP.OP_REPLY) {
+                if (dst_mac.equals(PROBE_MAC)) {
+                    // Answer to a probe, which confirmed the binding above
+                    log.debug("Probe answered by {}", src_ip);
+                    context.block();
+                    return;
+                }
+
                 log.info("RECV PEPLY. Requested MAC = {}", src_mac);
-                ConnectPoint cp = hostLocation.get(dst_mac);
+                if (answered > 0) {
+                    // Relayed to all its requesters above
+                    context.block();
+                    return;
+                }
+
+                // Not asked through the proxy, so sent to the host it is addressed to
+                ArpCache.Binding requester = arpCache.peek(dst_ip.toInt(), now);
+                ConnectPoint cp = requester != null && requester.mac().equals(dst_mac)
+                        ? requester.location() : arpCache.requesterLocation(dst_mac, now);
                 if (cp == null) {
                     log.warn("Received ARP_REPLY but no known connect point for {}", dst_mac);
                     return;
@@ -185,13 +487,281 @@ public class AppComponent {
         }
     }
 
-    private void packetOutEdgePorts(Ethernet pkt, ConnectPoint except) {
-        for (ConnectPoint cp: edgePortService.getEdgePoints()) {
+    // Answers the requests waiting for an address, each on the port it came from
+    private int answerWaiters(Ip4Address ip, MacAddress mac, long now) {
+        List<PendingArpTable.Waiter> waiters = pendingArp.resolve(ip.toInt(), now);
+        for (PendingArpTable.Waiter waiter: waiters) {
+            packetOut(ARP.buildArpReply(ip, mac, waiter.request()), waiter.location());
+        }
+        return waiters.size();
+    }
+
+    // Looks an address up in the host service, and caches what it knows
+    private ArpCache.Binding resolveFromHostService(Ip4Address ip, VlanId vlan, long now) {
+        for (Host host: hostService.getHostsByIp(ip)) {
+            if (host.location() != null && host.vlan().equals(vlan)) {
+                arpCache.learn(ip.toInt(), host.mac(), host.location(), now);
+                hostServiceAnswers.increment();
+                return arpCache.peek(ip.toInt(), now);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the edge ports a request for an unknown address is flooded to:
+     * those of the interfaces in the subnet of the address, else those of
+     * the interfaces in the VLAN of the request, else all of them.
+     */
+    private Iterable<ConnectPoint> floodScope(Ip4Address target, VlanId vlan) {
+        Set<Interface> interfaces = interfaceService.getMatchingInterfaces(target);
+        if (interfaces.isEmpty()) {
+            interfaces = interfaceService.getInterfacesByVlan(vlan);
+        }
+        if (interfaces.isEmpty()) {
+            return edgePortService.getEdgePoints();
+        }
+
+        // Never towards another switch, which would punt the request back
+        Set<ConnectPoint> ports = new LinkedHashSet<ConnectPoint>();
+        for (Interface intf: interfaces) {
+            if (edgePortService.isEdgePoint(intf.connectPoint())) {
+                ports.add(intf.connectPoint());
+            }
+        }
+        return ports;
+    }
+
+    /**
+     * Floods a frame out of edge ports with one packet-out per switch,
+     * which outputs it to all of its ports at once. The frame is serialized
+     * once, and every packet-out gets its own view of the same bytes.
+     *
+     * @return the number of ports the frame was sent to
+     */
+    private int packetOutEdgePorts(Ethernet pkt, Iterable<ConnectPoint> ports, ConnectPoint except) {
+        Map<DeviceId, TrafficTreatment.Builder> treatments = new LinkedHashMap<DeviceId, TrafficTreatment.Builder>();
+        int outputs = 0;
+        for (ConnectPoint cp: ports) {
             if (cp.equals(except)) {
                 continue;
             }
 
-            packetOut(pkt, cp);
+            treatments.computeIfAbsent(cp.deviceId(), id -> DefaultTrafficTreatment.builder()).setOutput(cp.port());
+            outputs++;
+        }
+        if (treatments.isEmpty()) {
+            return 0;
+        }
+
+        ByteBuffer data = ByteBuffer.wrap(pkt.serialize()).asReadOnlyBuffer();
+        for (Map.Entry<DeviceId, TrafficTreatment.Builder> entry: treatments.entrySet()) {
+            packetService.emit(new DefaultOutboundPacket(entry.getKey(), entry.getValue().build(), data.duplicate()));
+        }
+        floodPacketOuts.add(treatments.size());
+        floodOutputs.add(outputs);
+        return outputs;
+    }
+
+    private void learnHost(Host host, long now) {
+        if (host.location() == null) {
+            return;
+        }
+        for (IpAddress ip: host.ipAddresses()) {
+            if (ip.isIp4()) {
+                MacAddress old_mac = arpCache.learn(ip.getIp4Address().toInt(), host.mac(), host.location(), now);
+                if (old_mac != null && !old_mac.equals(host.mac())) {
+                    withdrawOffload(ip.getIp4Address().toInt());
+                }
+                answerWaiters(ip.getIp4Address(), host.mac(), now);
+            }
+        }
+    }
+
+    // Forgets the addresses of a host, except those it still has
+    private void forgetHost(Host host, Set<IpAddress> kept) {
+        for (IpAddress ip: host.ipAddresses()) {
+            if (ip.isIp4() && !kept.contains(ip) && arpCache.remove(ip.getIp4Address().toInt(), host.mac())) {
+                withdrawOffload(ip.getIp4Address().toInt());
+            }
+        }
+    }
+
+    /**
+     * Withdraws the hot targets whose binding is gone or which cooled down,
+     * and offloads the targets which got hot since the last run.
+     */
+    private void updateOffloads(long now) {
+        for (int target: hotTargets.hot()) {
+            if (arpCache.peek(target, now) == null) {
+                withdrawOffload(target);
+            }
+        }
+
+        // Most requests for a hot target are dropped by the meters, so its rate is read from the rule counters
+        Map<FlowId, FlowEntry> entries = new HashMap<FlowId, FlowEntry>();
+        for (FlowEntry entry: flowRuleService.getFlowEntriesById(appId)) {
+            entries.put(entry.id(), entry);
+        }
+        for (Map.Entry<Integer, List<Offload>> target: offloads.entrySet()) {
+            boolean sampled = false;
+            double rate = 0;
+            for (Offload offload: target.getValue()) {
+                sampled |= offload.sample(entries.get(offload.rule.id()));
+                rate += offload.rate;
+            }
+            if (sampled && rate < arpHotThreshold) {
+                log.info("HOT TARGET. {} down to {} ARP requests/s", Ip4Address.valueOf(target.getKey()),
+                         String.format("%.1f", rate));
+                withdrawOffload(target.getKey());
+            }
+        }
+
+        for (int target: hotTargets.endWindow((long) arpHotThreshold * ARP_MAINTENANCE_INTERVAL)) {
+            // Only addresses the proxy can answer, since punted requests are answered here
+            if (arpCache.peek(target, now) != null) {
+                offload(target);
+            }
+        }
+    }
+
+    /**
+     * Installs on every switch with edge ports a rule sending the ARP
+     * requests for a hot target to the controller through a meter, so each
+     * switch punts them at most at the offload rate. Requests over the
+     * rate are dropped by the switch and retried by their host.
+     *
+     * A rule cannot answer the requests itself: the reply must carry the
+     * MAC and IPv4 addresses of each requester, which OpenFlow 1.3 can only
+     * set to constants and cannot copy from the request.
+     */
+    private void offload(int target) {
+        synchronized (offloads) {
+            if (!hotTargets.add(target)) {
+                return;
+            }
+            Set<DeviceId> devices = new LinkedHashSet<DeviceId>();
+            for (ConnectPoint cp: edgePortService.getEdgePoints()) {
+                devices.add(cp.deviceId());
+            }
+
+            TrafficSelector selector = DefaultTrafficSelector.builder()
+                .matchEthType(Ethernet.TYPE_ARP)
+                .matchArpOp(ARP.OP_REQUEST)
+                .matchArpTpa(Ip4Address.valueOf(target))
+                .build();
+            List<Offload> installed = new ArrayList<Offload>();
+            for (DeviceId id: devices) {
+                Band band = DefaultBand.builder()
+                    .ofType(Band.Type.DROP)
+                    .withRate(arpOffloadRate)
+                    .burstSize(arpOffloadRate)
+                    .build();
+                MeterRequest.Builder meter_req = DefaultMeterRequest.builder()
+                    .forDevice(id)
+                    .fromApp(appId)
+                    .withUnit(Meter.Unit.PKTS_PER_SEC)
+                    .burst()
+                    .withBands(Collections.singleton(band));
+                Meter meter = meterService.submit(meter_req.add());
+                FlowRule rule = DefaultFlowRule.builder()
+                    .forDevice(id)
+                    .fromApp(appId)
+                    .withSelector(selector)
+                    .withTreatment(DefaultTrafficTreatment.builder().meter(meter.id()).punt().build())
+                    .withPriority(ARP_OFFLOAD_PRIORITY)
+                    .makePermanent()
+                    .build();
+                flowRuleService.applyFlowRules(rule);
+                // Taken as just hot until its counters are first polled
+                installed.add(new Offload(rule, meter_req.remove(), meter.id(),
+                                          (double) arpHotThreshold / devices.size()));
+            }
+            offloads.put(target, installed);
+            log.info("HOT TARGET. ARP requests for {} rate limited on {} switches", Ip4Address.valueOf(target),
+                     installed.size());
+        }
+    }
+
+    // Removes the rules and meters of a target whose binding changed or which cooled down
+    private void withdrawOffload(int target) {
+        if (!hotTargets.isHot(target)) {
+            return;
+        }
+        synchronized (offloads) {
+            if (!hotTargets.remove(target)) {
+                return;
+            }
+            for (Offload offload: offloads.remove(target)) {
+                flowRuleService.removeFlowRules(offload.rule);
+                meterService.withdraw(offload.request, offload.meter);
+            }
+        }
+        log.info("HOT TARGET. Withdrew the rules for {}", Ip4Address.valueOf(target));
+    }
+
+    private void withdrawOffloads() {
+        for (int target: hotTargets.hot()) {
+            withdrawOffload(target);
+        }
+    }
+
+    private static final class Offload {
+        final FlowRule rule;
+        final MeterRequest request;
+        final MeterId meter;
+        // Counters of the rule at the last sample, and the request rate in between
+        long packets;
+        long life;
+        double rate;
+
+        Offload(FlowRule rule, MeterRequest request, MeterId meter, double rate) {
+            this.rule = rule;
+            this.request = request;
+            this.meter = meter;
+            this.rate = rate;
+        }
+
+        /**
+         * Updates the request rate from the counters of the installed rule,
+         * which are polled from the switch from time to time.
+         *
+         * @return false if the counters did not change since the last sample
+         */
+        boolean sample(FlowEntry entry) {
+            if (entry == null || entry.life() <= this.life) {
+                return false;
+            }
+            this.rate = (double) Math.max(0, entry.packets() - this.packets) / (entry.life() - this.life);
+            this.packets = entry.packets();
+            this.life = entry.life();
+            return true;
+        }
+    }
+
+    // Keeps the cache in line with the hosts the controller knows about
+    private class ArpHostListener implements HostListener {
+        @Override
+        public void event(HostEvent event) {
+            long now = System.nanoTime();
+            switch (event.type()) {
+                case HOST_ADDED:
+                    learnHost(event.subject(), now);
+                    break;
+                case HOST_UPDATED:
+                case HOST_MOVED:
+                    // A host keeps its MAC, so only the addresses it dropped lose their binding and offload
+                    if (event.prevSubject() != null) {
+                        forgetHost(event.prevSubject(), event.subject().ipAddresses());
+                    }
+                    learnHost(event.subject(), now);
+                    break;
+                case HOST_REMOVED:
+                    forgetHost(event.subject(), Collections.emptySet());
+                    break;
+                default:
+                    break;
+            }
         }
     }
 
@@ -0,0 +1,496 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe IPv4 to MAC address cache of the proxy ARP.
+ *
+ * Entries are keyed by the IPv4 address as an int and spread over a fixed
+ * number of stripes, each an LRU table with its own lock, so packet threads
+ * rarely contend. The stripes use open addressing on primitive keys like the
+ * MAC table of the bridge, so lookups do not box the address. An entry lives
+ * for the TTL after the host last sent an ARP packet. Lookups keep an entry
+ * at the head of the LRU order and get it re-validated by a probe shortly
+ * before it expires, instead of extending it blindly, so the binding of a
+ * replaced host does not outlive the TTL.
+ *
+ * The cache also remembers where requesters were last seen by their MAC
+ * address, with the same TTL and capacity, for the replies to requesters
+ * which have no address bound yet.
+ */
+public class ArpCache {
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final Stripe[] requesters = new Stripe[STRIPES];
+    private final int stripeCapacity;
+    private final long ttl;
+    private final long probeLead;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder probes = new LongAdder();
+
+    /**
+     * Creates an ARP cache.
+     *
+     * @param capacity maximum number of entries
+     * @param ttl entry lifetime in nanoseconds
+     * @param probeLead how long before expiry entries in use are probed, in nanoseconds
+     */
+    public ArpCache(int capacity, long ttl, long probeLead) {
+        this.stripeCapacity = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+        this.ttl = ttl;
+        this.probeLead = probeLead;
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new Stripe(this.evictions);
+            this.requesters[i] = new Stripe(null);
+        }
+    }
+
+    /**
+     * Looks up the binding of an address, and marks it in use.
+     *
+     * @return the binding, or null if the address is unknown or expired
+     */
+    public Binding lookup(int ip, long now) {
+        Stripe stripe = stripe(this.stripes, ip);
+        synchronized (stripe) {
+            Binding binding = stripe.get(ip);
+            if (binding == null) {
+                this.misses.increment();
+                return null;
+            }
+            if (now - binding.confirmed >= this.ttl) {
+                stripe.remove(binding);
+                this.stale.increment();
+                this.expirations.increment();
+                return null;
+            }
+            binding.used = true;
+            this.hits.increment();
+            return binding;
+        }
+    }
+
+    /**
+     * Gets the binding of an address without touching the counters, the
+     * LRU order nor marking it in use, e.g. to forward a reply to the
+     * requester.
+     *
+     * @return the binding, or null if the address is unknown or expired
+     */
+    public Binding peek(int ip, long now) {
+        Stripe stripe = stripe(this.stripes, ip);
+        synchronized (stripe) {
+            Binding binding = stripe.peek(ip);
+            return binding == null || now - binding.confirmed >= this.ttl ? null : binding;
+        }
+    }
+
+    /**
+     * Learns the binding of an address from a packet its host sent, which
+     * also confirms a binding already known.
+     *
+     * @return the MAC address previously bound to the address, or null
+     */
+    public MacAddress learn(int ip, MacAddress mac, ConnectPoint location, long now) {
+        Stripe stripe = stripe(this.stripes, ip);
+        synchronized (stripe) {
+            return stripe.learn(ip, mac, location, now);
+        }
+    }
+
+    /**
+     * Remembers where a requester was seen, so a reply to it can be
+     * forwarded even if it has no address bound.
+     */
+    public void learnRequester(MacAddress mac, ConnectPoint location, long now) {
+        long key = mac.toLong();
+        Stripe stripe = stripe(this.requesters, key);
+        synchronized (stripe) {
+            stripe.learn(key, mac, location, now);
+        }
+    }
+
+    /**
+     * Gets where a requester was last seen, without changing the LRU order.
+     *
+     * @return the location, or null if the requester is unknown or expired
+     */
+    public ConnectPoint requesterLocation(MacAddress mac, long now) {
+        long key = mac.toLong();
+        Stripe stripe = stripe(this.requesters, key);
+        synchronized (stripe) {
+            Binding binding = stripe.peek(key);
+            return binding == null || now - binding.confirmed >= this.ttl ? null : binding.location;
+        }
+    }
+
+    public void remove(int ip) {
+        Stripe stripe = stripe(this.stripes, ip);
+        synchronized (stripe) {
+            Binding binding = stripe.peek(ip);
+            if (binding != null) {
+                stripe.remove(binding);
+            }
+        }
+    }
+
+    /**
+     * Removes the binding of an address if it is still bound to a MAC address.
+     *
+     * @return true if the binding was removed
+     */
+    public boolean remove(int ip, MacAddress mac) {
+        Stripe stripe = stripe(this.stripes, ip);
+        synchronized (stripe) {
+            Binding binding = stripe.peek(ip);
+            if (binding == null || !binding.mac.equals(mac)) {
+                return false;
+            }
+            stripe.remove(binding);
+            return true;
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (this.stripes[i]) {
+                this.stripes[i].clear();
+            }
+            synchronized (this.requesters[i]) {
+                this.requesters[i].clear();
+            }
+        }
+    }
+
+    /**
+     * Gets the bindings in use which are about to expire, each only once
+     * per confirmation, so they can be re-validated.
+     *
+     * @return the bindings to probe, by address
+     */
+    public Map<Integer, Binding> dueForProbe(long now) {
+        Map<Integer, Binding> due = new HashMap<Integer, Binding>();
+        for (Stripe stripe: this.stripes) {
+            synchronized (stripe) {
+                for (Binding binding = stripe.eldest; binding != null; binding = binding.newer) {
+                    long age = now - binding.confirmed;
+                    if (binding.used && !binding.probed && age >= this.ttl - this.probeLead && age < this.ttl) {
+                        binding.probed = true;
+                        due.put((int) binding.key, binding);
+                    }
+                }
+            }
+        }
+        this.probes.add(due.size());
+        return due;
+    }
+
+    /**
+     * Removes all expired entries, including those of the requesters.
+     *
+     * @return number of bindings removed
+     */
+    public int purgeExpired(long now) {
+        int purged = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (this.stripes[i]) {
+                purged += this.stripes[i].purgeExpired(now);
+            }
+            synchronized (this.requesters[i]) {
+                this.requesters[i].purgeExpired(now);
+            }
+        }
+        this.expirations.add(purged);
+        return purged;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe: this.stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of requesters whose location is remembered.
+     */
+    public int requesterCount() {
+        int size = 0;
+        for (Stripe stripe: this.requesters) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Gets the number of lookups which found an expired entry.
+     */
+    public long stale() {
+        return this.stale.sum();
+    }
+
+    public long evictions() {
+        return this.evictions.sum();
+    }
+
+    public long expirations() {
+        return this.expirations.sum();
+    }
+
+    /**
+     * Gets the number of re-validation probes requested.
+     */
+    public long probes() {
+        return this.probes.sum();
+    }
+
+    private static Stripe stripe(Stripe[] stripes, long key) {
+        // Addresses of a subnet differ in the low bits, so mix them all in
+        long h = key * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 60) & (STRIPES - 1)];
+    }
+
+    /**
+     * Binding of an IPv4 address to the MAC address and location of its host.
+     */
+    public static final class Binding {
+        // Address the binding is stored under in its stripe
+        private final long key;
+        private final MacAddress mac;
+        private final ConnectPoint location;
+        // Guarded by the lock of the stripe holding the binding
+        private long confirmed;
+        private boolean used;
+        private boolean probed;
+        // Neighbours in the LRU order of the stripe
+        private Binding older;
+        private Binding newer;
+
+        private Binding(long key, MacAddress mac, ConnectPoint location, long now) {
+            this.key = key;
+            this.mac = mac;
+            this.location = location;
+            this.confirmed = now;
+        }
+
+        private void confirm(long now) {
+            this.confirmed = now;
+            this.used = false;
+            this.probed = false;
+        }
+
+        public MacAddress mac() {
+            return this.mac;
+        }
+
+        public ConnectPoint location() {
+            return this.location;
+        }
+    }
+
+    /**
+     * Linear probing hash table of the bindings of a stripe, with the
+     * bindings also chained from the least to the most recently used.
+     * Must be used with the stripe locked.
+     */
+    private final class Stripe {
+        private static final int INITIAL_SLOTS = 16;
+
+        // Counts the bindings evicted for room, or null if they are not counted
+        private final LongAdder evicted;
+        private Binding[] slots = new Binding[INITIAL_SLOTS];
+        private int size;
+        private Binding eldest;
+        private Binding youngest;
+
+        private Stripe(LongAdder evicted) {
+            this.evicted = evicted;
+        }
+
+        // Gets a binding and makes it the most recently used one
+        private Binding get(long key) {
+            Binding binding = peek(key);
+            if (binding != null && binding != this.youngest) {
+                unlink(binding);
+                link(binding);
+            }
+            return binding;
+        }
+
+        // Gets a binding without changing the LRU order
+        private Binding peek(long key) {
+            int mask = this.slots.length - 1;
+            for (int i = slot(key, mask); this.slots[i] != null; i = (i + 1) & mask) {
+                if (this.slots[i].key == key) {
+                    return this.slots[i];
+                }
+            }
+            return null;
+        }
+
+        // Confirms the binding of a key, or replaces it if it changed or expired
+        private MacAddress learn(long key, MacAddress mac, ConnectPoint location, long now) {
+            Binding binding = get(key);
+            MacAddress old_mac = null;
+            if (binding != null) {
+                if (now - binding.confirmed < ttl) {
+                    old_mac = binding.mac;
+                    if (binding.mac.equals(mac) && binding.location.equals(location)) {
+                        binding.confirm(now);
+                        return old_mac;
+                    }
+                }
+                remove(binding);
+            }
+            add(new Binding(key, mac, location, now));
+            return old_mac;
+        }
+
+        private void add(Binding binding) {
+            if ((this.size + 1) * 4 > this.slots.length * 3) {
+                resize(this.slots.length * 2);
+            }
+            insert(this.slots, binding);
+            link(binding);
+            this.size++;
+            while (this.size > stripeCapacity) {
+                remove(this.eldest);
+                if (this.evicted != null) {
+                    this.evicted.increment();
+                }
+            }
+        }
+
+        private void remove(Binding binding) {
+            int mask = this.slots.length - 1;
+            int hole = slot(binding.key, mask);
+            while (this.slots[hole] != binding) {
+                hole = (hole + 1) & mask;
+            }
+            this.slots[hole] = null;
+
+            // Shift back the following bindings which can no longer be reached past the hole
+            for (int i = (hole + 1) & mask; this.slots[i] != null; i = (i + 1) & mask) {
+                int home = slot(this.slots[i].key, mask);
+                boolean reachable = hole < i ? hole < home && home <= i : hole < home || home <= i;
+                if (!reachable) {
+                    this.slots[hole] = this.slots[i];
+                    this.slots[i] = null;
+                    hole = i;
+                }
+            }
+            unlink(binding);
+            this.size--;
+        }
+
+        private int purgeExpired(long now) {
+            int purged = 0;
+            for (Binding binding = this.eldest; binding != null; ) {
+                Binding next = binding.newer;
+                if (now - binding.confirmed >= ttl) {
+                    remove(binding);
+                    purged++;
+                }
+                binding = next;
+            }
+            return purged;
+        }
+
+        private void clear() {
+            this.slots = new Binding[INITIAL_SLOTS];
+            this.size = 0;
+            this.eldest = null;
+            this.youngest = null;
+        }
+
+        private void resize(int length) {
+            Binding[] resized = new Binding[length];
+            for (Binding binding: this.slots) {
+                if (binding != null) {
+                    insert(resized, binding);
+                }
+            }
+            this.slots = resized;
+        }
+
+        private void insert(Binding[] table, Binding binding) {
+            int mask = table.length - 1;
+            int i = slot(binding.key, mask);
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = binding;
+        }
+
+        private void link(Binding binding) {
+            binding.older = this.youngest;
+            binding.newer = null;
+            if (this.youngest == null) {
+                this.eldest = binding;
+            } else {
+                this.youngest.newer = binding;
+            }
+            this.youngest = binding;
+        }
+
+        private void unlink(Binding binding) {
+            if (binding.older == null) {
+                this.eldest = binding.newer;
+            } else {
+                binding.older.newer = binding.newer;
+            }
+            if (binding.newer == null) {
+                this.youngest = binding.older;
+            } else {
+                binding.newer.older = binding.older;
+            }
+            binding.older = null;
+            binding.newer = null;
+        }
+
+        // The top bits of the mixed key pick the stripe, so the slot uses the low ones
+        private int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
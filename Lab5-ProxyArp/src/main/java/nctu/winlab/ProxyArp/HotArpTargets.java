@@ -0,0 +1,138 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe detector of the addresses ARP requests are most often sent
+ * for, e.g. gateways, keyed by the IPv4 address as an int.
+ *
+ * Requests are counted per target over a window. At the end of a window
+ * the targets requested at least a given number of times become
+ * candidates, busiest first, as long as fewer than the maximum number of
+ * targets are hot. Targets stay hot until removed, e.g. once they cool down.
+ */
+public class HotArpTargets {
+    private final Map<Integer, LongAdder> requests = new ConcurrentHashMap<Integer, LongAdder>();
+    private final Set<Integer> hot = ConcurrentHashMap.newKeySet();
+    private final int capacity;
+
+    private final LongAdder promotions = new LongAdder();
+    private final LongAdder demotions = new LongAdder();
+
+    /**
+     * Creates a hot target detector.
+     *
+     * @param capacity maximum number of hot targets
+     */
+    public HotArpTargets(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Counts a request for an address in the current window.
+     */
+    public void record(int target) {
+        this.requests.computeIfAbsent(target, ip -> new LongAdder()).increment();
+    }
+
+    /**
+     * Ends the current window.
+     *
+     * @param threshold number of requests in the window making a target hot
+     * @return the targets which are not hot yet and should be, busiest first
+     */
+    public List<Integer> endWindow(long threshold) {
+        List<Map.Entry<Integer, Long>> busy = new ArrayList<Map.Entry<Integer, Long>>();
+        for (Integer target: this.requests.keySet()) {
+            // A request racing with the removal may go uncounted, which only delays detection
+            LongAdder count = this.requests.remove(target);
+            long sum = count == null ? 0 : count.sum();
+            if (sum >= threshold && !this.hot.contains(target)) {
+                busy.add(new AbstractMap.SimpleEntry<Integer, Long>(target, sum));
+            }
+        }
+        busy.sort(Map.Entry.<Integer, Long>comparingByValue().reversed());
+
+        int room = Math.max(0, this.capacity - this.hot.size());
+        List<Integer> candidates = new ArrayList<Integer>();
+        for (int i = 0; i < busy.size() && i < room; i++) {
+            candidates.add(busy.get(i).getKey());
+        }
+        return candidates;
+    }
+
+    /**
+     * Makes a target hot, once it is taken care of.
+     *
+     * @return false if it already was, or if there are too many hot targets
+     */
+    public boolean add(int target) {
+        synchronized (this.hot) {
+            if (this.hot.size() >= this.capacity || !this.hot.add(target)) {
+                return false;
+            }
+        }
+        this.promotions.increment();
+        return true;
+    }
+
+    /**
+     * Makes a target cold again.
+     *
+     * @return true if it was hot
+     */
+    public boolean remove(int target) {
+        if (!this.hot.remove(target)) {
+            return false;
+        }
+        this.demotions.increment();
+        return true;
+    }
+
+    public boolean isHot(int target) {
+        return this.hot.contains(target);
+    }
+
+    /**
+     * Gets a snapshot of the hot targets.
+     */
+    public Set<Integer> hot() {
+        return Collections.unmodifiableSet(new HashSet<Integer>(this.hot));
+    }
+
+    public void clear() {
+        this.requests.clear();
+        this.hot.clear();
+    }
+
+    public long promotions() {
+        return this.promotions.sum();
+    }
+
+    public long demotions() {
+        return this.demotions.sum();
+    }
+}
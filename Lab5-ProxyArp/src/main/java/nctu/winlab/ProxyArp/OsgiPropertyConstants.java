@@ -0,0 +1,33 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+/**
+ * Constants for default values of configurable properties.
+ */
+public final class OsgiPropertyConstants {
+    private OsgiPropertyConstants() {
+    }
+
+    public static final String ARP_OFFLOAD = "arpOffload";
+    public static final boolean ARP_OFFLOAD_DEFAULT = false;
+
+    public static final String ARP_HOT_THRESHOLD = "arpHotThreshold";
+    public static final int ARP_HOT_THRESHOLD_DEFAULT = 20;
+
+    public static final String ARP_OFFLOAD_RATE = "arpOffloadRate";
+    public static final int ARP_OFFLOAD_RATE_DEFAULT = 5;
+}
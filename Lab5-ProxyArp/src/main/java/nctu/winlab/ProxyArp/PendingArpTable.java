@@ -0,0 +1,265 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe table of the ARP requests waiting for an address to be
+ * resolved, keyed by the target IPv4 address as an int.
+ *
+ * All requesters of a target are kept, once per MAC address and ingress
+ * port, so a single answer can be relayed to every one of them. A target
+ * is flooded at most once per flood interval however many requests for it
+ * arrive, and requesters left unanswered for the timeout are dropped.
+ */
+public class PendingArpTable {
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<Integer, Pending>();
+    private final int capacity;
+    private final int maxWaiters;
+    private final long floodInterval;
+    private final long timeout;
+
+    private final LongAdder floods = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * Creates a pending request table.
+     *
+     * @param capacity maximum number of targets waited for
+     * @param maxWaiters maximum number of requesters kept per target
+     * @param floodInterval minimum time between two floods for a target, in nanoseconds
+     * @param timeout how long a requester waits for an answer, in nanoseconds
+     */
+    public PendingArpTable(int capacity, int maxWaiters, long floodInterval, long timeout) {
+        this.capacity = capacity;
+        this.maxWaiters = maxWaiters;
+        this.floodInterval = floodInterval;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Records a request for an unresolved address.
+     *
+     * @param target the requested address
+     * @param request the request, which answers are built from
+     * @param from the port the request was received from
+     * @return true if the request must be flooded, false if a flood for
+     *         the same target was sent less than the flood interval ago
+     */
+    public boolean await(int target, Ethernet request, ConnectPoint from, long now) {
+        boolean[] flood = new boolean[1];
+        this.pending.compute(target, (ip, entry) -> {
+            if (entry == null) {
+                if (this.pending.size() >= this.capacity) {
+                    // Not tracked, so flooded every time as without the table
+                    flood[0] = true;
+                    return null;
+                }
+                entry = new Pending();
+            }
+            flood[0] = entry.add(new Waiter(request, from, now), now);
+            return entry;
+        });
+        if (flood[0]) {
+            this.floods.increment();
+        } else {
+            this.coalesced.increment();
+        }
+        return flood[0];
+    }
+
+    /**
+     * Removes the requesters of an address which just got resolved.
+     *
+     * @return the requesters to answer, in the order they last asked, possibly none
+     */
+    public List<Waiter> resolve(int target, long now) {
+        Pending entry = this.pending.remove(target);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+        List<Waiter> waiters;
+        synchronized (entry) {
+            entry.expire(now);
+            waiters = new ArrayList<Waiter>(entry.waiters.values());
+        }
+        this.answered.add(waiters.size());
+        return waiters;
+    }
+
+    /**
+     * Drops the requesters which waited for the timeout, and the targets
+     * left without any.
+     *
+     * @return the number of requesters dropped
+     */
+    public int expire(long now) {
+        int dropped = 0;
+        for (Integer target: this.pending.keySet()) {
+            int[] count = new int[1];
+            this.pending.computeIfPresent(target, (ip, entry) -> {
+                synchronized (entry) {
+                    count[0] = entry.expire(now);
+                    return entry.waiters.isEmpty() ? null : entry;
+                }
+            });
+            dropped += count[0];
+        }
+        return dropped;
+    }
+
+    public void clear() {
+        this.pending.clear();
+    }
+
+    /**
+     * Gets the number of targets waited for.
+     */
+    public int size() {
+        return this.pending.size();
+    }
+
+    /**
+     * Gets the number of requesters waiting for an address.
+     */
+    public int waiting(int target) {
+        Pending entry = this.pending.get(target);
+        if (entry == null) {
+            return 0;
+        }
+        synchronized (entry) {
+            return entry.waiters.size();
+        }
+    }
+
+    public long floods() {
+        return this.floods.sum();
+    }
+
+    public long coalesced() {
+        return this.coalesced.sum();
+    }
+
+    public long answered() {
+        return this.answered.sum();
+    }
+
+    public long timedOut() {
+        return this.timedOut.sum();
+    }
+
+    // Requesters of one target, guarded by its own lock
+    private class Pending {
+        final Map<Waiter.Key, Waiter> waiters = new LinkedHashMap<Waiter.Key, Waiter>();
+        boolean flooded;
+        long lastFlood;
+
+        // Adds or refreshes a requester, and tells whether to flood
+        synchronized boolean add(Waiter waiter, long now) {
+            expire(now);
+            if (this.waiters.containsKey(waiter.key) || this.waiters.size() < maxWaiters) {
+                // Re-inserted, so a retrying host counts from its latest request
+                this.waiters.remove(waiter.key);
+                this.waiters.put(waiter.key, waiter);
+            }
+            if (this.flooded && now - this.lastFlood < floodInterval) {
+                return false;
+            }
+            this.flooded = true;
+            this.lastFlood = now;
+            return true;
+        }
+
+        synchronized int expire(long now) {
+            int dropped = 0;
+            Iterator<Waiter> it = this.waiters.values().iterator();
+            while (it.hasNext()) {
+                if (now - it.next().since >= timeout) {
+                    it.remove();
+                    dropped++;
+                }
+            }
+            timedOut.add(dropped);
+            return dropped;
+        }
+    }
+
+    /**
+     * Host waiting for an address to be resolved.
+     */
+    public static final class Waiter {
+        private final Ethernet request;
+        private final ConnectPoint location;
+        private final long since;
+        private final Key key;
+
+        Waiter(Ethernet request, ConnectPoint location, long since) {
+            this.request = request;
+            this.location = location;
+            this.since = since;
+            this.key = new Key(request.getSourceMAC(), location);
+        }
+
+        /**
+         * Gets the latest request of the host, which the answer is built from.
+         */
+        public Ethernet request() {
+            return this.request;
+        }
+
+        public ConnectPoint location() {
+            return this.location;
+        }
+
+        private static final class Key {
+            private final MacAddress mac;
+            private final ConnectPoint location;
+
+            Key(MacAddress mac, ConnectPoint location) {
+                this.mac = mac;
+                this.location = location;
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                if (!(obj instanceof Key)) {
+                    return false;
+                }
+                Key other = (Key) obj;
+                return this.mac.equals(other.mac) && this.location.equals(other.location);
+            }
+
+            @Override
+            public int hashCode() {
+                return 31 * this.mac.hashCode() + this.location.hashCode();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the aging, eviction and re-validation of the ARP cache.
+ */
+public class ArpCacheTest {
+    private static final long TTL = 100;
+    private static final long PROBE_LEAD = 20;
+
+    private static final int IP_A = 0x0a000001;
+    private static final int IP_B = 0x0a000002;
+    private static final MacAddress MAC_A = MacAddress.valueOf("02:00:00:00:00:0a");
+    private static final MacAddress MAC_B = MacAddress.valueOf("02:00:00:00:00:0b");
+
+    private final ConnectPoint location = new ConnectPoint(DeviceId.deviceId("of:0000000000000001"),
+                                                           PortNumber.portNumber(1));
+
+    @Test
+    public void learnsAndLooksUp() {
+        ArpCache cache = new ArpCache(1024, TTL, PROBE_LEAD);
+        assertNull(cache.learn(IP_A, MAC_A, location, 0));
+
+        assertEquals(MAC_A, cache.lookup(IP_A, 10).mac());
+        assertEquals(location, cache.lookup(IP_A, 10).location());
+        assertNull(cache.lookup(IP_B, 10));
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+
+        // A new host taking over the address replaces the binding
+        assertEquals(MAC_A, cache.learn(IP_A, MAC_B, location, 20));
+        assertEquals(MAC_B, cache.lookup(IP_A, 30).mac());
+    }
+
+    @Test
+    public void expires() {
+        ArpCache cache = new ArpCache(1024, TTL, PROBE_LEAD);
+        cache.learn(IP_A, MAC_A, location, 0);
+        cache.learn(IP_B, MAC_B, location, 50);
+
+        assertNull(cache.lookup(IP_A, TTL));
+        assertEquals(1, cache.stale());
+        assertNull(cache.peek(IP_B, 50 + TTL));
+        assertEquals(1, cache.size());
+
+        assertEquals(1, cache.purgeExpired(50 + TTL));
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.expirations());
+    }
+
+    @Test
+    public void lookupsDoNotExtendLifetime() {
+        ArpCache cache = new ArpCache(1024, TTL, PROBE_LEAD);
+        cache.learn(IP_A, MAC_A, location, 0);
+        for (long now = 0; now < TTL; now += 10) {
+            cache.lookup(IP_A, now);
+        }
+        assertNull(cache.lookup(IP_A, TTL));
+    }
+
+    @Test
+    public void probesBindingsInUseOnce() {
+        ArpCache cache = new ArpCache(1024, TTL, PROBE_LEAD);
+        cache.learn(IP_A, MAC_A, location, 0);
+        cache.learn(IP_B, MAC_B, location, 0);
+        cache.lookup(IP_A, 10);
+
+        assertTrue(cache.dueForProbe(TTL - PROBE_LEAD - 1).isEmpty());
+        Map<Integer, ArpCache.Binding> due = cache.dueForProbe(TTL - PROBE_LEAD);
+        assertEquals(1, due.size());
+        assertEquals(MAC_A, due.get(IP_A).mac());
+        assertTrue(cache.dueForProbe(TTL - 10).isEmpty());
+
+        // The answer to the probe confirms the binding
+        cache.learn(IP_A, MAC_A, location, TTL - 5);
+        assertEquals(MAC_A, cache.lookup(IP_A, TTL).mac());
+        assertNull(cache.lookup(IP_B, TTL));
+        assertEquals(1, cache.probes());
+    }
+
+    @Test
+    public void peekKeepsLruOrder() {
+        int[] ips = sameStripe(3);
+        ArpCache cache = new ArpCache(32, TTL, PROBE_LEAD);
+        cache.learn(ips[0], MAC_A, location, 0);
+        cache.learn(ips[1], MAC_B, location, 0);
+        cache.peek(ips[0], 10);
+        cache.learn(ips[2], MAC_B, location, 20);
+        // Still the least recently used one
+        assertNull(cache.peek(ips[0], 30));
+
+        cache = new ArpCache(32, TTL, PROBE_LEAD);
+        cache.learn(ips[0], MAC_A, location, 0);
+        cache.learn(ips[1], MAC_B, location, 0);
+        cache.lookup(ips[0], 10);
+        cache.learn(ips[2], MAC_B, location, 20);
+        assertEquals(MAC_A, cache.peek(ips[0], 30).mac());
+        assertNull(cache.peek(ips[1], 30));
+    }
+
+    @Test
+    public void remembersRequesters() {
+        ArpCache cache = new ArpCache(16, TTL, PROBE_LEAD);
+        cache.learnRequester(MAC_A, location, 0);
+        assertEquals(location, cache.requesterLocation(MAC_A, 10));
+        assertNull(cache.requesterLocation(MAC_B, 10));
+        assertNull(cache.requesterLocation(MAC_A, TTL));
+        // Kept apart from the bindings
+        assertEquals(0, cache.size());
+
+        for (int i = 0; i < 64; i++) {
+            cache.learnRequester(MacAddress.valueOf(i), location, 0);
+        }
+        assertTrue(cache.requesterCount() <= 16);
+        assertEquals(0, cache.evictions());
+
+        // Purged along with the bindings, but not counted with them
+        assertEquals(0, cache.purgeExpired(TTL));
+        assertEquals(0, cache.requesterCount());
+    }
+
+    @Test
+    public void boundsSize() {
+        ArpCache cache = new ArpCache(16, TTL, PROBE_LEAD);
+        for (int i = 0; i < 64; i++) {
+            cache.learn(IP_A + i, MAC_A, location, 0);
+        }
+        assertTrue(cache.size() <= 16);
+        assertEquals(64 - cache.size(), cache.evictions());
+    }
+
+    // Finds addresses sharing the stripe of IP_A, i.e. evicting it from a cache of one entry per stripe
+    private int[] sameStripe(int count) {
+        int[] ips = new int[count];
+        ips[0] = IP_A;
+        int found = 1;
+        for (int ip = IP_A + 1; found < count; ip++) {
+            ArpCache cache = new ArpCache(16, TTL, PROBE_LEAD);
+            cache.learn(IP_A, MAC_A, location, 0);
+            cache.learn(ip, MAC_B, location, 0);
+            if (cache.size() == 1) {
+                ips[found++] = ip;
+            }
+        }
+        return ips;
+    }
+}
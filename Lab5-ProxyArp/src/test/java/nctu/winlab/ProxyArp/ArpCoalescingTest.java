@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.junit.Test;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that concurrent requests for an unknown address are flooded once
+ * and all answered by the reply of its host.
+ */
+public class ArpCoalescingTest {
+    private static final int DEVICES = 16;
+    private static final int PORTS = 24;
+    private static final int REQUESTERS = 20;
+
+    private static final String TARGET_IP = "10.0.1.1";
+    private static final MacAddress TARGET_MAC = TestProxyArp.mac(1000);
+    private static final ConnectPoint TARGET_LOCATION = TestProxyArp.location(3, 5);
+
+    @Test
+    public void floodsOnceAndAnswersAll() {
+        TestProxyArp arp = new TestProxyArp(DEVICES, PORTS).activate();
+        for (int h = 1; h <= REQUESTERS; h++) {
+            arp.process(arp.request(TestProxyArp.location(0, h), TestProxyArp.mac(h), "10.0.0." + h, TARGET_IP));
+        }
+        // One packet-out per switch for the first request, none for the others
+        assertEquals(DEVICES, arp.emitted.get());
+        assertEquals(REQUESTERS - 1, arp.component.pendingArp().coalesced());
+        assertEquals(REQUESTERS, arp.component.pendingArp().waiting(Ip4Address.valueOf(TARGET_IP).toInt()));
+
+        // The target answers the flooded request, i.e. the first requester
+        arp.process(arp.reply(TARGET_LOCATION, TARGET_MAC, TARGET_IP, TestProxyArp.mac(1), "10.0.0.1"));
+        assertEquals(DEVICES + REQUESTERS, arp.emitted.get());
+        assertEquals(REQUESTERS, arp.component.pendingArp().answered());
+        assertEquals(0, arp.component.pendingArp().size());
+
+        // Cached from now on
+        arp.process(arp.request(TestProxyArp.location(1, 1), TestProxyArp.mac(99), "10.0.0.99", TARGET_IP));
+        assertEquals(DEVICES + REQUESTERS + 1, arp.emitted.get());
+        assertEquals(1, arp.component.arpCache().hits());
+        arp.deactivate();
+    }
+
+    @Test
+    public void answersUnaddressedRequester() {
+        TestProxyArp arp = new TestProxyArp(DEVICES, PORTS).activate();
+        // An RFC 5227 probe has no address to be learned and replied to
+        ConnectPoint prober = TestProxyArp.location(0, 1);
+        arp.process(arp.request(prober, TestProxyArp.mac(1), "0.0.0.0", TARGET_IP));
+        int flooded = arp.emitted.get();
+
+        arp.process(arp.reply(TARGET_LOCATION, TARGET_MAC, TARGET_IP, TestProxyArp.mac(1), "0.0.0.0"));
+        assertEquals(flooded + 1, arp.emitted.get());
+        assertEquals(prober.deviceId(), arp.emittedPackets.get(flooded).sendThrough());
+        assertEquals(1, arp.component.pendingArp().answered());
+        arp.deactivate();
+    }
+
+    @Test
+    public void repliesToUnaddressedRequesterAfterTimeout() {
+        TestProxyArp arp = new TestProxyArp(DEVICES, PORTS).activate();
+        ConnectPoint prober = TestProxyArp.location(0, 1);
+        arp.process(arp.request(prober, TestProxyArp.mac(1), "0.0.0.0", TARGET_IP));
+        int flooded = arp.emitted.get();
+
+        // The request timed out before the late reply, which is still forwarded by its destination address
+        arp.component.pendingArp().clear();
+        arp.process(arp.reply(TARGET_LOCATION, TARGET_MAC, TARGET_IP, TestProxyArp.mac(1), "0.0.0.0"));
+        assertEquals(flooded + 1, arp.emitted.get());
+        assertEquals(prober.deviceId(), arp.emittedPackets.get(flooded).sendThrough());
+        assertEquals(0, arp.component.pendingArp().answered());
+        arp.deactivate();
+    }
+
+    @Test
+    public void answersWaitersOnHostEvent() {
+        TestProxyArp arp = new TestProxyArp(DEVICES, PORTS).activate();
+        arp.process(arp.request(TestProxyArp.location(0, 1), TestProxyArp.mac(1), "10.0.0.1", TARGET_IP));
+        arp.process(arp.request(TestProxyArp.location(0, 2), TestProxyArp.mac(2), "10.0.0.2", TARGET_IP));
+        int flooded = arp.emitted.get();
+
+        // Discovered by the host service from traffic the proxy did not see
+        arp.addHost(TARGET_IP, TARGET_MAC, TARGET_LOCATION);
+        assertEquals(flooded + 2, arp.emitted.get());
+        assertEquals(0, arp.component.pendingArp().size());
+        arp.deactivate();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Host;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the packet-outs spent on ARP requests for addresses missing from
+ * the cache, with and without the host service and interfaces to narrow
+ * them down.
+ */
+public class ArpFloodScopeTest {
+    private static final int DEVICES = 16;
+    private static final int PORTS = 24;
+    private static final int REQUESTS = 100;
+
+    @Test
+    public void floodsAllEdgePortsWhenNothingIsKnown() {
+        TestProxyArp arp = new TestProxyArp(DEVICES, PORTS).activate();
+
+        requestUnknown(arp);
+        // Every edge port but the ingress one, with one packet-out per switch
+        assertEquals(REQUESTS, arp.component.unresolvedRequestCount());
+        assertEquals(REQUESTS * (arp.edgePointCount() - 1), arp.component.floodOutputCount());
+        assertEquals(REQUESTS * (arp.edgePointCount() - 1), arp.outputs.get());
+        assertEquals(REQUESTS * DEVICES, arp.component.floodPacketOutCount());
+        assertEquals(REQUESTS * DEVICES, arp.emitted.get());
+        // Which all share one read-only copy of the frame
+        assertEquals(0, arp.writableEmits.get());
+        arp.deactivate();
+    }
+
+    @Test
+    public void answersFromHostService() {
+        TestProxyArp arp = new TestProxyArp(DEVICES, PORTS).activate();
+        for (int i = 0; i < REQUESTS; i++) {
+            arp.addHost(target(i), TestProxyArp.mac(1000 + i), TestProxyArp.location(i % DEVICES, 2));
+        }
+
+        requestUnknown(arp);
+        // Seeded by the host events, answered by one reply each
+        assertEquals(0, arp.component.unresolvedRequestCount());
+        assertEquals(0, arp.component.floodPacketOutCount());
+        assertEquals(REQUESTS, arp.emitted.get());
+        arp.deactivate();
+    }
+
+    @Test
+    public void seedsFromHostServiceOnActivation() {
+        TestProxyArp arp = new TestProxyArp(DEVICES, PORTS);
+        arp.addHost("10.0.9.1", TestProxyArp.mac(9), TestProxyArp.location(3, 3));
+        arp.activate();
+
+        assertEquals(1, arp.component.arpCache().size());
+        arp.process(arp.request(TestProxyArp.location(0, 1), TestProxyArp.mac(1), "10.0.0.1", "10.0.9.1"));
+        assertEquals(0, arp.component.floodPacketOutCount());
+        assertEquals(1, arp.emitted.get());
+        arp.deactivate();
+    }
+
+    @Test
+    public void forgetsRemovedHosts() {
+        TestProxyArp arp = new TestProxyArp(DEVICES, PORTS).activate();
+        Host host = arp.addHost("10.0.9.1", TestProxyArp.mac(9), TestProxyArp.location(3, 3));
+        assertEquals(1, arp.component.arpCache().size());
+
+        arp.removeHost(host);
+        assertEquals(0, arp.component.arpCache().size());
+        arp.process(arp.request(TestProxyArp.location(0, 1), TestProxyArp.mac(1), "10.0.0.1", "10.0.9.1"));
+        assertEquals(1, arp.component.unresolvedRequestCount());
+        arp.deactivate();
+    }
+
+    @Test
+    public void floodsSubnetPortsOnly() {
+        TestProxyArp arp = new TestProxyArp(DEVICES, PORTS).activate();
+        // The subnet of the targets spans two ports of two switches
+        for (ConnectPoint cp: new ConnectPoint[] {TestProxyArp.location(4, 1), TestProxyArp.location(4, 2),
+                                                  TestProxyArp.location(5, 1), TestProxyArp.location(5, 2)}) {
+            arp.addInterface(cp, "10.0.1.254/24");
+        }
+
+        requestUnknown(arp);
+        assertEquals(REQUESTS, arp.component.unresolvedRequestCount());
+        assertEquals(REQUESTS * 4, arp.component.floodOutputCount());
+        assertEquals(REQUESTS * 4, arp.outputs.get());
+        assertEquals(REQUESTS * 2, arp.component.floodPacketOutCount());
+        assertEquals(REQUESTS * 2, arp.emitted.get());
+        arp.deactivate();
+    }
+
+    // Requests from the first port of the first switch for addresses in 10.0.1.0/24
+    private void requestUnknown(TestProxyArp arp) {
+        for (int i = 0; i < REQUESTS; i++) {
+            arp.process(arp.request(TestProxyArp.location(0, 1), TestProxyArp.mac(1), "10.0.0.1", target(i)));
+        }
+    }
+
+    private static String target(int i) {
+        return "10.0.1." + (i + 1);
+    }
+}
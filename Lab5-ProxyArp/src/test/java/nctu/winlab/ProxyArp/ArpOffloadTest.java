@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.junit.Test;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Host;
+
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.ARP_HOT_THRESHOLD_DEFAULT;
+import static nctu.winlab.ProxyArp.OsgiPropertyConstants.ARP_OFFLOAD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the requests for hot targets are rate limited by rules and
+ * meters on every switch, which are withdrawn once the target cools down
+ * or loses its binding.
+ */
+public class ArpOffloadTest {
+    private static final int DEVICES = 4;
+    private static final int PORTS = 4;
+    // Requests over a maintenance interval of 5 s which make a target hot
+    private static final int HOT_REQUESTS = ARP_HOT_THRESHOLD_DEFAULT * 5;
+
+    private static final String TARGET_IP = "10.0.1.1";
+    private static final int TARGET = Ip4Address.valueOf(TARGET_IP).toInt();
+    private static final MacAddress TARGET_MAC = TestProxyArp.mac(1000);
+    private static final ConnectPoint TARGET_LOCATION = TestProxyArp.location(3, 4);
+
+    @Test
+    public void withdrawsCooledTargets() {
+        TestProxyArp arp = new TestProxyArp(DEVICES, PORTS).activate();
+        arp.configure(ARP_OFFLOAD, true);
+        arp.addHost(TARGET_IP, TARGET_MAC, TARGET_LOCATION);
+        makeHot(arp);
+        assertTrue(arp.component.hotTargets().isHot(TARGET));
+        assertEquals(DEVICES, arp.rules.size());
+        assertEquals(DEVICES, arp.meters.size());
+
+        // Nothing polled from the switches yet
+        arp.maintain();
+        assertTrue(arp.component.hotTargets().isHot(TARGET));
+
+        // 50 requests/s on every switch, most of them dropped by the meters
+        arp.setRuleCounters(10, 500);
+        arp.maintain();
+        assertTrue(arp.component.hotTargets().isHot(TARGET));
+        assertEquals(DEVICES, arp.rules.size());
+
+        // Down to one request/s on every switch
+        arp.setRuleCounters(20, 510);
+        arp.maintain();
+        assertFalse(arp.component.hotTargets().isHot(TARGET));
+        assertEquals(0, arp.rules.size());
+        assertEquals(0, arp.meters.size());
+        assertEquals(1, arp.component.hotTargets().demotions());
+        arp.deactivate();
+    }
+
+    @Test
+    public void keepsOffloadWhileBindingHolds() {
+        TestProxyArp arp = new TestProxyArp(DEVICES, PORTS).activate();
+        arp.configure(ARP_OFFLOAD, true);
+        Host target = arp.addHost(TARGET_IP, TARGET_MAC, TARGET_LOCATION);
+        makeHot(arp);
+        assertEquals(DEVICES, arp.rules.size());
+
+        // Another address for the host leaves the binding of the hot one as it was
+        target = arp.updateHost(target, TARGET_IP, "10.0.1.2");
+        assertTrue(arp.component.hotTargets().isHot(TARGET));
+        assertEquals(DEVICES, arp.rules.size());
+
+        arp.updateHost(target, "10.0.1.2");
+        assertFalse(arp.component.hotTargets().isHot(TARGET));
+        assertEquals(0, arp.rules.size());
+        assertEquals(0, arp.meters.size());
+        arp.deactivate();
+    }
+
+    @Test
+    public void withdrawsOnDeactivate() {
+        TestProxyArp arp = new TestProxyArp(DEVICES, PORTS).activate();
+        arp.configure(ARP_OFFLOAD, true);
+        arp.addHost(TARGET_IP, TARGET_MAC, TARGET_LOCATION);
+        makeHot(arp);
+        assertEquals(DEVICES, arp.meters.size());
+
+        arp.deactivate();
+        assertEquals(0, arp.rules.size());
+        assertEquals(0, arp.meters.size());
+    }
+
+    private static void makeHot(TestProxyArp arp) {
+        for (int i = 0; i < HOT_REQUESTS; i++) {
+            arp.process(arp.request(TestProxyArp.location(0, 1), TestProxyArp.mac(1), "10.0.0.1", TARGET_IP));
+        }
+        arp.maintain();
+    }
+}
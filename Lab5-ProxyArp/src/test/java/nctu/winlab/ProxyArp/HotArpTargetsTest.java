@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the detection of the addresses ARP requests are most often sent for.
+ */
+public class HotArpTargetsTest {
+    private static final int GATEWAY = 0x0a0000fe;
+    private static final int SERVER = 0x0a000010;
+    private static final int HOST = 0x0a000001;
+
+    @Test
+    public void detectsBusiestTargets() {
+        HotArpTargets targets = new HotArpTargets(8);
+        record(targets, GATEWAY, 50);
+        record(targets, SERVER, 20);
+        record(targets, HOST, 3);
+
+        assertEquals(Arrays.asList(GATEWAY, SERVER), targets.endWindow(10));
+        // Counted again from scratch
+        assertTrue(targets.endWindow(1).isEmpty());
+    }
+
+    @Test
+    public void skipsHotTargets() {
+        HotArpTargets targets = new HotArpTargets(8);
+        assertTrue(targets.add(GATEWAY));
+        assertFalse(targets.add(GATEWAY));
+        record(targets, GATEWAY, 50);
+        record(targets, SERVER, 20);
+
+        assertEquals(Collections.singletonList(SERVER), targets.endWindow(10));
+        assertTrue(targets.isHot(GATEWAY));
+        assertEquals(1, targets.promotions());
+    }
+
+    @Test
+    public void boundsHotTargets() {
+        HotArpTargets targets = new HotArpTargets(1);
+        assertTrue(targets.add(HOST));
+        record(targets, GATEWAY, 50);
+        assertTrue(targets.endWindow(10).isEmpty());
+        assertFalse(targets.add(GATEWAY));
+
+        // Room is made by removing a target, e.g. when its binding changes
+        assertTrue(targets.remove(HOST));
+        assertFalse(targets.remove(HOST));
+        assertEquals(1, targets.demotions());
+        record(targets, GATEWAY, 50);
+        assertEquals(Collections.singletonList(GATEWAY), targets.endWindow(10));
+        assertTrue(targets.add(GATEWAY));
+        assertEquals(Collections.singleton(GATEWAY), targets.hot());
+    }
+
+    private static void record(HotArpTargets targets, int target, int requests) {
+        for (int i = 0; i < requests; i++) {
+            targets.record(target);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.junit.Test;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the coalescing, answering and timeout of pending ARP requests.
+ */
+public class PendingArpTableTest {
+    private static final long FLOOD_INTERVAL = 100;
+    private static final long TIMEOUT = 300;
+
+    private static final int TARGET = 0x0a000001;
+
+    @Test
+    public void floodsOncePerInterval() {
+        PendingArpTable table = new PendingArpTable(16, 16, FLOOD_INTERVAL, TIMEOUT);
+
+        assertTrue(table.await(TARGET, request(1), location(1), 0));
+        assertFalse(table.await(TARGET, request(2), location(2), 10));
+        // A retry of the same host is coalesced too
+        assertFalse(table.await(TARGET, request(1), location(1), 50));
+        assertTrue(table.await(TARGET, request(1), location(1), FLOOD_INTERVAL));
+
+        assertEquals(2, table.floods());
+        assertEquals(2, table.coalesced());
+        assertEquals(2, table.waiting(TARGET));
+    }
+
+    @Test
+    public void answersEveryWaiter() {
+        PendingArpTable table = new PendingArpTable(16, 16, FLOOD_INTERVAL, TIMEOUT);
+        for (int host = 1; host <= 5; host++) {
+            table.await(TARGET, request(host), location(host), host);
+        }
+
+        List<PendingArpTable.Waiter> waiters = table.resolve(TARGET, 10);
+        assertEquals(5, waiters.size());
+        assertEquals(location(1), waiters.get(0).location());
+        assertEquals(mac(5), waiters.get(4).request().getSourceMAC());
+        assertEquals(5, table.answered());
+        // Resolved once only
+        assertEquals(0, table.size());
+        assertTrue(table.resolve(TARGET, 20).isEmpty());
+    }
+
+    @Test
+    public void timesWaitersOut() {
+        PendingArpTable table = new PendingArpTable(16, 16, FLOOD_INTERVAL, TIMEOUT);
+        table.await(TARGET, request(1), location(1), 0);
+        table.await(TARGET, request(2), location(2), 200);
+
+        assertEquals(1, table.expire(TIMEOUT));
+        assertEquals(1, table.waiting(TARGET));
+        assertEquals(1, table.expire(TIMEOUT + 200));
+        assertEquals(0, table.size());
+        assertEquals(2, table.timedOut());
+        assertTrue(table.resolve(TARGET, TIMEOUT + 200).isEmpty());
+    }
+
+    @Test
+    public void boundsTargetsAndWaiters() {
+        PendingArpTable table = new PendingArpTable(1, 2, FLOOD_INTERVAL, TIMEOUT);
+        for (int host = 1; host <= 4; host++) {
+            table.await(TARGET, request(host), location(host), 0);
+        }
+        assertEquals(2, table.waiting(TARGET));
+
+        // Untracked targets are flooded every time
+        assertTrue(table.await(TARGET + 1, request(1), location(1), 0));
+        assertTrue(table.await(TARGET + 1, request(1), location(1), 0));
+        assertEquals(1, table.size());
+    }
+
+    private static MacAddress mac(int host) {
+        return MacAddress.valueOf(0x020000000000L + host);
+    }
+
+    private static ConnectPoint location(int host) {
+        return new ConnectPoint(DeviceId.deviceId("of:0000000000000001"), PortNumber.portNumber(host));
+    }
+
+    private static Ethernet request(int host) {
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(mac(host));
+        return eth;
+    }
+}
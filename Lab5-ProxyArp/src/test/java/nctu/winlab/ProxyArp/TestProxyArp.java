@@ -0,0 +1,413 @@
+/*
+ * Copyright 2021-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.ProxyArp;
+
+import org.onlab.packet.ARP;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onlab.osgi.ComponentContextAdapter;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultHost;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.edge.EdgePortServiceAdapter;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.flow.instructions.Instruction;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
+import org.onosproject.net.host.HostServiceAdapter;
+import org.onosproject.net.host.InterfaceIpAddress;
+import org.onosproject.net.intf.Interface;
+import org.onosproject.net.intf.InterfaceServiceAdapter;
+import org.onosproject.net.meter.DefaultMeter;
+import org.onosproject.net.meter.Meter;
+import org.onosproject.net.meter.MeterId;
+import org.onosproject.net.meter.MeterRequest;
+import org.onosproject.net.meter.MeterService;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.DefaultOutboundPacket;
+import org.onosproject.net.packet.DefaultPacketContext;
+import org.onosproject.net.packet.OutboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.net.packet.PacketServiceAdapter;
+import org.onosproject.net.provider.ProviderId;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Proxy ARP component on a stand-in network, fed with synthetic ARP
+ * packet contexts.
+ *
+ * Every switch d = 0..devices - 1 has a host facing edge port on each of
+ * the ports 1..ports. The host service and the interface service only
+ * know what the test tells them. ARP offload is disabled unless configured.
+ * The flow rule and meter services keep what is installed, and the rule
+ * counters are set by the test.
+ */
+public class TestProxyArp {
+    public final AppComponent component = new AppComponent();
+    public final AtomicInteger emitted = new AtomicInteger();
+    // Ports the emitted packets were output to, and emitted packets whose data could be written to
+    public final AtomicInteger outputs = new AtomicInteger();
+    public final AtomicInteger writableEmits = new AtomicInteger();
+    public final List<OutboundPacket> emittedPackets = Collections.synchronizedList(new ArrayList<OutboundPacket>());
+    // Installed rules with their life and packet counters, and installed meters
+    public final Map<FlowRule, long[]> rules = new ConcurrentHashMap<FlowRule, long[]>();
+    public final Set<MeterId> meters = ConcurrentHashMap.newKeySet();
+
+    private final List<ConnectPoint> edgePoints = new ArrayList<ConnectPoint>();
+    private final Map<IpAddress, Set<Host>> hosts = new ConcurrentHashMap<IpAddress, Set<Host>>();
+    private final Set<Interface> interfaces = ConcurrentHashMap.newKeySet();
+    private PacketProcessor processor;
+    private HostListener hostListener;
+
+    public TestProxyArp(int devices, int ports) {
+        for (int d = 0; d < devices; d++) {
+            for (int p = 1; p <= ports; p++) {
+                edgePoints.add(location(d, p));
+            }
+        }
+        component.cfgService = new ComponentConfigAdapter();
+        component.coreService = new MockCoreService();
+        component.flowRuleService = new MockFlowRuleService();
+        component.meterService = (MeterService) Proxy.newProxyInstance(MeterService.class.getClassLoader(),
+                new Class<?>[] {MeterService.class}, new MockMeterService());
+        component.packetService = new MockPacketService();
+        component.edgePortService = new MockEdgePortService();
+        component.hostService = new MockHostService();
+        component.interfaceService = new MockInterfaceService();
+    }
+
+    public TestProxyArp activate() {
+        component.activate(null);
+        return this;
+    }
+
+    public void configure(String name, Object value) {
+        Dictionary<String, Object> properties = new Hashtable<String, Object>();
+        properties.put(name, String.valueOf(value));
+        component.modified(new ComponentContextAdapter() {
+            @Override
+            public Dictionary<String, Object> getProperties() {
+                return properties;
+            }
+        });
+    }
+
+    /**
+     * Runs the periodic maintenance, which ends the window of the hot target detection.
+     */
+    public void maintain() {
+        component.maintainArpCache(System.nanoTime());
+    }
+
+    /**
+     * Sets the counters every installed rule reports, as if polled from the switches.
+     */
+    public void setRuleCounters(long life, long packets) {
+        for (long[] counters: rules.values()) {
+            counters[0] = life;
+            counters[1] = packets;
+        }
+    }
+
+    public void deactivate() {
+        component.deactivate();
+    }
+
+    public void process(PacketContext context) {
+        processor.process(context);
+    }
+
+    public int edgePointCount() {
+        return edgePoints.size();
+    }
+
+    public static ConnectPoint location(int device, int port) {
+        return new ConnectPoint(DeviceId.deviceId(String.format("of:%016x", device + 1)),
+                                PortNumber.portNumber(port));
+    }
+
+    public static MacAddress mac(int host) {
+        return MacAddress.valueOf(0x020000000000L + host);
+    }
+
+    /**
+     * Makes a host known to the host service, and tells its listener.
+     */
+    public Host addHost(String ip, MacAddress mac, ConnectPoint cp) {
+        Host host = new DefaultHost(ProviderId.NONE, HostId.hostId(mac, VlanId.NONE), mac, VlanId.NONE,
+                                    new HostLocation(cp, System.currentTimeMillis()),
+                                    Collections.singleton(IpAddress.valueOf(ip)));
+        hosts.computeIfAbsent(IpAddress.valueOf(ip), k -> ConcurrentHashMap.newKeySet()).add(host);
+        if (hostListener != null) {
+            hostListener.event(new HostEvent(HostEvent.Type.HOST_ADDED, host));
+        }
+        return host;
+    }
+
+    /**
+     * Replaces a host known to the host service with its new addresses, and tells its listener.
+     */
+    public Host updateHost(Host prev, String... ips) {
+        Set<IpAddress> addresses = new HashSet<IpAddress>();
+        for (String ip: ips) {
+            addresses.add(IpAddress.valueOf(ip));
+        }
+        Host host = new DefaultHost(ProviderId.NONE, prev.id(), prev.mac(), prev.vlan(), prev.location(), addresses);
+        for (IpAddress ip: prev.ipAddresses()) {
+            hosts.getOrDefault(ip, Collections.emptySet()).remove(prev);
+        }
+        for (IpAddress ip: addresses) {
+            hosts.computeIfAbsent(ip, k -> ConcurrentHashMap.newKeySet()).add(host);
+        }
+        if (hostListener != null) {
+            hostListener.event(new HostEvent(HostEvent.Type.HOST_UPDATED, host, prev));
+        }
+        return host;
+    }
+
+    /**
+     * Makes the host service forget a host, and tells its listener.
+     */
+    public void removeHost(Host host) {
+        for (IpAddress ip: host.ipAddresses()) {
+            hosts.getOrDefault(ip, Collections.emptySet()).remove(host);
+        }
+        if (hostListener != null) {
+            hostListener.event(new HostEvent(HostEvent.Type.HOST_REMOVED, host));
+        }
+    }
+
+    /**
+     * Configures an untagged interface, e.g. "10.0.1.254/24", on an edge port.
+     */
+    public void addInterface(ConnectPoint cp, String address) {
+        interfaces.add(new Interface("intf-" + cp, cp, Collections.singletonList(InterfaceIpAddress.valueOf(address)),
+                                     null, VlanId.NONE));
+    }
+
+    /**
+     * Creates the context of an ARP request punted from an edge port.
+     */
+    public PacketContext request(ConnectPoint cp, MacAddress src, String srcIp, String targetIp) {
+        return context(cp, requestFrame(src, srcIp, targetIp));
+    }
+
+    /**
+     * Creates the context of the ARP reply of a host to a request, punted
+     * from its edge port.
+     */
+    public PacketContext reply(ConnectPoint cp, MacAddress src, String srcIp, MacAddress requester,
+                               String requesterIp) {
+        return context(cp, ARP.buildArpReply(Ip4Address.valueOf(srcIp), src,
+                                             requestFrame(requester, requesterIp, srcIp)));
+    }
+
+    private static Ethernet requestFrame(MacAddress src, String srcIp, String targetIp) {
+        return ARP.buildArpRequest(src.toBytes(), Ip4Address.valueOf(srcIp).toOctets(),
+                                   Ip4Address.valueOf(targetIp).toOctets(), VlanId.UNTAGGED);
+    }
+
+    private PacketContext context(ConnectPoint cp, Ethernet eth) {
+        return new TestPacketContext(new DefaultInboundPacket(cp, eth, ByteBuffer.wrap(eth.serialize())),
+                new DefaultOutboundPacket(cp.deviceId(), DefaultTrafficTreatment.emptyTreatment(),
+                                          ByteBuffer.wrap(new byte[0])));
+    }
+
+    private static class TestPacketContext extends DefaultPacketContext {
+        TestPacketContext(DefaultInboundPacket in, DefaultOutboundPacket out) {
+            super(System.currentTimeMillis(), in, out, false);
+        }
+
+        @Override
+        public void send() {
+        }
+    }
+
+    private static class MockCoreService extends CoreServiceAdapter {
+        @Override
+        public ApplicationId registerApplication(String name) {
+            return new DefaultApplicationId(1, name);
+        }
+    }
+
+    private class MockPacketService extends PacketServiceAdapter {
+        @Override
+        public void addProcessor(PacketProcessor processor, int priority) {
+            TestProxyArp.this.processor = processor;
+        }
+
+        @Override
+        public void emit(OutboundPacket packet) {
+            emitted.incrementAndGet();
+            emittedPackets.add(packet);
+            for (Instruction instruction: packet.treatment().allInstructions()) {
+                if (instruction.type() == Instruction.Type.OUTPUT) {
+                    outputs.incrementAndGet();
+                }
+            }
+            if (!packet.data().isReadOnly()) {
+                writableEmits.incrementAndGet();
+            }
+        }
+    }
+
+    private class MockFlowRuleService extends FlowRuleServiceAdapter {
+        @Override
+        public void applyFlowRules(FlowRule... flowRules) {
+            for (FlowRule rule: flowRules) {
+                rules.put(rule, new long[2]);
+            }
+        }
+
+        @Override
+        public void removeFlowRules(FlowRule... flowRules) {
+            for (FlowRule rule: flowRules) {
+                rules.remove(rule);
+            }
+        }
+
+        @Override
+        public Iterable<FlowEntry> getFlowEntriesById(ApplicationId id) {
+            List<FlowEntry> entries = new ArrayList<FlowEntry>();
+            for (Map.Entry<FlowRule, long[]> rule: rules.entrySet()) {
+                long[] counters = rule.getValue();
+                entries.add(new DefaultFlowEntry(rule.getKey(), FlowEntry.FlowEntryState.ADDED,
+                                                 counters[0], counters[1], 0));
+            }
+            return entries;
+        }
+    }
+
+    // The meter service has no adapter, so only the calls the component makes are answered
+    private class MockMeterService implements InvocationHandler {
+        private final AtomicLong nextId = new AtomicLong(1);
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "submit":
+                    MeterRequest request = (MeterRequest) args[0];
+                    Meter meter = DefaultMeter.builder()
+                        .forDevice(request.deviceId())
+                        .withId(MeterId.meterId(nextId.getAndIncrement()))
+                        .fromApp(request.appId())
+                        .withUnit(request.unit())
+                        .withBands(request.bands())
+                        .build();
+                    meters.add(meter.id());
+                    return meter;
+                case "withdraw":
+                    meters.remove((MeterId) args[1]);
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+
+    private class MockEdgePortService extends EdgePortServiceAdapter {
+        @Override
+        public Iterable<ConnectPoint> getEdgePoints() {
+            return edgePoints;
+        }
+
+        @Override
+        public boolean isEdgePoint(ConnectPoint point) {
+            return edgePoints.contains(point);
+        }
+    }
+
+    private class MockHostService extends HostServiceAdapter {
+        @Override
+        public void addListener(HostListener listener) {
+            hostListener = listener;
+        }
+
+        @Override
+        public void removeListener(HostListener listener) {
+            hostListener = null;
+        }
+
+        @Override
+        public Iterable<Host> getHosts() {
+            Set<Host> all = new HashSet<Host>();
+            hosts.values().forEach(all::addAll);
+            return all;
+        }
+
+        @Override
+        public Set<Host> getHostsByIp(IpAddress ip) {
+            return hosts.getOrDefault(ip, Collections.emptySet());
+        }
+    }
+
+    private class MockInterfaceService extends InterfaceServiceAdapter {
+        @Override
+        public Set<Interface> getMatchingInterfaces(IpAddress ip) {
+            Set<Interface> matching = new HashSet<Interface>();
+            for (Interface intf: interfaces) {
+                for (InterfaceIpAddress address: intf.ipAddressesList()) {
+                    if (address.subnetAddress().contains(ip)) {
+                        matching.add(intf);
+                    }
+                }
+            }
+            return matching;
+        }
+
+        @Override
+        public Set<Interface> getInterfacesByVlan(VlanId vlan) {
+            Set<Interface> matching = new HashSet<Interface>();
+            for (Interface intf: interfaces) {
+                if (intf.vlan().equals(vlan)) {
+                    matching.add(intf);
+                }
+            }
+            return matching;
+        }
+    }
+}